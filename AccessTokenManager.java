@@ -0,0 +1,377 @@
+package com.ps.google;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.auth.oauth2.GoogleRefreshTokenRequest;
+import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide cache of users' access tokens and the credentials using them.
+ * <p>
+ * Every user gets a single credential shared by all of their service wrappers. Tokens are refreshed in the background
+ * shortly before they expire, so requests rarely wait on a refresh, and concurrent refreshes for the same user are
+ * collapsed into a single call to the {@link TokenSource}. A request rejected with {@code 401 Unauthorized} refreshes
+ * the token and is retried once.
+ * <p>
+ * Users that have not made a request for {@link #DEFAULT_IDLE_TIMEOUT} are no longer refreshed and are dropped from the
+ * cache.
+ */
+public class AccessTokenManager {
+
+    /** The default time before expiry at which a token is refreshed, in milliseconds */
+    public static final long DEFAULT_REFRESH_MARGIN = TimeUnit.MINUTES.toMillis(5);
+
+    /** The default time after which an unused user is dropped, in milliseconds */
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    /** The lifetime assumed for a token whose expiry is unknown, in milliseconds */
+    protected static final long DEFAULT_TOKEN_LIFETIME = TimeUnit.HOURS.toMillis(1);
+
+    /** Threads running background refreshes, shared by all managers */
+    private static final ScheduledExecutorService REFRESHER = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "access-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Obtains a new access token for a user. */
+    public interface TokenSource {
+
+        /**
+         * Obtains a new access token.
+         *
+         * @param userId the ID of the user.
+         * @return the new access token.
+         * @throws IOException
+         */
+        AccessToken fetch(String userId) throws IOException;
+    }
+
+    /** An access token and the time it expires. */
+    public static final class AccessToken {
+        private final String value;
+        private final long expirationTimeMillis;
+
+        /**
+         * @param value                the access token.
+         * @param expirationTimeMillis the time the token expires, in milliseconds since the epoch.
+         */
+        public AccessToken(String value, long expirationTimeMillis) {
+            this.value = value;
+            this.expirationTimeMillis = expirationTimeMillis;
+        }
+
+        /**
+         * @return the access token.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return the time the token expires, in milliseconds since the epoch.
+         */
+        public long getExpirationTimeMillis() {
+            return expirationTimeMillis;
+        }
+    }
+
+    private final class UserEntry {
+        final String userId;
+        final GoogleCredential credential;
+        volatile AccessToken token;
+        volatile long lastUsed = System.currentTimeMillis();
+        CompletableFuture<AccessToken> refreshing;
+
+        UserEntry(String userId) {
+            this.userId = userId;
+            this.credential = new ManagedCredential(new GoogleCredential.Builder()
+                .setTransport(httpTransport)
+                .setJsonFactory(jsonFactory), userId);
+        }
+    }
+
+    private final TokenSource source;
+    private final HttpTransport httpTransport;
+    private final JsonFactory jsonFactory;
+    private final long refreshMargin;
+    private final long idleTimeout;
+    private final ConcurrentHashMap<String, UserEntry> users = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a manager using the transport and JSON factory shared through {@link HttpTransportRegistry}.
+     *
+     * @param source the object used to obtain new tokens.
+     */
+    public AccessTokenManager(TokenSource source) {
+        this(source, HttpTransportRegistry.getTransport(), HttpTransportRegistry.getJsonFactory(),
+            DEFAULT_REFRESH_MARGIN, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param source        the object used to obtain new tokens.
+     * @param httpTransport the transport used by the credentials.
+     * @param jsonFactory   the JSON factory used by the credentials.
+     * @param refreshMargin the time before expiry at which a token is refreshed, in milliseconds.
+     * @param idleTimeout   the time after which an unused user is dropped, in milliseconds.
+     */
+    public AccessTokenManager(TokenSource source, HttpTransport httpTransport, JsonFactory jsonFactory,
+                              long refreshMargin, long idleTimeout) {
+        this.source = source;
+        this.httpTransport = httpTransport;
+        this.jsonFactory = jsonFactory;
+        this.refreshMargin = refreshMargin;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns a token source exchanging each user's OAuth refresh token for a new access token.
+     *
+     * @param clientId      the OAuth client ID.
+     * @param clientSecret  the OAuth client secret.
+     * @param refreshTokens returns the refresh token of a user, or {@code null} if the user has none.
+     * @return the token source.
+     */
+    public static TokenSource refreshTokenSource(String clientId, String clientSecret,
+                                                 Function<String, String> refreshTokens) {
+        return userId -> {
+            String refreshToken = refreshTokens.apply(userId);
+            if (refreshToken == null) {
+                throw new IOException("No refresh token available for user " + userId);
+            }
+            GoogleTokenResponse response = new GoogleRefreshTokenRequest(HttpTransportRegistry.getTransport(),
+                HttpTransportRegistry.getJsonFactory(), refreshToken, clientId, clientSecret).execute();
+            return new AccessToken(response.getAccessToken(), expirationTime(response.getExpiresInSeconds()));
+        };
+    }
+
+    /**
+     * Returns the credential shared by all of a user's service wrappers.
+     *
+     * @param userId the ID of the user.
+     * @return the user's credential.
+     */
+    public GoogleCredential getCredential(String userId) {
+        return entry(userId).credential;
+    }
+
+    /**
+     * Caches a token obtained elsewhere, for example during the OAuth flow.
+     *
+     * @param userId      the ID of the user.
+     * @param accessToken the access token.
+     */
+    public void setAccessToken(String userId, AccessToken accessToken) {
+        UserEntry entry = entry(userId);
+        entry.token = accessToken;
+        scheduleRefresh(entry, accessToken);
+    }
+
+    /**
+     * Returns a valid access token for a user. A cached token is returned immediately, starting a background refresh
+     * if it is about to expire. Only a missing or expired token makes the caller wait for a refresh.
+     *
+     * @param userId the ID of the user.
+     * @return the access token.
+     * @throws IOException if a new token could not be obtained.
+     */
+    public AccessToken getAccessToken(String userId) throws IOException {
+        UserEntry entry = entry(userId);
+        entry.lastUsed = System.currentTimeMillis();
+        AccessToken token = entry.token;
+        if (token != null && entry.lastUsed < token.getExpirationTimeMillis()) {
+            if (entry.lastUsed >= token.getExpirationTimeMillis() - refreshMargin) {
+                refresh(entry, true);
+            }
+            return token;
+        }
+        return await(refresh(entry, false));
+    }
+
+    /**
+     * Returns a new access token for a user whose token was rejected. If another thread already replaced the rejected
+     * token, the replacement is returned without another refresh.
+     *
+     * @param userId   the ID of the user.
+     * @param rejected the rejected access token, or {@code null} to always refresh.
+     * @return the new access token.
+     * @throws IOException if a new token could not be obtained.
+     */
+    public AccessToken refreshAccessToken(String userId, String rejected) throws IOException {
+        UserEntry entry = entry(userId);
+        AccessToken token = entry.token;
+        if (token != null && rejected != null && !token.getValue().equals(rejected)
+            && System.currentTimeMillis() < token.getExpirationTimeMillis()) {
+            return token;
+        }
+        return await(refresh(entry, false));
+    }
+
+    /**
+     * Drops a user's cached token, for example when they sign out.
+     *
+     * @param userId the ID of the user.
+     */
+    public void invalidate(String userId) {
+        users.remove(userId);
+    }
+
+    /**
+     * @return the transport used by the credentials.
+     */
+    public HttpTransport getHttpTransport() {
+        return httpTransport;
+    }
+
+    /**
+     * @return the JSON factory used by the credentials.
+     */
+    public JsonFactory getJsonFactory() {
+        return jsonFactory;
+    }
+
+    /**
+     * @return the number of users with a cached credential.
+     */
+    public int size() {
+        return users.size();
+    }
+
+    private UserEntry entry(String userId) {
+        return users.computeIfAbsent(userId, UserEntry::new);
+    }
+
+    // starts a refresh unless one is already running, on a background thread or on the calling one
+    private CompletableFuture<AccessToken> refresh(UserEntry entry, boolean background) {
+        CompletableFuture<AccessToken> refreshing;
+        synchronized (entry) {
+            if (entry.refreshing != null) {
+                return entry.refreshing;
+            }
+            refreshing = entry.refreshing = new CompletableFuture<>();
+        }
+        Runnable task = () -> {
+            try {
+                AccessToken token = source.fetch(entry.userId);
+                entry.token = token;
+                scheduleRefresh(entry, token);
+                complete(entry, refreshing, token, null);
+            } catch (Throwable e) {
+                complete(entry, refreshing, null, e);
+            }
+        };
+        if (background) {
+            REFRESHER.execute(task);
+        } else {
+            task.run();
+        }
+        return refreshing;
+    }
+
+    private static void complete(UserEntry entry, CompletableFuture<AccessToken> refreshing, AccessToken token,
+                                 Throwable error) {
+        synchronized (entry) {
+            entry.refreshing = null;
+        }
+        if (error == null) {
+            refreshing.complete(token);
+        } else {
+            Logger.getLogger(AccessTokenManager.class.getName())
+                .log(Level.WARNING, "Error refreshing the access token of " + entry.userId, error);
+            refreshing.completeExceptionally(error);
+        }
+    }
+
+    private void scheduleRefresh(UserEntry entry, AccessToken token) {
+        long delay = token.getExpirationTimeMillis() - refreshMargin - System.currentTimeMillis();
+        REFRESHER.schedule(() -> {
+            if (entry.token != token) {
+                return;
+            }
+            if (System.currentTimeMillis() - entry.lastUsed > idleTimeout) {
+                users.remove(entry.userId, entry);
+                return;
+            }
+            refresh(entry, false);
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private static AccessToken await(CompletableFuture<AccessToken> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while refreshing an access token.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error refreshing an access token.", e.getCause());
+        }
+    }
+
+    private static long expirationTime(Long expiresInSeconds) {
+        long lifetime = expiresInSeconds == null ? DEFAULT_TOKEN_LIFETIME : TimeUnit.SECONDS.toMillis(expiresInSeconds);
+        return System.currentTimeMillis() + lifetime;
+    }
+
+    /** A credential taking its tokens from the manager instead of refreshing them itself. */
+    private final class ManagedCredential extends GoogleCredential {
+        private final String userId;
+        private final Set<HttpRequest> retried = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<HttpRequest, Boolean>()));
+
+        ManagedCredential(GoogleCredential.Builder builder, String userId) {
+            super(builder);
+            this.userId = userId;
+        }
+
+        // picks up the token refreshed in the background before authorizing the request
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            AccessToken token = AccessTokenManager.this.getAccessToken(userId);
+            if (!token.getValue().equals(getAccessToken())) {
+                setAccessToken(token.getValue());
+                setExpirationTimeMilliseconds(token.getExpirationTimeMillis());
+            }
+            super.intercept(request);
+        }
+
+        // refreshes and retries a request rejected with 401 at most once
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry) {
+            if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_UNAUTHORIZED && !retried.add(request)) {
+                return false;
+            }
+            return super.handleResponse(request, response, supportsRetry);
+        }
+
+        @Override
+        protected TokenResponse executeRefreshToken() throws IOException {
+            AccessToken token = refreshAccessToken(userId, getAccessToken());
+            return new TokenResponse()
+                .setAccessToken(token.getValue())
+                .setExpiresInSeconds(TimeUnit.MILLISECONDS.toSeconds(
+                    token.getExpirationTimeMillis() - System.currentTimeMillis()));
+        }
+    }
+}
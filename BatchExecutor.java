@@ -0,0 +1,121 @@
+package com.ps.google;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends operations as Google batch HTTP requests, packing up to a fixed number of operations in each batch.
+ * <p>
+ * Every operation gets its own {@link BatchResult}, in the order the operations were passed in. A failed operation or
+ * a failed batch does not stop the remaining ones from being sent. Batches are sent one after the other unless an
+ * executor is supplied, in which case up to a fixed number of batches are sent at the same time.
+ */
+public class BatchExecutor {
+
+    private final Supplier<BatchRequest> batches;
+    private final int batchSize;
+    private final Executor executor;
+    private final int maxConcurrentBatches;
+
+    /**
+     * @param batches   creates a new, empty batch request, for example {@code service::batch}.
+     * @param batchSize the maximum number of operations sent in one batch request.
+     */
+    public BatchExecutor(Supplier<BatchRequest> batches, int batchSize) {
+        this(batches, batchSize, null, 1);
+    }
+
+    /**
+     * @param batches              creates a new, empty batch request, for example {@code service::batch}.
+     * @param batchSize            the maximum number of operations sent in one batch request.
+     * @param executor             the executor sending the batches, or {@code null} to send them on the calling thread.
+     * @param maxConcurrentBatches the maximum number of batches sent at the same time.
+     */
+    public BatchExecutor(Supplier<BatchRequest> batches, int batchSize, Executor executor, int maxConcurrentBatches) {
+        if (batchSize < 1 || maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException("Batch size and concurrency must be positive.");
+        }
+        this.batches = batches;
+        this.batchSize = batchSize;
+        this.executor = executor;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+    }
+
+    /**
+     * Sends the operations and collects their results.
+     *
+     * @param operations the operations to send.
+     * @return the result of each operation, in the same order as the operations.
+     */
+    public <T> List<BatchResult<T>> execute(List<BatchOperation<T>> operations) {
+        @SuppressWarnings("unchecked")
+        BatchResult<T>[] results = new BatchResult[operations.size()];
+        int batchCount = (operations.size() + batchSize - 1) / batchSize;
+        if (executor == null || batchCount < 2) {
+            for (int start = 0; start < operations.size(); start += batchSize) {
+                executeBatch(operations, start, Math.min(start + batchSize, operations.size()), results);
+            }
+        } else {
+            AtomicInteger nextBatch = new AtomicInteger();
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.min(maxConcurrentBatches, batchCount); i++) {
+                workers.add(CompletableFuture.runAsync(() -> {
+                    int batch;
+                    while ((batch = nextBatch.getAndIncrement()) < batchCount) {
+                        int start = batch * batchSize;
+                        executeBatch(operations, start, Math.min(start + batchSize, operations.size()), results);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).join();
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * Sends the operations in {@code [from, to)} as a single batch request.
+     *
+     * @param operations all operations.
+     * @param from       the index of the first operation to send.
+     * @param to         the index after the last operation to send.
+     * @param results    the array receiving the result of each operation.
+     */
+    protected <T> void executeBatch(List<BatchOperation<T>> operations, int from, int to, BatchResult<T>[] results) {
+        BatchRequest batch = batches.get();
+        try {
+            for (int i = from; i < to; i++) {
+                BatchOperation<T> operation = operations.get(i);
+                int index = i;
+                operation.getRequest().queue(batch, new JsonBatchCallback<T>() {
+                    @Override
+                    public void onSuccess(T value, HttpHeaders responseHeaders) {
+                        results[index] = BatchResult.success(operation.getKey(), value);
+                    }
+
+                    @Override
+                    public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                        results[index] = BatchResult.failure(operation.getKey(), error);
+                    }
+                });
+            }
+            batch.execute();
+        } catch (IOException e) {
+            for (int i = from; i < to; i++) {
+                if (results[i] == null) {
+                    results[i] = BatchResult.failure(operations.get(i).getKey(), e);
+                }
+            }
+        }
+    }
+}
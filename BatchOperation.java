@@ -0,0 +1,54 @@
+package com.ps.google;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+
+import java.io.IOException;
+
+/**
+ * A single operation to be queued in a batch request, identified by a key reported back in its {@link BatchResult}.
+ *
+ * @param <T> the type of the value returned by the operation.
+ */
+public class BatchOperation<T> {
+
+    /** Queues the request of an operation. */
+    public interface Request<T> {
+
+        /**
+         * Queues the request in the specified batch.
+         *
+         * @param batch    the batch to queue the request in.
+         * @param callback the callback to be notified of the result.
+         * @throws IOException
+         */
+        void queue(BatchRequest batch, JsonBatchCallback<T> callback) throws IOException;
+    }
+
+    private final String key;
+    private final Request<T> request;
+
+    /**
+     * @param key     the key identifying the operation.
+     * @param request queues the request of the operation, for example
+     *                {@code (batch, callback) -> service.permissions().insert(fileID, permission).queue(batch, callback)}.
+     */
+    public BatchOperation(String key, Request<T> request) {
+        this.key = key;
+        this.request = request;
+    }
+
+    /**
+     * @return the key identifying the operation.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the object used to queue the request of the operation.
+     */
+    public Request<T> getRequest() {
+        return request;
+    }
+}
@@ -0,0 +1,93 @@
+package com.ps.google;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+
+/**
+ * Result of a single operation sent as part of a batch request. Either holds the value returned for the operation or
+ * the error it failed with.
+ *
+ * @param <T> the type of the value returned by the operation.
+ */
+public class BatchResult<T> {
+
+    private final String key;
+    private final T value;
+    private final GoogleJsonError error;
+
+    private BatchResult(String key, T value, GoogleJsonError error) {
+        this.key = key;
+        this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * Creates the result of a successful operation.
+     *
+     * @param key   the key identifying the operation.
+     * @param value the value returned by the operation, may be {@code null}.
+     * @return the result.
+     */
+    public static <T> BatchResult<T> success(String key, T value) {
+        return new BatchResult<>(key, value, null);
+    }
+
+    /**
+     * Creates the result of a failed operation.
+     *
+     * @param key   the key identifying the operation.
+     * @param error the error the operation failed with.
+     * @return the result.
+     */
+    public static <T> BatchResult<T> failure(String key, GoogleJsonError error) {
+        return new BatchResult<>(key, null, error);
+    }
+
+    /**
+     * Creates the result of an operation which failed without an error response, for example because the whole batch
+     * could not be sent.
+     *
+     * @param key   the key identifying the operation.
+     * @param cause the exception the operation failed with.
+     * @return the result.
+     */
+    public static <T> BatchResult<T> failure(String key, Exception cause) {
+        GoogleJsonError error = new GoogleJsonError();
+        error.setMessage(cause.toString());
+        return new BatchResult<>(key, null, error);
+    }
+
+    /**
+     * @return the key identifying the operation.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the value returned by the operation, or {@code null} if it failed.
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return the error the operation failed with, or {@code null} if it succeeded.
+     */
+    public GoogleJsonError getError() {
+        return error;
+    }
+
+    /**
+     * @return {@code true} if the operation succeeded, {@code false} otherwise.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess()
+            ? String.format("BatchResult{key=%s, success}", key)
+            : String.format("BatchResult{key=%s, error=%d %s}", key, error.getCode(), error.getMessage());
+    }
+}
@@ -0,0 +1,292 @@
+package com.ps.google;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded cache of API resources revalidated with their ETag, used by the caches of the service wrappers.
+ * <p>
+ * Entries younger than the TTL are served without a request. Older entries are revalidated with their ETag, so a
+ * resource that has not changed costs a {@code 304 Not Modified} instead of a full response. Concurrent lookups of the
+ * same key that miss the cache share a single request. The cache is bounded by the number of entries and by the
+ * approximate size of the cached resources, evicting the least recently used entries.
+ * <p>
+ * A load still in flight when its key is invalidated or overwritten is superseded: its result is handed to the callers
+ * waiting on it but not cached, and later lookups start a new load, so a write is never undone by a read that started
+ * before it.
+ * <p>
+ * Resources are only valid for the user they were fetched for, so a cache instance must not be shared between users.
+ *
+ * @param <V> the type of the cached resources.
+ */
+public class EtagCache<V> {
+
+    /** Loads a resource. */
+    public interface Loader<V> {
+
+        /**
+         * Loads a resource.
+         *
+         * @param etag the ETag of the cached resource, or {@code null} if nothing is cached.
+         * @return the resource, or {@code null} if it has not changed since {@code etag}.
+         * @throws IOException
+         */
+        V load(String etag) throws IOException;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long weight;
+        volatile long fetched;
+
+        Entry(V value, long weight, long fetched) {
+            this.value = value;
+            this.weight = weight;
+            this.fetched = fetched;
+        }
+    }
+
+    /** A load in flight, shared by the lookups of its key until it completes or is superseded. */
+    private static final class Load<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        /** Set, under the cache's lock, when the key was invalidated or overwritten during the load */
+        boolean superseded;
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttl;
+    private final Function<V, String> etagOf;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Load<V>> loads = new HashMap<>();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of cached resources.
+     * @param maxBytes   the maximum approximate size of the cached resources, in bytes.
+     * @param ttl        the time an entry is served without revalidation, in milliseconds.
+     * @param etagOf     returns the ETag of a resource, or {@code null} if it has none.
+     * @param weigher    returns the approximate size of a resource, in bytes.
+     */
+    public EtagCache(int maxEntries, long maxBytes, long ttl, Function<V, String> etagOf, ToLongFunction<V> weigher) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+        this.etagOf = etagOf;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns a resource, loading or revalidating it if needed. If another thread is already loading the same key,
+     * waits for its result instead of making another request.
+     *
+     * @param key    the key of the resource.
+     * @param loader used to load the resource when it is missing or stale.
+     * @return the resource, or {@code null} if the loader returned none for a key that was not cached.
+     * @throws IOException
+     */
+    public V get(String key, Loader<V> loader) throws IOException {
+        Entry<V> entry;
+        Load<V> load;
+        boolean owner;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.fetched < ttl) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            load = loads.get(key);
+            owner = load == null;
+            if (owner) {
+                load = new Load<>();
+                loads.put(key, load);
+            }
+        }
+        if (!owner) {
+            coalesced.incrementAndGet();
+            return await(load.result);
+        }
+        try {
+            V value = load(key, entry, loader, load);
+            load.result.complete(value);
+            return value;
+        } catch (IOException | RuntimeException e) {
+            load.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                loads.remove(key, load);
+            }
+        }
+    }
+
+    /**
+     * Caches a resource, for example the result of a write.
+     *
+     * @param key   the key of the resource.
+     * @param value the resource.
+     */
+    public synchronized void put(String key, V value) {
+        supersede(key);
+        put(key, value, System.currentTimeMillis());
+    }
+
+    /**
+     * Removes a resource from the cache.
+     *
+     * @param key the key of the resource.
+     */
+    public synchronized void invalidate(String key) {
+        supersede(key);
+        Entry<V> previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= previous.weight;
+        }
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public synchronized void clear() {
+        for (Load<V> load : loads.values()) {
+            load.superseded = true;
+        }
+        loads.clear();
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return the number of cached resources.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the approximate size of the cached resources, in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of lookups served from the cache without a request.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to load the full resource.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of stale entries confirmed unchanged by their ETag.
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * @return the number of entries evicted to stay within the bounds.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of lookups that waited on a request already in flight.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EtagCache{size=%d, bytes=%d, hits=%d, misses=%d, revalidations=%d, evictions=%d, "
+            + "coalesced=%d}", size(), getBytes(), getHits(), getMisses(), getRevalidations(), getEvictions(),
+            getCoalesced());
+    }
+
+    private V load(String key, Entry<V> entry, Loader<V> loader, Load<V> load) throws IOException {
+        long now = System.currentTimeMillis();
+        V value = loader.load(entry == null ? null : etagOf.apply(entry.value));
+        if (value == null && entry != null) {
+            revalidations.incrementAndGet();
+            synchronized (this) {
+                if (!load.superseded) {
+                    entry.fetched = now;
+                }
+            }
+            return entry.value;
+        }
+        misses.incrementAndGet();
+        if (value != null) {
+            synchronized (this) {
+                if (!load.superseded) {
+                    put(key, value, now);
+                }
+            }
+        }
+        return value;
+    }
+
+    // keeps a load started before a write of its key from caching its result, and makes later lookups load again
+    private void supersede(String key) {
+        Load<V> load = loads.remove(key);
+        if (load != null) {
+            load.superseded = true;
+        }
+    }
+
+    private void put(String key, V value, long fetched) {
+        Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value), fetched);
+        Entry<V> previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.weight;
+        }
+        bytes += entry.weight;
+        Iterator<Map.Entry<String, Entry<V>>> i = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && i.hasNext()) {
+            bytes -= i.next().getValue().weight;
+            i.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a shared request.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
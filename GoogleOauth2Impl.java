@@ -1,20 +1,38 @@
 package com.ps.google;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.HttpMediaType;
+import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.json.JsonParser;
 
 import com.google.api.client.auth.oauth2.Credential;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,26 +44,298 @@ public abstract class GoogleOauth2Impl {
     /** The application name */
     protected static final String APP_NAME = "Focus Feed";
 
+    /** The default maximum number of asynchronous calls running at the same time for one user */
+    public static final int DEFAULT_MAX_IN_FLIGHT = InFlightLimiter.DEFAULT_MAX_IN_FLIGHT;
+
+    /** The registry every request is reported to */
+    private static volatile MetricsRegistry metricsRegistry = JmxMetricsRegistry.getDefault();
+
+    /** The default maximum number of threads of the shared executor */
+    public static final int DEFAULT_MAX_THREADS = 64;
+
+    /** Threads running asynchronous calls and the concurrent requests of every wrapper */
+    private static volatile ExecutorService sharedExecutor = newSharedExecutor(DEFAULT_MAX_THREADS);
+
     /** Credential used to authenticate oauth requests */
     protected final GoogleCredential credential;
 
+    /** Key identifying the user, shared by all of their wrappers */
+    protected final String userKey;
+
     /** Objects used to create the credential and service */
     protected final HttpTransport httpTransport;
     protected final JsonFactory jsonFactory;
 
+    /** Executor running this user's asynchronous calls, or {@code null} for the shared executor */
+    private Executor asyncExecutor;
+
     /**
-     * Default constructor.
+     * Default constructor. Uses the transport and JSON factory shared through {@link HttpTransportRegistry}.
+     * <p>
+     * Without a user ID, the rate and in-flight limits are keyed by a hash of the token, so only wrappers created with
+     * the same token share them. Create wrappers with their {@code forUser} factories to share them by user ID.
      *
      * @param token the user's access token used for authentication.
      */
     public GoogleOauth2Impl(String token) {
-        httpTransport = new NetHttpTransport();
-        jsonFactory = new JacksonFactory();
-        credential = new GoogleCredential.Builder()
+        this(token, HttpTransportRegistry.getTransport(), HttpTransportRegistry.getJsonFactory());
+    }
+
+    /**
+     * Constructor used to supply a specific transport and JSON factory.
+     *
+     * @param token         the user's access token used for authentication.
+     * @param httpTransport the transport used to make requests.
+     * @param jsonFactory   the factory used to parse and serialize JSON.
+     */
+    public GoogleOauth2Impl(String token, HttpTransport httpTransport, JsonFactory jsonFactory) {
+        this(tokenKey(token), tokenCredential(token, httpTransport, jsonFactory), httpTransport, jsonFactory);
+    }
+
+    /**
+     * Constructor used to take the user's credential from a token manager, which keeps the access token fresh and
+     * shares it between all of the user's service wrappers.
+     *
+     * @param userId       the ID of the user.
+     * @param tokenManager the manager holding the user's credential.
+     */
+    protected GoogleOauth2Impl(String userId, AccessTokenManager tokenManager) {
+        this(userId, tokenManager.getCredential(userId), tokenManager.getHttpTransport(), tokenManager.getJsonFactory());
+    }
+
+    /**
+     * Constructor used to supply a ready credential.
+     *
+     * @param userKey       the key identifying the user, such as their ID, never a raw access token.
+     * @param credential    the credential used to authenticate requests.
+     * @param httpTransport the transport used to make requests.
+     * @param jsonFactory   the factory used to parse and serialize JSON.
+     */
+    protected GoogleOauth2Impl(String userKey, GoogleCredential credential, HttpTransport httpTransport,
+                               JsonFactory jsonFactory) {
+        this.userKey = userKey;
+        this.credential = credential;
+        this.httpTransport = httpTransport;
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Sets the registry every request is reported to, for wrappers created afterwards. Defaults to
+     * {@link JmxMetricsRegistry#getDefault()}; {@link MetricsRegistry#NOOP} turns metrics off.
+     *
+     * @param registry the metrics registry.
+     */
+    public static void setMetricsRegistry(MetricsRegistry registry) {
+        metricsRegistry = registry;
+    }
+
+    /**
+     * @return the registry every request is reported to.
+     */
+    public static MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Returns the initializer for the requests this user sends to an API. Requests are authorized with the credential,
+     * go through the rate limiter the user shares for that API, are retried when throttled, and are reported to the
+     * metrics registry.
+     *
+     * @param api the name of the API.
+     * @return the request initializer.
+     */
+    protected HttpRequestInitializer requestInitializer(String api) {
+        return new MetricsInitializer(api,
+            new RateLimitingInitializer(credential, QuotaRateLimiter.forUser(userKey, api), jsonFactory), metricsRegistry);
+    }
+
+    // identifies a user known only by their token without keeping the token itself in the shared registries
+    private static String tokenKey(String token) {
+        try {
+            return String.format("token:%064x", new BigInteger(1,
+                MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Switches this wrapper to a new access token for the same user, for example one refreshed by the client, without
+     * rebuilding the service. Wrappers taking their credential from an {@link AccessTokenManager} keep using the
+     * manager's token.
+     *
+     * @param token the user's new access token.
+     */
+    public void setAccessToken(String token) {
+        credential.setAccessToken(token);
+    }
+
+    // a credential holding a fixed access token, which is never refreshed
+    private static GoogleCredential tokenCredential(String token, HttpTransport httpTransport, JsonFactory jsonFactory) {
+        GoogleCredential credential = new GoogleCredential.Builder()
             .setTransport(httpTransport)
             .setJsonFactory(jsonFactory)
             .build();
         credential.setAccessToken(token);
+        return credential;
+    }
+
+    /**
+     * Creates an executor suitable for {@link #setSharedExecutor(ExecutorService)}: up to {@code maxThreads} daemon
+     * threads, kept for a minute when idle. Once every thread is busy, a task runs on the thread submitting it rather
+     * than waiting in a queue, which slows down the callers instead of letting tasks that wait for other tasks take
+     * every thread. Tasks submitted after shutdown are rejected.
+     *
+     * @param maxThreads the maximum number of threads.
+     * @return the executor.
+     */
+    public static ExecutorService newSharedExecutor(int maxThreads) {
+        AtomicInteger threads = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), r -> {
+                Thread thread = new Thread(r, "google-request-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, (task, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("The shared executor is shut down.");
+                }
+                task.run();
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Replaces the executor shared by all wrappers, which runs their asynchronous calls and the requests they send
+     * concurrently, such as prefetched pages, download ranges and batches. Work already submitted stays on the
+     * previous executor, which is returned to the caller to shut down once that work is done.
+     *
+     * @param executor the new shared executor, typically from {@link #newSharedExecutor(int)}.
+     * @return the previous shared executor.
+     */
+    public static synchronized ExecutorService setSharedExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        ExecutorService previous = sharedExecutor;
+        sharedExecutor = executor;
+        return previous;
+    }
+
+    /**
+     * @return the executor shared by all wrappers, bounded to {@link #DEFAULT_MAX_THREADS} threads unless replaced.
+     */
+    public static ExecutorService getSharedExecutor() {
+        return sharedExecutor;
+    }
+
+    /**
+     * Sets the executor running this user's asynchronous calls. Defaults to the {@link #getSharedExecutor() shared
+     * executor}.
+     *
+     * @param asyncExecutor the executor, or {@code null} for the shared executor.
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Sets the maximum number of this user's asynchronous calls running at the same time. Further calls are queued,
+     * without holding a thread, until a running call completes. The limit is shared with every other wrapper of the
+     * user, through {@link InFlightLimiter#forUser(String)}, and defaults to {@link #DEFAULT_MAX_IN_FLIGHT}.
+     *
+     * @param maxInFlight the maximum number of calls in flight.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        InFlightLimiter.forUser(userKey).setMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Runs a blocking call on the asynchronous executor, subject to the in-flight limit. Any method of a service
+     * wrapper can be made asynchronous this way, for example {@code drive.async(() -> drive.search(query))}. The
+     * wrappers provide an {@code Async} variant of each of their blocking methods, except for pagers and streams, which
+     * fetch their pages as they are consumed.
+     * <p>
+     * Cancelling the returned future before the call starts means it never runs. Cancelling it while the call is
+     * running completes the future and interrupts the thread running the call, but does not abort an HTTP request
+     * already sent: the JDK does not interrupt a blocked socket read, so the request runs to its end or its read
+     * timeout, and the call only stops once it checks the interrupt, typically before its next request.
+     *
+     * @param call the call to run.
+     * @return a future completed with the result of the call, or exceptionally with the exception it threw.
+     */
+    public <T> CompletableFuture<T> async(Callable<T> call) {
+        AsyncCall<T> asyncCall = new AsyncCall<>(call, InFlightLimiter.forUser(userKey));
+        asyncCall.limiter.submit(asyncCall);
+        return asyncCall;
+    }
+
+    /**
+     * @return the number of this user's asynchronous calls currently running, across all of their wrappers.
+     */
+    public int getInFlight() {
+        return InFlightLimiter.forUser(userKey).getInFlight();
+    }
+
+    /** A call running on the asynchronous executor, interrupting its thread when cancelled. */
+    private final class AsyncCall<T> extends CompletableFuture<T> implements Runnable, InFlightLimiter.Call {
+        private final Callable<T> call;
+        private final InFlightLimiter limiter;
+        private Thread runner;
+
+        AsyncCall(Callable<T> call, InFlightLimiter limiter) {
+            this.call = call;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public void start() {
+            try {
+                (asyncExecutor != null ? asyncExecutor : sharedExecutor).execute(this);
+            } catch (RejectedExecutionException e) {
+                completeExceptionally(e);
+                limiter.release();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (this) {
+                    if (isDone()) {
+                        return;
+                    }
+                    runner = Thread.currentThread();
+                }
+                try {
+                    complete(call.call());
+                } catch (Throwable e) {
+                    completeExceptionally(e);
+                } finally {
+                    synchronized (this) {
+                        runner = null;
+                    }
+                    // clear an interrupt from a cancellation racing with completion
+                    Thread.interrupted();
+                }
+            } finally {
+                limiter.release();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                synchronized (this) {
+                    if (runner != null) {
+                        runner.interrupt();
+                    }
+                }
+            }
+            return cancelled;
+        }
     }
 
     /**
@@ -56,48 +346,92 @@ public abstract class GoogleOauth2Impl {
      */
 
     public String parseContent(HttpResponse httpResponse) throws IOException {
-        BufferedReader reader = null;
-        StringBuilder builder;
         String content = "";
+        InputStream in = null;
         try {
-            reader = new BufferedReader(new InputStreamReader(httpResponse.getContent()));
-            builder = new StringBuilder();
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                builder.append(line);
+            in = httpResponse.getContent();
+            if (in != null) {
+                content = ResponseBuffers.readFully(in, getContentCharset(httpResponse));
             }
-            content = builder.toString();
         } catch (IOException e) {
             Logger.getLogger(GoogleOauth2Impl.class.getName()).log(Level.WARNING, "Error reading response from request.", e);
         } finally {
-            if (reader != null) {
-                reader.close();
+            if (in != null) {
+                in.close();
             }
         }
 
         return content;
     }
 
+    /**
+     * Returns a streaming {@code JsonParser} reading directly from the content of the {@code HttpResponse} object
+     * passed in. The caller is responsible for closing the parser.
+     *
+     * @param httpResponse the response from the http request.
+     * @return a {@code JsonParser} positioned before the first token of the response.
+     * @throws IOException
+     */
+    public JsonParser parseStream(HttpResponse httpResponse) throws IOException {
+        return jsonFactory.createJsonParser(httpResponse.getContent(), getContentCharset(httpResponse));
+    }
 
     /**
-     * Calls parse content to parse the HttpResponse and returns a {@code JSONObject} built from the string returned from parseContent
+     * Parses the content of the {@code HttpResponse} object passed in straight into an instance of the specified type,
+     * without building an intermediate String or JSON tree.
+     *
+     * @param httpResponse the response from the http request.
+     * @param type         the class to parse the content into.
+     * @return the parsed object.
+     * @throws IOException
+     */
+    public <T> T parseAs(HttpResponse httpResponse, Class<T> type) throws IOException {
+        return parseStream(httpResponse).parseAndClose(type);
+    }
+
+    /**
+     * Reads the content of the HttpResponse as a stream and returns the {@code JSONObject} built from it
      *
      * @param httpResponse the response from the http request.
      * @return a {@code JSONObject} from the {@code HttpResponse} object passed in.
      */
     public JSONObject parseJson(HttpResponse httpResponse) throws IOException {
-        String content = parseContent(httpResponse);
-        return new JSONObject(content);
+        try (Reader reader = contentReader(httpResponse)) {
+            return new JSONObject(new JSONTokener(reader));
+        }
     }
     /**
-     * Calls parse content to parse the HttpResponse and returns a {@code JSONArray} built from the string returned from parseContent
+     * Reads the content of the HttpResponse as a stream and returns the {@code JSONArray} built from it
      *
      * @param httpResponse the response from the http request.
      * @return a {@code JSONArray} from the {@code HttpResponse} object passed in.
      */
     public JSONArray parseJsonArray(HttpResponse httpResponse) throws IOException {
-        String content = parseContent(httpResponse);
-        return new JSONArray(content);
+        try (Reader reader = contentReader(httpResponse)) {
+            return new JSONArray(new JSONTokener(reader));
+        }
+    }
+
+    /**
+     * Returns the charset declared in the {@code Content-Type} header of the response, or UTF-8 (the JSON default) if
+     * none is declared.
+     *
+     * @param httpResponse the response from the http request.
+     * @return the charset of the response content.
+     */
+    protected static Charset getContentCharset(HttpResponse httpResponse) {
+        HttpMediaType mediaType = httpResponse.getMediaType();
+        if (mediaType != null && mediaType.getCharsetParameter() != null) {
+            return mediaType.getCharsetParameter();
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Reader contentReader(HttpResponse httpResponse) throws IOException {
+        InputStream in = httpResponse.getContent();
+        if (in == null) {
+            return new StringReader("");
+        }
+        return new InputStreamReader(in, getContentCharset(httpResponse));
     }
 }
@@ -0,0 +1,220 @@
+package com.ps.google;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.ConnectionFactory;
+import com.google.api.client.http.javanet.DefaultConnectionFactory;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide registry holding the {@link HttpTransport} and {@link JsonFactory} shared by all Google API wrappers.
+ * <p>
+ * Both objects are thread-safe, so one instance of each is enough for every {@link GoogleOauth2Impl} created in the
+ * process. Sharing the transport lets the underlying connections be kept alive and reused between wrappers instead of
+ * paying a new TLS handshake for every instance.
+ */
+public final class HttpTransportRegistry {
+
+    /** The default number of idle keep-alive connections kept per host */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+    /**
+     * Creates the transport handed out by the registry. Implementations can plug in a different HTTP stack, for
+     * example one with HTTP/2 multiplexing, as long as it is exposed as an {@link HttpTransport}.
+     */
+    public interface Backend {
+
+        /**
+         * Creates a new transport.
+         *
+         * @param maxConnectionsPerHost the number of keep-alive connections the backend should pool per host.
+         * @param stats                 the statistics the backend should report sent requests to.
+         * @return the transport to share between all wrappers.
+         */
+        HttpTransport create(int maxConnectionsPerHost, PoolStats stats);
+    }
+
+    /**
+     * Default backend built on {@link NetHttpTransport}. Connection pooling is done by the JDK keep-alive cache, which
+     * is left as the process configured it.
+     */
+    public static final Backend NET_HTTP = netHttp(false);
+
+    /**
+     * Returns a backend built on {@link NetHttpTransport}, pooling connections in the JDK keep-alive cache.
+     * <p>
+     * <b>With {@code configureKeepAlive}, creating a transport changes process-wide settings:</b> the
+     * {@code http.keepAlive} and {@code http.maxConnections} system properties are set, to {@code true} and to the
+     * configured number of connections per host, unless they are already set. They apply to every
+     * {@link java.net.HttpURLConnection} of the process, not only to Google API requests, and are only read by the JDK
+     * before its first connection.
+     *
+     * @param configureKeepAlive whether to set the JDK keep-alive system properties.
+     * @return the backend.
+     */
+    public static Backend netHttp(boolean configureKeepAlive) {
+        return (maxConnectionsPerHost, stats) -> {
+            if (configureKeepAlive) {
+                if (System.getProperty("http.maxConnections") == null) {
+                    System.setProperty("http.maxConnections", Integer.toString(maxConnectionsPerHost));
+                }
+                if (System.getProperty("http.keepAlive") == null) {
+                    System.setProperty("http.keepAlive", "true");
+                }
+            }
+            ConnectionFactory connections = new DefaultConnectionFactory();
+            return new NetHttpTransport.Builder()
+                .setConnectionFactory(url -> {
+                    stats.recordRequest(url.getHost());
+                    return connections.openConnection(url);
+                })
+                .build();
+        };
+    }
+
+    private static Backend backend = NET_HTTP;
+    private static int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private static HttpTransport transport;
+    private static final PoolStats stats = new PoolStats();
+
+    private HttpTransportRegistry() {
+    }
+
+    /**
+     * Returns the shared transport, creating it with the configured backend on first use.
+     *
+     * @return the shared {@link HttpTransport}.
+     */
+    public static synchronized HttpTransport getTransport() {
+        if (transport == null) {
+            transport = backend.create(maxConnectionsPerHost, stats);
+            stats.transports.incrementAndGet();
+        }
+        return transport;
+    }
+
+    /**
+     * Returns the shared JSON factory.
+     *
+     * @return the shared {@link JsonFactory}.
+     */
+    public static JsonFactory getJsonFactory() {
+        return JacksonFactory.getDefaultInstance();
+    }
+
+    /**
+     * Replaces the backend used to create the shared transport. The current transport, if any, is dropped so the next
+     * call to {@link #getTransport()} builds one with the new backend. Wrappers already created keep using the dropped
+     * transport, so it is not shut down: it is returned to the caller, who owns it from then on and should call
+     * {@link HttpTransport#shutdown()} once those wrappers are no longer used.
+     *
+     * @param newBackend the backend to use.
+     * @return the dropped transport, or {@code null} if none had been created.
+     */
+    public static synchronized HttpTransport setBackend(Backend newBackend) {
+        if (newBackend == null) {
+            throw new IllegalArgumentException("Backend cannot be null.");
+        }
+        backend = newBackend;
+        return dropTransport();
+    }
+
+    /**
+     * Sets the number of keep-alive connections pooled per host. Only applies to transports created after the call,
+     * and with the backend of {@link #netHttp(boolean)} only if it configures keep-alive and the JDK has not opened
+     * its first connection yet. As with {@link #setBackend(Backend)}, the current transport is dropped and handed over
+     * to the caller to shut down.
+     *
+     * @param max the number of connections to keep per host.
+     * @return the dropped transport, or {@code null} if none had been created.
+     */
+    public static synchronized HttpTransport setMaxConnectionsPerHost(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("Max connections per host must be positive: " + max);
+        }
+        maxConnectionsPerHost = max;
+        return dropTransport();
+    }
+
+    /**
+     * Returns the current number of keep-alive connections pooled per host.
+     *
+     * @return the number of connections kept per host.
+     */
+    public static synchronized int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    private static HttpTransport dropTransport() {
+        HttpTransport dropped = transport;
+        transport = null;
+        return dropped;
+    }
+
+    /**
+     * Returns the statistics of the shared pool.
+     *
+     * @return the live {@link PoolStats}.
+     */
+    public static PoolStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Counters describing the load sent through the shared transport, per host.
+     */
+    public static final class PoolStats {
+
+        private final AtomicLong transports = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final ConcurrentMap<String, AtomicLong> requestsPerHost = new ConcurrentHashMap<>();
+
+        /**
+         * Records a request being sent to the specified host. Requests reusing a pooled connection are counted too, so
+         * this measures the load per host rather than the number of connections opened.
+         *
+         * @param host the host the request was sent to.
+         */
+        public void recordRequest(String host) {
+            requests.incrementAndGet();
+            requestsPerHost.computeIfAbsent(host, h -> new AtomicLong()).incrementAndGet();
+        }
+
+        /**
+         * @return the number of shared transports created, one more after each change of backend or pool size.
+         */
+        public long getTransports() {
+            return transports.get();
+        }
+
+        /**
+         * @return the number of requests sent through the shared transport.
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return a snapshot of the number of requests sent per host.
+         */
+        public Map<String, Long> getRequestsPerHost() {
+            Map<String, Long> snapshot = new HashMap<>();
+            requestsPerHost.forEach((host, count) -> snapshot.put(host, count.get()));
+            return Collections.unmodifiableMap(snapshot);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("PoolStats{transports=%d, requests=%d, perHost=%s}",
+                getTransports(), getRequests(), getRequestsPerHost());
+        }
+    }
+}
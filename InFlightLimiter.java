@@ -0,0 +1,145 @@
+package com.ps.google;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caps the number of asynchronous calls of one user running at the same time. Calls over the cap are queued, without
+ * holding a thread, and started in order as running calls complete.
+ * <p>
+ * Limiters are shared process-wide through {@link #forUser(String)}, so all service wrappers of the same user count
+ * against the same cap, whichever wrapper and executor a call runs on. Work that a limited call waits for, such as the
+ * page fetches of an agenda, must use a separate pool from {@link #forUser(String, String)}: sharing the caller's pool
+ * would deadlock once every slot is held by a caller waiting for work that needs a slot.
+ */
+public class InFlightLimiter {
+
+    /** The default maximum number of calls running at the same time for one user */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    /** The maximum number of limiters kept, the least recently used being dropped first */
+    private static final int MAX_LIMITERS = 10000;
+
+    private static final Map<String, InFlightLimiter> LIMITERS = Collections.synchronizedMap(
+        new LinkedHashMap<String, InFlightLimiter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, InFlightLimiter> eldest) {
+                return size() > MAX_LIMITERS;
+            }
+        });
+
+    /** A call waiting for a slot. */
+    public interface Call {
+
+        /**
+         * Starts the call, which must {@link #release()} its slot once complete.
+         */
+        void start();
+
+        /**
+         * @return whether the call was completed or cancelled while queued, so it should not be started.
+         */
+        boolean isDone();
+    }
+
+    private final ArrayDeque<Call> queued = new ArrayDeque<>();
+    private int maxInFlight;
+    private int inFlight;
+
+    /**
+     * Creates a limiter allowing {@link #DEFAULT_MAX_IN_FLIGHT} calls. Most callers should use
+     * {@link #forUser(String)} to share limiters instead.
+     */
+    public InFlightLimiter() {
+        this(DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param maxInFlight the maximum number of calls running at the same time.
+     */
+    public InFlightLimiter(int maxInFlight) {
+        setMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Returns the limiter shared by all asynchronous calls of a user.
+     *
+     * @param userKey the key identifying the user.
+     * @return the shared limiter.
+     */
+    public static InFlightLimiter forUser(String userKey) {
+        return forUser(userKey, "async");
+    }
+
+    /**
+     * Returns a limiter shared by one kind of work of a user, independent of the user's other limiters.
+     *
+     * @param userKey the key identifying the user.
+     * @param pool    the name of the pool, such as {@code "agenda"}.
+     * @return the shared limiter.
+     */
+    public static InFlightLimiter forUser(String userKey, String pool) {
+        return LIMITERS.computeIfAbsent(userKey + "|" + pool, key -> new InFlightLimiter());
+    }
+
+    /**
+     * Sets the maximum number of calls running at the same time. Lowering it does not stop running calls.
+     *
+     * @param maxInFlight the maximum number of calls in flight.
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The in-flight limit must be positive.");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Starts a call now if a slot is free, or queues it until one is.
+     *
+     * @param call the call.
+     */
+    public void submit(Call call) {
+        synchronized (this) {
+            if (inFlight >= maxInFlight) {
+                queued.add(call);
+                return;
+            }
+            inFlight++;
+        }
+        call.start();
+    }
+
+    /**
+     * Frees the slot of a completed call, handing it to the next queued call that is not done.
+     */
+    public void release() {
+        Call next;
+        synchronized (this) {
+            do {
+                next = queued.poll();
+            } while (next != null && next.isDone());
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        next.start();
+    }
+
+    /**
+     * @return the number of calls currently running.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of calls waiting for a slot, including cancelled ones not yet skipped.
+     */
+    public synchronized int getQueued() {
+        return queued.size();
+    }
+}
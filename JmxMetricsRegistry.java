@@ -0,0 +1,217 @@
+package com.ps.google;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Metrics registry keeping the measurements of each operation in memory and exposing them as MXBeans, under
+ * {@code com.ps.google:type=ApiMetrics,operation=...}.
+ * <p>
+ * Recording only touches striped counters and a lock-free histogram, so the registry can stay enabled in production.
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+
+    /** The JMX domain of the registered MXBeans */
+    public static final String JMX_DOMAIN = "com.ps.google";
+
+    /** The measurements of one operation, as exposed through JMX. */
+    public interface OperationMetricsMXBean {
+
+        /** @return the number of finished requests. */
+        long getRequestCount();
+
+        /** @return the number of requests currently in flight. */
+        long getInFlight();
+
+        /** @return the number of retried attempts. */
+        long getRetryCount();
+
+        /** @return the number of requests that failed or ended with a status of 400 or more. */
+        long getErrorCount();
+
+        /** @return the total size of the request content sent, in bytes. */
+        long getBytesSent();
+
+        /** @return the total declared size of the response content received, in bytes. */
+        long getBytesReceived();
+
+        /** @return the number of requests per final status code, {@code 0} meaning no response. */
+        Map<Integer, Long> getStatusCounts();
+
+        /** @return the median latency, in milliseconds. */
+        double getLatencyP50Millis();
+
+        /** @return the 95th percentile latency, in milliseconds. */
+        double getLatencyP95Millis();
+
+        /** @return the 99th percentile latency, in milliseconds. */
+        double getLatencyP99Millis();
+
+        /** Clears every measurement except the in-flight gauge. */
+        void reset();
+    }
+
+    /** The measurements of one operation. */
+    public static class OperationMetrics implements OperationMetricsMXBean {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final ConcurrentHashMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        @Override
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        @Override
+        public long getInFlight() {
+            return inFlight.sum();
+        }
+
+        @Override
+        public long getRetryCount() {
+            return retries.sum();
+        }
+
+        @Override
+        public long getErrorCount() {
+            return errors.sum();
+        }
+
+        @Override
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        @Override
+        public Map<Integer, Long> getStatusCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            statusCounts.forEach((status, count) -> counts.put(status, count.sum()));
+            return counts;
+        }
+
+        @Override
+        public double getLatencyP50Millis() {
+            return latency.getPercentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getLatencyP95Millis() {
+            return latency.getPercentile(95) / 1000.0;
+        }
+
+        @Override
+        public double getLatencyP99Millis() {
+            return latency.getPercentile(99) / 1000.0;
+        }
+
+        @Override
+        public void reset() {
+            requests.reset();
+            retries.reset();
+            errors.reset();
+            bytesSent.reset();
+            bytesReceived.reset();
+            statusCounts.clear();
+            latency.reset();
+        }
+
+        /**
+         * @return the latency histogram, in microseconds.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    private static final JmxMetricsRegistry DEFAULT = new JmxMetricsRegistry(ManagementFactory.getPlatformMBeanServer());
+
+    private final MBeanServer mBeanServer;
+    private final ConcurrentHashMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    /**
+     * @param mBeanServer the server to register the MXBeans with, or {@code null} to keep them in memory only.
+     */
+    public JmxMetricsRegistry(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    /**
+     * @return the registry registering its MXBeans with the platform MBean server.
+     */
+    public static JmxMetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public void requestStarted(String operation) {
+        metrics(operation).inFlight.increment();
+    }
+
+    @Override
+    public void retried(String operation) {
+        metrics(operation).retries.increment();
+    }
+
+    @Override
+    public void requestFinished(String operation, int statusCode, long latencyNanos, long bytesSent,
+                                long bytesReceived) {
+        OperationMetrics metrics = metrics(operation);
+        metrics.inFlight.decrement();
+        metrics.requests.increment();
+        if (statusCode == 0 || statusCode >= 400) {
+            metrics.errors.increment();
+        }
+        metrics.bytesSent.add(bytesSent);
+        metrics.bytesReceived.add(bytesReceived);
+        metrics.statusCounts.computeIfAbsent(statusCode, status -> new LongAdder()).increment();
+        metrics.latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * @return the measurements of every operation seen so far, by operation name.
+     */
+    public Map<String, OperationMetrics> getOperations() {
+        return new TreeMap<>(operations);
+    }
+
+    private OperationMetrics metrics(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            metrics = operations.computeIfAbsent(operation, this::register);
+        }
+        return metrics;
+    }
+
+    private OperationMetrics register(String operation) {
+        OperationMetrics metrics = new OperationMetrics();
+        if (mBeanServer != null) {
+            try {
+                mBeanServer.registerMBean(metrics, new ObjectName(JMX_DOMAIN + ":type=ApiMetrics,operation="
+                    + ObjectName.quote(operation)));
+            } catch (JMException e) {
+                Logger.getLogger(JmxMetricsRegistry.class.getName())
+                    .log(Level.WARNING, "Error registering the metrics of " + operation, e);
+            }
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ps.google;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds, with four buckets per power of two. Recording is a single atomic
+ * increment, and percentiles are accurate to within a quarter of their order of magnitude.
+ */
+public class LatencyHistogram {
+
+    /** Sub-buckets per power of two, as a number of bits */
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Enough buckets for latencies up to 2^40 microseconds, about 12 days */
+    private static final int BUCKETS = (40 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a latency.
+     *
+     * @param micros the latency, in microseconds.
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(bucket(Math.max(0, micros)));
+    }
+
+    /**
+     * @return the number of recorded latencies.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns an upper bound of a percentile of the recorded latencies.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the percentile in microseconds, or {@code 0} if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * Clears every recorded latency.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    // values below SUB_BUCKETS get a bucket each, larger ones are split by their top bits
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return Math.min(BUCKETS - 1, (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub);
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,174 @@
+package com.ps.google;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Request initializer reporting every request to a {@link MetricsRegistry}.
+ * <p>
+ * The initializer wraps another one and composes with the interceptor and handlers it installs. Latency is measured
+ * from the first attempt to the headers of the final response, so it includes rate limiting and retries but not the
+ * time spent reading the response content. Received bytes are taken from the {@code Content-Length} header.
+ */
+public class MetricsInitializer implements HttpRequestInitializer {
+
+    /** Path segments this long or longer are treated as IDs */
+    private static final int MIN_ID_LENGTH = 16;
+
+    private final String api;
+    private final HttpRequestInitializer delegate;
+    private final MetricsRegistry registry;
+
+    /**
+     * @param api      the name of the API, used as the prefix of operation names.
+     * @param delegate the initializer to run first, or {@code null} for none.
+     * @param registry the registry to report to.
+     */
+    public MetricsInitializer(String api, HttpRequestInitializer delegate, MetricsRegistry registry) {
+        this.api = api;
+        this.delegate = delegate;
+        this.registry = registry;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        if (delegate != null) {
+            delegate.initialize(request);
+        }
+        if (registry == MetricsRegistry.NOOP) {
+            return;
+        }
+        Call call = new Call(request.getInterceptor(), request.getResponseInterceptor(),
+            request.getUnsuccessfulResponseHandler(), request.getIOExceptionHandler());
+        request.setInterceptor(call);
+        request.setResponseInterceptor(call);
+        request.setUnsuccessfulResponseHandler(call);
+        request.setIOExceptionHandler(call);
+    }
+
+    /**
+     * Returns the name of the operation a request belongs to: the API, the HTTP method and the URL path with IDs
+     * replaced by {@code {id}}.
+     *
+     * @param api     the name of the API.
+     * @param request the request.
+     * @return the name of the operation.
+     */
+    protected static String operation(String api, HttpRequest request) {
+        StringBuilder name = new StringBuilder(api).append(' ').append(request.getRequestMethod()).append(' ');
+        GenericUrl url = request.getUrl();
+        List<String> segments = url.getPathParts();
+        if (segments == null) {
+            return name.append('/').toString();
+        }
+        for (String segment : segments) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            name.append('/').append(isId(segment) ? "{id}" : segment);
+        }
+        return name.toString();
+    }
+
+    // IDs are long, or contain digits or an email address, unlike API versions and collection names
+    private static boolean isId(String segment) {
+        if (segment.length() >= MIN_ID_LENGTH || segment.indexOf('@') >= 0) {
+            return true;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) {
+                return !(segment.length() <= 3 && segment.charAt(0) == 'v');
+            }
+        }
+        return false;
+    }
+
+    /** The measurements of one request across all of its attempts. */
+    private final class Call implements HttpExecuteInterceptor, HttpResponseInterceptor,
+        HttpUnsuccessfulResponseHandler, HttpIOExceptionHandler {
+        private final HttpExecuteInterceptor interceptor;
+        private final HttpResponseInterceptor responseInterceptor;
+        private final HttpUnsuccessfulResponseHandler unsuccessfulResponseHandler;
+        private final HttpIOExceptionHandler ioExceptionHandler;
+        private String operation;
+        private long start;
+        private long bytesSent;
+        private boolean finished;
+
+        Call(HttpExecuteInterceptor interceptor, HttpResponseInterceptor responseInterceptor,
+             HttpUnsuccessfulResponseHandler unsuccessfulResponseHandler, HttpIOExceptionHandler ioExceptionHandler) {
+            this.interceptor = interceptor;
+            this.responseInterceptor = responseInterceptor;
+            this.unsuccessfulResponseHandler = unsuccessfulResponseHandler;
+            this.ioExceptionHandler = ioExceptionHandler;
+        }
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            if (operation == null) {
+                operation = operation(api, request);
+                start = System.nanoTime();
+                registry.requestStarted(operation);
+            } else {
+                registry.retried(operation);
+            }
+            try {
+                if (interceptor != null) {
+                    interceptor.intercept(request);
+                }
+                HttpContent content = request.getContent();
+                bytesSent += content == null ? 0 : Math.max(0, content.getLength());
+            } catch (IOException | RuntimeException e) {
+                finish(0, null);
+                throw e;
+            }
+        }
+
+        @Override
+        public void interceptResponse(HttpResponse response) throws IOException {
+            finish(response.getStatusCode(), response.getHeaders().getContentLength());
+            if (responseInterceptor != null) {
+                responseInterceptor.interceptResponse(response);
+            }
+        }
+
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+            throws IOException {
+            try {
+                return unsuccessfulResponseHandler != null
+                    && unsuccessfulResponseHandler.handleResponse(request, response, supportsRetry);
+            } catch (IOException | RuntimeException e) {
+                finish(response.getStatusCode(), null);
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean handleIOException(HttpRequest request, boolean supportsRetry) throws IOException {
+            boolean retry = ioExceptionHandler != null && ioExceptionHandler.handleIOException(request, supportsRetry);
+            if (!retry) {
+                finish(0, null);
+            }
+            return retry;
+        }
+
+        private void finish(int statusCode, Long bytesReceived) {
+            if (!finished && operation != null) {
+                finished = true;
+                registry.requestFinished(operation, statusCode, System.nanoTime() - start, bytesSent,
+                    bytesReceived == null ? 0 : bytesReceived);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.ps.google;
+
+/**
+ * Receives measurements of the requests sent to Google APIs. Implementations can forward them to any monitoring
+ * system; {@link JmxMetricsRegistry} keeps them in memory and exposes them through JMX.
+ * <p>
+ * Every method is called on the thread making the request, so implementations must be thread-safe and cheap.
+ * Operations are named after the API, HTTP method and URL path with IDs replaced, for example
+ * {@code "drive GET /drive/v2/files/{id}"}.
+ */
+public interface MetricsRegistry {
+
+    /** A registry discarding every measurement */
+    MetricsRegistry NOOP = new MetricsRegistry() {
+        @Override
+        public void requestStarted(String operation) {
+        }
+
+        @Override
+        public void retried(String operation) {
+        }
+
+        @Override
+        public void requestFinished(String operation, int statusCode, long latencyNanos, long bytesSent,
+                                    long bytesReceived) {
+        }
+    };
+
+    /**
+     * Called when a request is first sent.
+     *
+     * @param operation the name of the operation.
+     */
+    void requestStarted(String operation);
+
+    /**
+     * Called each time a request is sent again after a failed attempt.
+     *
+     * @param operation the name of the operation.
+     */
+    void retried(String operation);
+
+    /**
+     * Called once a request has its final response, or has failed without one.
+     *
+     * @param operation     the name of the operation.
+     * @param statusCode    the status code of the final response, or {@code 0} if no response was received.
+     * @param latencyNanos  the time from the first attempt to the final response headers, in nanoseconds.
+     * @param bytesSent     the size of the request content, or {@code 0} if unknown.
+     * @param bytesReceived the declared size of the response content, or {@code 0} if unknown.
+     */
+    void requestFinished(String operation, int statusCode, long latencyNanos, long bytesSent, long bytesReceived);
+}
@@ -0,0 +1,122 @@
+package com.ps.google;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiter for the requests of one user to one API, adapting its rate to the throttling responses
+ * it observes.
+ * <p>
+ * The rate follows an additive-increase, multiplicative-decrease scheme: every successful request raises it slightly,
+ * and a throttling response ({@code 429}, {@code 403 rateLimitExceeded} or {@code 503}) halves it. Decreases are
+ * spaced out so that a burst of throttled requests in flight at the same time only counts once. This lets callers run
+ * close to their quota without repeatedly tripping it.
+ * <p>
+ * Limiters are shared process-wide through {@link #forUser(String, String)}, so all service wrappers of the same user
+ * draw from the same bucket.
+ */
+public class QuotaRateLimiter {
+
+    /** The rate a new limiter starts with, in requests per second */
+    public static final double DEFAULT_RATE = 10;
+
+    /** The lowest rate a limiter backs off to, in requests per second */
+    public static final double MIN_RATE = 0.5;
+
+    /** The highest rate a limiter grows to, in requests per second */
+    public static final double MAX_RATE = 100;
+
+    /** How much a second's worth of successful requests raises the rate, in requests per second */
+    protected static final double ADDITIVE_INCREASE = 1;
+
+    /** The factor applied to the rate on a throttling response */
+    protected static final double MULTIPLICATIVE_DECREASE = 0.5;
+
+    /** The minimum time between two decreases, in milliseconds */
+    protected static final long DECREASE_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    /** The maximum number of limiters kept, the least recently used being dropped first */
+    private static final int MAX_LIMITERS = 10000;
+
+    private static final Map<String, QuotaRateLimiter> LIMITERS = Collections.synchronizedMap(
+        new LinkedHashMap<String, QuotaRateLimiter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QuotaRateLimiter> eldest) {
+                return size() > MAX_LIMITERS;
+            }
+        });
+
+    private final RateLimiter limiter;
+    private double rate;
+    private long lastDecrease;
+
+    /**
+     * Creates a limiter starting at {@link #DEFAULT_RATE}. Most callers should use {@link #forUser(String, String)}
+     * to share limiters instead.
+     */
+    public QuotaRateLimiter() {
+        this(DEFAULT_RATE);
+    }
+
+    /**
+     * @param rate the initial rate, in requests per second.
+     */
+    public QuotaRateLimiter(double rate) {
+        this.rate = rate;
+        this.limiter = RateLimiter.create(rate);
+    }
+
+    /**
+     * Returns the limiter shared by all requests of a user to an API.
+     *
+     * @param userKey the key identifying the user.
+     * @param api     the name of the API.
+     * @return the shared limiter.
+     */
+    public static QuotaRateLimiter forUser(String userKey, String api) {
+        return LIMITERS.computeIfAbsent(userKey + "|" + api, key -> new QuotaRateLimiter());
+    }
+
+    /**
+     * Waits until a request may be sent.
+     */
+    public void acquire() {
+        limiter.acquire();
+    }
+
+    /**
+     * Records a successful request, raising the rate.
+     */
+    public synchronized void onSuccess() {
+        setRate(Math.min(MAX_RATE, rate + ADDITIVE_INCREASE / rate));
+    }
+
+    /**
+     * Records a throttling response, lowering the rate unless it was lowered very recently.
+     */
+    public synchronized void onThrottle() {
+        long now = System.currentTimeMillis();
+        if (now - lastDecrease >= DECREASE_INTERVAL) {
+            lastDecrease = now;
+            setRate(Math.max(MIN_RATE, rate * MULTIPLICATIVE_DECREASE));
+        }
+    }
+
+    /**
+     * @return the current rate, in requests per second.
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void setRate(double rate) {
+        if (rate != this.rate) {
+            this.rate = rate;
+            limiter.setRate(rate);
+        }
+    }
+}
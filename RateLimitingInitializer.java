@@ -0,0 +1,173 @@
+package com.ps.google;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.json.JsonFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Request initializer passing every request of a user through their {@link QuotaRateLimiter} and retrying throttled
+ * requests with jittered exponential backoff.
+ * <p>
+ * The initializer wraps another one, usually the user's credential, and composes with the interceptor and handlers it
+ * installs: the credential still authorizes each request and handles {@code 401} first. Throttling responses
+ * ({@code 429} and {@code 403 rateLimitExceeded}) are retried for any request whose content can be resent, since the
+ * server rejected them without processing them. Server errors ({@code 5xx}) are only retried for idempotent methods.
+ * <p>
+ * The reason of a {@code 403} is only known from its content, which can be read once. The content is parsed into the
+ * {@link GoogleJsonResponseException} the client would have thrown, and that exception is thrown when the request is
+ * not retried, so callers still get the status, message and details of the error.
+ */
+public class RateLimitingInitializer implements HttpRequestInitializer {
+
+    /** The number of times a throttled or failed request is retried */
+    public static final int MAX_RETRIES = 5;
+
+    /** The delay before the first retry, doubled on each following one */
+    protected static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    /** The longest delay between two retries */
+    protected static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(32);
+
+    private final HttpRequestInitializer delegate;
+    private final QuotaRateLimiter limiter;
+    private final JsonFactory jsonFactory;
+
+    /**
+     * @param delegate    the initializer to run first, usually the user's credential, or {@code null} for none.
+     * @param limiter     the limiter every request goes through.
+     * @param jsonFactory the factory used to parse the content of error responses.
+     */
+    public RateLimitingInitializer(HttpRequestInitializer delegate, QuotaRateLimiter limiter, JsonFactory jsonFactory) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.jsonFactory = jsonFactory;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        if (delegate != null) {
+            delegate.initialize(request);
+        }
+        HttpExecuteInterceptor interceptor = request.getInterceptor();
+        request.setInterceptor(r -> {
+            limiter.acquire();
+            if (interceptor != null) {
+                interceptor.intercept(r);
+            }
+        });
+        HttpResponseInterceptor responseInterceptor = request.getResponseInterceptor();
+        request.setResponseInterceptor(response -> {
+            if (response.isSuccessStatusCode()) {
+                limiter.onSuccess();
+            }
+            if (responseInterceptor != null) {
+                responseInterceptor.interceptResponse(response);
+            }
+        });
+        request.setUnsuccessfulResponseHandler(new RetryHandler(request.getUnsuccessfulResponseHandler()));
+    }
+
+    /**
+     * Returns whether an error means the caller is sending requests too fast.
+     *
+     * @param error the error parsed from an unsuccessful response.
+     * @return {@code true} for a rate limit error, {@code false} otherwise.
+     */
+    protected static boolean isThrottled(GoogleJsonResponseException error) {
+        if (error.getStatusCode() == 429) {
+            return true;
+        }
+        if (error.getStatusCode() != HttpStatusCodes.STATUS_CODE_FORBIDDEN || error.getDetails() == null
+            || error.getDetails().getErrors() == null) {
+            return false;
+        }
+        for (GoogleJsonError.ErrorInfo info : error.getDetails().getErrors()) {
+            if ("rateLimitExceeded".equals(info.getReason()) || "userRateLimitExceeded".equals(info.getReason())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIdempotent(HttpRequest request) {
+        String method = request.getRequestMethod();
+        return HttpMethods.GET.equals(method) || HttpMethods.HEAD.equals(method) || HttpMethods.PUT.equals(method)
+            || HttpMethods.DELETE.equals(method) || HttpMethods.OPTIONS.equals(method);
+    }
+
+    // a random delay between half and all of the backoff, or the server's Retry-After when it asks for longer
+    private static long backoff(int attempt, HttpResponse response) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << attempt);
+        delay = ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+        String retryAfter = response.getHeaders().getFirstHeaderStringValue("Retry-After");
+        if (retryAfter != null) {
+            try {
+                delay = Math.max(delay, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException e) {
+                // an HTTP date, keep the computed delay
+            }
+        }
+        return delay;
+    }
+
+    /** Retries throttled and failed responses of one request, after the wrapped handler had its turn. */
+    private final class RetryHandler implements HttpUnsuccessfulResponseHandler {
+        private final HttpUnsuccessfulResponseHandler handler;
+        private int attempts;
+
+        RetryHandler(HttpUnsuccessfulResponseHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+            throws IOException {
+            if (handler != null && handler.handleResponse(request, response, supportsRetry)) {
+                return true;
+            }
+            // only a 403 needs its content read, every other status is decided without consuming it
+            GoogleJsonResponseException error = null;
+            boolean throttled = response.getStatusCode() == 429;
+            if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_FORBIDDEN) {
+                error = GoogleJsonResponseException.from(jsonFactory, response);
+                throttled = isThrottled(error);
+            }
+            if (throttled || response.getStatusCode() == HttpStatusCodes.STATUS_CODE_SERVICE_UNAVAILABLE) {
+                limiter.onThrottle();
+            }
+            boolean retryable = throttled
+                || response.getStatusCode() >= HttpStatusCodes.STATUS_CODE_SERVER_ERROR && isIdempotent(request);
+            if (!retryable || !supportsRetry || attempts >= MAX_RETRIES) {
+                if (error != null) {
+                    throw error;
+                }
+                return false;
+            }
+            long delay = backoff(attempts++, response);
+            Logger.getLogger(RateLimitingInitializer.class.getName()).log(Level.WARNING, String.format(
+                "%d response for %s %s, retrying in %dms.", response.getStatusCode(), request.getRequestMethod(),
+                request.getUrl(), delay));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+    }
+}
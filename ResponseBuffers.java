@@ -0,0 +1,102 @@
+package com.ps.google;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable byte buffers used to read response bodies without allocating new buffers on every request.
+ */
+final class ResponseBuffers {
+
+    /** Size of each pooled read buffer */
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Maximum number of read buffers kept in the pool */
+    private static final int MAX_POOLED = 64;
+
+    /** Sinks that grew past this size are not kept, so one huge response does not pin memory */
+    private static final int MAX_RETAINED_SINK = 1024 * 1024;
+
+    private static final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private static final ThreadLocal<Sink> sinks = ThreadLocal.withInitial(Sink::new);
+
+    private ResponseBuffers() {
+    }
+
+    /**
+     * Takes a read buffer from the pool, or allocates one if the pool is empty.
+     *
+     * @return a buffer of {@link #BUFFER_SIZE} bytes.
+     */
+    static byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a read buffer to the pool.
+     *
+     * @param buffer the buffer obtained from {@link #acquire()}.
+     */
+    static void release(byte[] buffer) {
+        if (buffer.length == BUFFER_SIZE && pooled.incrementAndGet() <= MAX_POOLED) {
+            buffers.offer(buffer);
+        } else if (buffer.length == BUFFER_SIZE) {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reads the whole stream and decodes it with the specified charset, copying the bytes only once into the resulting
+     * String. The stream is not closed.
+     *
+     * @param in      the stream to read.
+     * @param charset the charset used to decode the bytes.
+     * @return the decoded content.
+     * @throws IOException
+     */
+    static String readFully(InputStream in, Charset charset) throws IOException {
+        Sink sink = sinks.get();
+        byte[] buffer = acquire();
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                sink.write(buffer, 0, read);
+            }
+            return sink.decode(charset);
+        } finally {
+            release(buffer);
+            if (sink.capacity() > MAX_RETAINED_SINK) {
+                sinks.remove();
+            } else {
+                sink.reset();
+            }
+        }
+    }
+
+    /** Growable byte sink exposing its backing array so it can be decoded without another copy. */
+    private static final class Sink extends ByteArrayOutputStream {
+
+        Sink() {
+            super(BUFFER_SIZE);
+        }
+
+        String decode(Charset charset) {
+            return new String(buf, 0, count, charset);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.ps.google;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of ready-to-use service wrappers keyed by user and wrapper class, so that the generated client, the
+ * credential and, for Contacts, the GData service are built once per user rather than once per request.
+ * <p>
+ * A wrapper is reused for as long as its user keeps making requests. Wrappers idle for longer than the idle timeout
+ * are dropped, as are the least recently used ones once the pool is full. When a user comes back with a new access
+ * token, the pooled wrapper is rotated to it with {@link GoogleOauth2Impl#setAccessToken(String)} instead of being
+ * rebuilt. Wrappers whose credential comes from an {@link AccessTokenManager} rotate their own tokens and are pooled
+ * with a {@code null} token.
+ * <p>
+ * Pooled wrappers are shared between the threads serving the same user, like the wrappers used through
+ * {@link GoogleOauth2Impl#async}, so they must not be given per-request state.
+ */
+public class ServicePool {
+
+    /** The default maximum number of pooled wrappers */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** The default time after which an unused wrapper is dropped, in milliseconds */
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    private static final class Key {
+        final String userId;
+        final Class<?> type;
+
+        Key(String userId, Class<?> type) {
+            this.userId = userId;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return userId.equals(other.userId) && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * userId.hashCode() + type.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        final GoogleOauth2Impl service;
+        String token;
+        long lastUsed;
+
+        Entry(GoogleOauth2Impl service, String token, long lastUsed) {
+            this.service = service;
+            this.token = token;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final int maxEntries;
+    private final long idleTimeout;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rotations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Creates a pool with the default bounds.
+     */
+    public ServicePool() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param maxEntries  the maximum number of pooled wrappers.
+     * @param idleTimeout the time after which an unused wrapper is dropped, in milliseconds.
+     */
+    public ServicePool(int maxEntries, long idleTimeout) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The pool size must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the user's pooled wrapper of a class, creating it if there is none. For example
+     * {@code pool.get(userId, token, DriveImpl.class, DriveImpl::new)}.
+     *
+     * @param userId  the ID of the user.
+     * @param token   the user's current access token, or {@code null} if the wrapper manages its own token.
+     * @param type    the class of the wrapper.
+     * @param factory creates the wrapper from the access token, or from {@code null}.
+     * @return the wrapper, authorized with {@code token}.
+     */
+    public <T extends GoogleOauth2Impl> T get(String userId, String token, Class<T> type, Function<String, T> factory) {
+        Key key = new Key(userId, type);
+        long now = System.currentTimeMillis();
+        GoogleOauth2Impl rotate = null;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.lastUsed > idleTimeout) {
+                // get() moved it to the tail, so it has to go now rather than be left for evict() to find
+                entries.remove(key);
+                expirations.incrementAndGet();
+            } else if (entry != null) {
+                hits.incrementAndGet();
+                entry.lastUsed = now;
+                if (token != null && !token.equals(entry.token)) {
+                    entry.token = token;
+                    rotate = entry.service;
+                } else {
+                    return type.cast(entry.service);
+                }
+            }
+        }
+        if (rotate != null) {
+            rotations.incrementAndGet();
+            rotate.setAccessToken(token);
+            return type.cast(rotate);
+        }
+
+        // built outside the lock, so other users are not held up; a concurrent build for the same key is discarded
+        misses.incrementAndGet();
+        T service = Objects.requireNonNull(factory.apply(token), "factory returned null");
+        now = System.currentTimeMillis();
+        synchronized (this) {
+            // removed and put back, so the entry only moves to the tail together with its new last use
+            Entry entry = entries.remove(key);
+            if (entry != null && now - entry.lastUsed > idleTimeout) {
+                expirations.incrementAndGet();
+            } else if (entry != null && Objects.equals(token, entry.token)) {
+                entry.lastUsed = now;
+                entries.put(key, entry);
+                return type.cast(entry.service);
+            }
+            entries.put(key, new Entry(service, token, now));
+            evict(now);
+        }
+        return service;
+    }
+
+    /**
+     * Drops a user's pooled wrappers, for example when they sign out.
+     *
+     * @param userId the ID of the user.
+     */
+    public synchronized void invalidate(String userId) {
+        entries.keySet().removeIf(key -> key.userId.equals(userId));
+    }
+
+    /**
+     * Drops the wrappers that have been idle for longer than the idle timeout. Idle wrappers are also dropped as new
+     * ones are added, so calling this is only needed to free memory sooner.
+     */
+    public synchronized void evictIdle() {
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * Drops every pooled wrapper.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the number of pooled wrappers.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of requests served by a pooled wrapper.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests that had to build a wrapper.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of requests served by a pooled wrapper, or {@code 0} before the first request.
+     */
+    public double getHitRate() {
+        long served = getHits();
+        long total = served + getMisses();
+        return total == 0 ? 0 : (double) served / total;
+    }
+
+    /**
+     * @return the number of pooled wrappers switched to a new access token.
+     */
+    public long getRotations() {
+        return rotations.get();
+    }
+
+    /**
+     * @return the number of wrappers dropped to stay within the maximum size.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of wrappers dropped after being idle for longer than the idle timeout.
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ServicePool{size=%d, hits=%d, misses=%d, hitRate=%.3f, rotations=%d, evictions=%d, "
+            + "expirations=%d}", size(), getHits(), getMisses(), getHitRate(), getRotations(), getEvictions(),
+            getExpirations());
+    }
+
+    // entries are in access order, so the idle ones are all at the head
+    private void evict(long now) {
+        Iterator<Entry> i = entries.values().iterator();
+        while (i.hasNext()) {
+            Entry entry = i.next();
+            if (now - entry.lastUsed > idleTimeout) {
+                expirations.incrementAndGet();
+            } else if (entries.size() > maxEntries) {
+                evictions.incrementAndGet();
+            } else {
+                break;
+            }
+            i.remove();
+        }
+    }
+}
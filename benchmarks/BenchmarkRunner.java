@@ -0,0 +1,35 @@
+package com.ps.google;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which adds the allocation rate and bytes allocated per operation to the
+ * throughput and latency percentiles. Results are also written to {@code benchmarks.json} so runs can be compared.
+ */
+public final class BenchmarkRunner {
+
+    /** The benchmarks run when no pattern is given */
+    private static final String DEFAULT_INCLUDE = "com\\.ps\\.google\\..*Benchmark";
+
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * @param args an optional regular expression selecting the benchmarks to run.
+     * @throws RunnerException
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(args.length > 0 ? args[0] : DEFAULT_INCLUDE)
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result("benchmarks.json")
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,71 @@
+package com.ps.google;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the response parsing shared by every wrapper, {@link GoogleOauth2Impl#parseContent} and
+ * {@link GoogleOauth2Impl#parseJson}, on Drive file listings served by a mock transport. Each operation executes a
+ * request and parses its response, so the {@link #execute} baseline gives the cost of the transport alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+    /** The number of files in the listing */
+    @Param({"10", "1000", "50000"})
+    public int files;
+
+    private GoogleOauth2Impl wrapper;
+    private HttpRequestFactory requestFactory;
+    private GenericUrl url;
+
+    @Setup
+    public void setUp() {
+        byte[] listing = Payloads.fileList(files);
+        wrapper = new GoogleOauth2Impl("benchmark-token") {
+        };
+        requestFactory = Payloads.transport(Payloads.JSON_TYPE, requestUrl -> listing).createRequestFactory();
+        url = new GenericUrl("https://www.googleapis.com/drive/v2/files");
+    }
+
+    @Benchmark
+    public int execute() throws IOException {
+        HttpResponse response = requestFactory.buildGetRequest(url).execute();
+        try {
+            return response.getStatusCode();
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    @Benchmark
+    public String parseContent() throws IOException {
+        return wrapper.parseContent(requestFactory.buildGetRequest(url).execute());
+    }
+
+    @Benchmark
+    public JSONObject parseJson() throws IOException {
+        return wrapper.parseJson(requestFactory.buildGetRequest(url).execute());
+    }
+}
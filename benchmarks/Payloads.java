@@ -0,0 +1,231 @@
+package com.ps.google;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Payloads used by the benchmarks, shaped like responses recorded from the Google APIs and generated from a fixed
+ * seed so every run parses exactly the same bytes.
+ */
+public final class Payloads {
+
+    /** The content type of JSON responses */
+    public static final String JSON_TYPE = "application/json; charset=UTF-8";
+
+    /** The ID of the folder every generated file is in */
+    public static final String FOLDER_ID = "0B7xQbGfLqPZ1dGhpc0lzQUZvbGRlcg";
+
+    /** The ID of the file returned by the metadata and media responses */
+    public static final String FILE_ID = "1a2B3c4D5e6F7g8H9i0JkLmNoPqRsTuVw";
+
+    private static final long SEED = 42;
+
+    private static final String[] MIME_TYPES = {
+        "application/pdf", "image/jpeg", "text/plain", "application/vnd.google-apps.document",
+        "application/vnd.google-apps.spreadsheet", "application/vnd.google-apps.folder"
+    };
+
+    private static final String[] FIRST_NAMES = {
+        "Alice", "Bruno", "Chlo\u00e9", "Dmitri", "Eun-ji", "Farah", "G\u00f6ran"
+    };
+    private static final String[] LAST_NAMES = {"Martin", "Nakamura", "O'Brien", "Petrov", "Quispe", "Rossi"};
+    private static final String[] CITIES = {
+        "Toronto", "Montr\u00e9al", "Z\u00fcrich", "S\u00e3o Paulo", "Osaka", "Nairobi"
+    };
+
+    private Payloads() {
+    }
+
+    /**
+     * Returns a Drive v2 {@code files.list} response, with about one file in ten trashed.
+     *
+     * @param files the number of files listed.
+     * @return the UTF-8 encoded response content.
+     */
+    public static byte[] fileList(int files) {
+        Random random = new Random(SEED);
+        StringBuilder json = new StringBuilder(files * 900 + 200);
+        json.append("{\n \"kind\": \"drive#fileList\",\n \"etag\": \"\\\"").append(token(random, 27))
+            .append("\\\"\",\n \"selfLink\": \"https://www.googleapis.com/drive/v2/files\",\n \"items\": [\n");
+        for (int i = 0; i < files; i++) {
+            if (i > 0) {
+                json.append(",\n");
+            }
+            appendFile(json, random, i, token(random, 33), random.nextInt(10) == 0);
+        }
+        return json.append("\n ]\n}\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a Drive v2 {@code files.get} response for {@link #FILE_ID}.
+     *
+     * @param fileSize the size of the file described.
+     * @return the UTF-8 encoded response content.
+     */
+    public static byte[] fileMetadata(long fileSize) {
+        StringBuilder json = new StringBuilder(1024);
+        appendFile(json, new Random(SEED), 0, FILE_ID, false);
+        String content = json.toString().replaceFirst("\"fileSize\": \"\\d+\"", "\"fileSize\": \"" + fileSize + "\"");
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the content of a text file, one CSV record per line.
+     *
+     * @param lines the number of lines.
+     * @return the UTF-8 encoded file content.
+     */
+    public static byte[] fileContent(int lines) {
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder(lines * 80);
+        for (int i = 0; i < lines; i++) {
+            text.append(i).append(',').append(name(random)).append(',').append(email(random, i)).append(',')
+                .append(CITIES[random.nextInt(CITIES.length)]).append(",\"").append(token(random, 24)).append("\"\n");
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a Contacts v3 feed, each contact with a name, one to three email addresses, phone numbers and usually a
+     * postal address.
+     *
+     * @param contacts the number of contacts in the feed.
+     * @return the UTF-8 encoded Atom feed.
+     */
+    public static byte[] contactFeed(int contacts) {
+        Random random = new Random(SEED);
+        StringBuilder xml = new StringBuilder(contacts * 1500 + 1000);
+        xml.append("<?xml version='1.0' encoding='UTF-8'?>\n")
+            .append("<feed xmlns='http://www.w3.org/2005/Atom'")
+            .append(" xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/'")
+            .append(" xmlns:gContact='http://schemas.google.com/contact/2008'")
+            .append(" xmlns:batch='http://schemas.google.com/gdata/batch'")
+            .append(" xmlns:gd='http://schemas.google.com/g/2005'>\n")
+            .append("<id>user@example.com</id>\n<updated>2014-06-12T17:23:45.120Z</updated>\n")
+            .append("<category scheme='http://schemas.google.com/g/2005#kind'")
+            .append(" term='http://schemas.google.com/contact/2008#contact'/>\n")
+            .append("<title>User's Contacts</title>\n")
+            .append("<openSearch:totalResults>").append(contacts).append("</openSearch:totalResults>\n")
+            .append("<openSearch:startIndex>1</openSearch:startIndex>\n")
+            .append("<openSearch:itemsPerPage>").append(contacts).append("</openSearch:itemsPerPage>\n");
+        for (int i = 0; i < contacts; i++) {
+            String id = Long.toHexString(0x10000000L + i * 7919L);
+            String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            xml.append("<entry gd:etag='&quot;").append(token(random, 16)).append(".&quot;'>\n")
+                .append("<id>http://www.google.com/m8/feeds/contacts/user%40example.com/base/").append(id)
+                .append("</id>\n<updated>2014-06-").append(10 + random.nextInt(18)).append("T09:")
+                .append(10 + random.nextInt(50)).append(":00.000Z</updated>\n")
+                .append("<category scheme='http://schemas.google.com/g/2005#kind'")
+                .append(" term='http://schemas.google.com/contact/2008#contact'/>\n")
+                .append("<title>").append(first).append(' ').append(escapeXml(last)).append("</title>\n")
+                .append("<link rel='self' type='application/atom+xml'")
+                .append(" href='https://www.google.com/m8/feeds/contacts/user%40example.com/full/").append(id)
+                .append("'/>\n<gd:name><gd:fullName>").append(first).append(' ').append(escapeXml(last))
+                .append("</gd:fullName><gd:givenName>").append(first).append("</gd:givenName><gd:familyName>")
+                .append(escapeXml(last)).append("</gd:familyName></gd:name>\n");
+            int emails = 1 + random.nextInt(3);
+            for (int e = 0; e < emails; e++) {
+                xml.append("<gd:email rel='http://schemas.google.com/g/2005#").append(e == 0 ? "home" : "work")
+                    .append("' address='").append(email(random, i * 3 + e)).append('\'')
+                    .append(e == 0 ? " primary='true'" : "").append("/>\n");
+            }
+            int phones = random.nextInt(3);
+            for (int p = 0; p < phones; p++) {
+                xml.append("<gd:phoneNumber rel='http://schemas.google.com/g/2005#mobile'>+1 ")
+                    .append(200 + random.nextInt(800)).append('-').append(100 + random.nextInt(900)).append('-')
+                    .append(1000 + random.nextInt(9000)).append("</gd:phoneNumber>\n");
+            }
+            if (random.nextInt(4) != 0) {
+                String city = CITIES[random.nextInt(CITIES.length)];
+                xml.append("<gd:structuredPostalAddress rel='http://schemas.google.com/g/2005#home'>")
+                    .append("<gd:street>").append(1 + random.nextInt(999)).append(" Queen Street West</gd:street>")
+                    .append("<gd:city>").append(city).append("</gd:city>")
+                    .append("<gd:region>ON</gd:region><gd:postcode>M5H 2N2</gd:postcode>")
+                    .append("<gd:country>Canada</gd:country></gd:structuredPostalAddress>\n");
+            }
+            xml.append("</entry>\n");
+        }
+        return xml.append("</feed>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a mock transport answering every request with a {@code 200} response.
+     *
+     * @param contentType the content type of the responses.
+     * @param responder   returns the content of the response to a URL.
+     * @return the transport.
+     */
+    public static HttpTransport transport(String contentType, Function<String, byte[]> responder) {
+        return new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        return new MockLowLevelHttpResponse()
+                            .setContentType(contentType)
+                            .setContent(responder.apply(url));
+                    }
+                };
+            }
+        };
+    }
+
+    private static void appendFile(StringBuilder json, Random random, int index, String id, boolean trashed) {
+        String mimeType = MIME_TYPES[random.nextInt(MIME_TYPES.length)];
+        String title = name(random) + " - notes " + index;
+        json.append("  {\n   \"kind\": \"drive#file\",\n   \"id\": \"").append(id)
+            .append("\",\n   \"etag\": \"\\\"").append(token(random, 27)).append("\\\"\",\n")
+            .append("   \"selfLink\": \"https://www.googleapis.com/drive/v2/files/").append(id).append("\",\n")
+            .append("   \"alternateLink\": \"https://drive.google.com/file/d/").append(id).append("/view\",\n")
+            .append("   \"title\": \"").append(title).append("\",\n")
+            .append("   \"mimeType\": \"").append(mimeType).append("\",\n")
+            .append("   \"labels\": {\n    \"starred\": ").append(random.nextInt(20) == 0)
+            .append(",\n    \"hidden\": false,\n    \"trashed\": ").append(trashed)
+            .append(",\n    \"restricted\": false,\n    \"viewed\": ").append(random.nextBoolean()).append("\n   },\n")
+            .append("   \"createdDate\": \"2014-0").append(1 + random.nextInt(9)).append("-1")
+            .append(random.nextInt(10)).append("T12:34:56.789Z\",\n")
+            .append("   \"modifiedDate\": \"2014-0").append(1 + random.nextInt(9)).append("-2")
+            .append(random.nextInt(8)).append("T08:15:30.123Z\",\n")
+            .append("   \"parents\": [\n    {\n     \"kind\": \"drive#parentReference\",\n     \"id\": \"")
+            .append(FOLDER_ID).append("\",\n     \"isRoot\": false\n    }\n   ],\n")
+            .append("   \"owners\": [\n    {\n     \"kind\": \"drive#user\",\n     \"displayName\": \"")
+            .append(name(random)).append("\",\n     \"emailAddress\": \"").append(email(random, index))
+            .append("\",\n     \"isAuthenticatedUser\": true\n    }\n   ],\n")
+            .append("   \"md5Checksum\": \"").append(token(random, 32)).append("\",\n")
+            .append("   \"fileSize\": \"").append(1024 + random.nextInt(10 << 20)).append("\",\n")
+            .append("   \"quotaBytesUsed\": \"0\",\n   \"editable\": true,\n   \"copyable\": true,\n")
+            .append("   \"shared\": ").append(random.nextBoolean()).append("\n  }");
+    }
+
+    private static String name(Random random) {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    }
+
+    private static String email(Random random, int index) {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)].toLowerCase().replaceAll("[^a-z]", "") + "." + index
+            + "@example.com";
+    }
+
+    private static String token(Random random, int length) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789_-";
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("'", "&apos;").replace("<", "&lt;");
+    }
+}
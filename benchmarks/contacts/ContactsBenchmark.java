@@ -0,0 +1,75 @@
+package com.ps.google.contacts;
+
+import com.google.gdata.client.contacts.ContactsService;
+import com.google.gdata.data.contacts.ContactEntry;
+import com.google.gdata.data.contacts.ContactFeed;
+import com.google.gdata.util.ServiceException;
+import com.ps.google.Payloads;
+import org.json.JSONArray;
+import org.json.JSONWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the mapping of contact entries to JSON, both as a tree with {@link ContactsImpl#entryToJSON} and
+ * streamed with {@link ContactsImpl#writeEntry}. The gdata client does its own HTTP, so the recorded feed is parsed
+ * once during setup and only the mapping is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContactsBenchmark {
+
+    /** The number of contacts mapped per operation */
+    @Param({"10", "1000", "50000"})
+    public int contacts;
+
+    private List<ContactEntry> entries;
+
+    @Setup
+    public void setUp() throws IOException, ServiceException {
+        ContactsService service = new ContactsService("benchmark");
+        ContactFeed feed = new ContactFeed();
+        feed.parseAtom(service.getExtensionProfile(), new ByteArrayInputStream(Payloads.contactFeed(contacts)));
+        entries = feed.getEntries();
+    }
+
+    @Benchmark
+    public JSONArray entryToJSON() {
+        JSONArray array = new JSONArray();
+        for (ContactEntry entry : entries) {
+            array.put(ContactsImpl.entryToJSON(entry));
+        }
+        return array;
+    }
+
+    @Benchmark
+    public int writeEntries() {
+        StringWriter out = new StringWriter();
+        JSONWriter writer = new JSONWriter(out);
+        writer.array();
+        for (ContactEntry entry : entries) {
+            ContactsImpl.writeEntry(writer, entry);
+        }
+        writer.endArray();
+        return out.getBuffer().length();
+    }
+}
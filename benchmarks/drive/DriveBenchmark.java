@@ -0,0 +1,72 @@
+package com.ps.google.drive;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.FileList;
+import com.ps.google.Payloads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link DriveImpl#getFilesInFolder(String, int)} and {@link DriveImpl#returnFile(String)} on responses
+ * served by a mock transport. The service is built without the rate limiting and metrics initializers so that only
+ * the request building, parsing and mapping done by the wrapper is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DriveBenchmark {
+
+    /** The number of files in the folder, and of lines in the returned file */
+    @Param({"10", "1000", "50000"})
+    public int size;
+
+    private DriveImpl drive;
+
+    @Setup
+    public void setUp() {
+        byte[] listing = Payloads.fileList(size);
+        byte[] content = Payloads.fileContent(size);
+        byte[] metadata = Payloads.fileMetadata(content.length);
+        drive = new MockDrive(Payloads.transport(Payloads.JSON_TYPE, url -> {
+            if (url.contains("alt=media")) {
+                return content;
+            }
+            return url.contains("/files/") ? metadata : listing;
+        }));
+    }
+
+    @Benchmark
+    public FileList getFilesInFolder() throws IOException {
+        return drive.getFilesInFolder(Payloads.FOLDER_ID, size);
+    }
+
+    @Benchmark
+    public String returnFile() throws IOException {
+        return drive.returnFile(Payloads.FILE_ID);
+    }
+
+    /** Drive wrapper sending its requests to a mock transport. */
+    private static final class MockDrive extends DriveImpl {
+
+        MockDrive(HttpTransport transport) {
+            super("benchmark-token");
+            service = new Drive.Builder(transport, jsonFactory, null).setApplicationName(APP_NAME).build();
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package com.ps.google.emulator;
+
+import com.google.api.client.util.DateTime;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base of the handlers emulating one Google API. It injects the latency and faults of its {@link FaultProfile},
+ * checks that requests are authorized, answers conditional requests from the {@code ETag} of the response, and turns
+ * {@link ApiException}s into the error responses of the API.
+ */
+public abstract class ApiHandler implements HttpHandler {
+
+    /** The content type of JSON responses */
+    protected static final String JSON_TYPE = "application/json; charset=UTF-8";
+
+    private final String api;
+    private volatile FaultProfile faults = FaultProfile.NONE;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param api the name of the API, as used by the wrappers.
+     */
+    protected ApiHandler(String api) {
+        this.api = api;
+    }
+
+    /**
+     * Answers a request.
+     *
+     * @param request the request.
+     * @return the response.
+     * @throws ApiException if the request is rejected.
+     */
+    protected abstract Response serve(Request request);
+
+    /**
+     * @return the name of the API.
+     */
+    public String getApi() {
+        return api;
+    }
+
+    /**
+     * @param faults the latency and faults injected into the following requests.
+     */
+    public void setFaults(FaultProfile faults) {
+        this.faults = faults;
+    }
+
+    /**
+     * @return the latency and faults injected into requests.
+     */
+    public FaultProfile getFaults() {
+        return faults;
+    }
+
+    /**
+     * @return the number of requests received.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests rejected as throttled by fault injection.
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @return the number of requests failed by fault injection.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        Response response;
+        try {
+            Request request = new Request(exchange);
+            response = inject(faults);
+            if (response == null) {
+                response = authorize(request) ? serve(request) : error(HttpURLConnection.HTTP_UNAUTHORIZED,
+                    "authError", "Invalid Credentials");
+            }
+            if (response.etag != null && response.status == HttpURLConnection.HTTP_OK
+                && "GET".equals(request.getMethod()) && response.etag.equals(request.getHeader("If-None-Match"))) {
+                response = new Response(HttpURLConnection.HTTP_NOT_MODIFIED, null, null).setEtag(response.etag);
+            }
+        } catch (ApiException e) {
+            response = error(e.status, e.reason, e.getMessage());
+        } catch (RuntimeException e) {
+            Logger.getLogger(ApiHandler.class.getName())
+                .log(Level.WARNING, "Error serving " + exchange.getRequestURI(), e);
+            response = error(HttpURLConnection.HTTP_INTERNAL_ERROR, "internalError", String.valueOf(e.getMessage()));
+        }
+        send(exchange, response);
+    }
+
+    /**
+     * Returns the status code of throttled responses.
+     *
+     * @return {@code 429} unless the API reports rate limits differently.
+     */
+    protected int throttleStatus() {
+        return 429;
+    }
+
+    /**
+     * Returns an error response in the format of the API.
+     *
+     * @param status  the status code.
+     * @param reason  the reason of the error, such as {@code notFound}.
+     * @param message the message of the error.
+     * @return the response.
+     */
+    protected Response error(int status, String reason, String message) {
+        JSONObject error = new JSONObject()
+            .put("errors", new JSONArray().put(new JSONObject()
+                .put("domain", status == throttleStatus() ? "usageLimits" : "global")
+                .put("reason", reason)
+                .put("message", message)))
+            .put("code", status)
+            .put("message", message);
+        return json(status, new JSONObject().put("error", error));
+    }
+
+    /**
+     * @param status the status code.
+     * @param body   the content of the response.
+     * @return a JSON response.
+     */
+    protected static Response json(int status, JSONObject body) {
+        return new Response(status, JSON_TYPE, body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param body the content of the response.
+     * @return a {@code 200} JSON response, with the {@code ETag} of the body if it has one.
+     */
+    protected static Response ok(JSONObject body) {
+        return json(HttpURLConnection.HTTP_OK, body).setEtag(body.optString("etag", null));
+    }
+
+    /**
+     * @return a {@code 204} response.
+     */
+    protected static Response noContent() {
+        return new Response(HttpURLConnection.HTTP_NO_CONTENT, null, null);
+    }
+
+    /**
+     * Returns an {@code ETag} derived from values, such as the version of a collection and the query listing it.
+     *
+     * @param values the values identifying the content.
+     * @return the quoted {@code ETag}.
+     */
+    protected static String etag(Object... values) {
+        return '"' + Integer.toHexString(Arrays.deepHashCode(values)) + '"';
+    }
+
+    /**
+     * @param millis a time, in milliseconds since the epoch.
+     * @return the time in RFC 3339 format.
+     */
+    protected static String rfc3339(long millis) {
+        return new DateTime(millis).toStringRfc3339();
+    }
+
+    /**
+     * Returns one page of items.
+     *
+     * @param items     all of the items.
+     * @param pageToken the token of the page, which is the offset of its first item, or {@code null} for the first.
+     * @param pageSize  the maximum number of items of the page.
+     * @return the page.
+     * @throws ApiException if the page token is invalid.
+     */
+    protected static <T> Page<T> page(List<T> items, String pageToken, int pageSize) {
+        int offset = 0;
+        if (pageToken != null) {
+            try {
+                offset = Integer.parseInt(pageToken);
+            } catch (NumberFormatException e) {
+                offset = -1;
+            }
+            if (offset < 0 || offset > items.size()) {
+                throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalid",
+                    "Invalid pageToken: " + pageToken);
+            }
+        }
+        int end = Math.min(items.size(), offset + pageSize);
+        String nextPageToken = end < items.size() ? Integer.toString(end) : null;
+        return new Page<>(new ArrayList<>(items.subList(offset, end)), nextPageToken);
+    }
+
+    // draws the latency and the fault of a request, and sleeps for the latency
+    private Response inject(FaultProfile profile) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = profile.getLatency().sampleMillis(random);
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double draw = random.nextDouble();
+        if (draw < profile.getThrottleRate()) {
+            throttled.incrementAndGet();
+            Response response = error(throttleStatus(), "rateLimitExceeded", "Rate Limit Exceeded");
+            if (profile.getRetryAfterSeconds() > 0) {
+                response.setHeader("Retry-After", Integer.toString(profile.getRetryAfterSeconds()));
+            }
+            return response;
+        }
+        if (draw < profile.getThrottleRate() + profile.getErrorRate()) {
+            failed.incrementAndGet();
+            return error(HttpURLConnection.HTTP_UNAVAILABLE, "backendError", "Backend Error");
+        }
+        return null;
+    }
+
+    private static boolean authorize(Request request) {
+        String authorization = request.getHeader("Authorization");
+        return authorization != null && authorization.startsWith("Bearer ") && authorization.length() > 7;
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        if (response.contentType != null) {
+            headers.set("Content-Type", response.contentType);
+        }
+        if (response.etag != null) {
+            headers.set("ETag", response.etag);
+        }
+        response.headers.forEach(headers::set);
+        byte[] body = response.body;
+        boolean empty = body == null || body.length == 0 || "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(response.status, empty ? -1 : body.length);
+        if (!empty) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    /** A request received by the emulator. */
+    public static final class Request {
+        private final HttpExchange exchange;
+        private final String method;
+        private final List<String> path;
+        private final Map<String, String> query;
+        private byte[] body;
+
+        Request(HttpExchange exchange) {
+            this.exchange = exchange;
+            String override = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+            method = override != null ? override : exchange.getRequestMethod();
+            List<String> segments = new ArrayList<>();
+            for (String segment : exchange.getRequestURI().getRawPath().split("/")) {
+                if (!segment.isEmpty()) {
+                    segments.add(decode(segment));
+                }
+            }
+            path = Collections.unmodifiableList(segments);
+            query = parseQuery(exchange.getRequestURI().getRawQuery());
+        }
+
+        /**
+         * @return the HTTP method, taking {@code X-HTTP-Method-Override} into account.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the decoded segments of the URL path.
+         */
+        public List<String> getPath() {
+            return path;
+        }
+
+        /**
+         * @param index the index of the segment.
+         * @return the segment of the path, or {@code null} if the path is shorter.
+         */
+        public String getPath(int index) {
+            return index < path.size() ? path.get(index) : null;
+        }
+
+        /**
+         * @param name the name of the query parameter.
+         * @return the decoded value of the parameter, or {@code null} if it is missing.
+         */
+        public String getParameter(String name) {
+            return query.get(name);
+        }
+
+        /**
+         * @param name         the name of the query parameter.
+         * @param defaultValue the value returned when the parameter is missing.
+         * @param max          the largest accepted value.
+         * @return the value of the parameter, capped to the maximum.
+         * @throws ApiException if the value is not a positive integer.
+         */
+        public int getIntParameter(String name, int defaultValue, int max) {
+            String value = query.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                int parsed = Integer.parseInt(value);
+                if (parsed > 0) {
+                    return Math.min(parsed, max);
+                }
+            } catch (NumberFormatException e) {
+                // rejected below
+            }
+            throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalid", "Invalid " + name + ": " + value);
+        }
+
+        /**
+         * @param name the name of the header.
+         * @return the first value of the header, or {@code null} if it is missing.
+         */
+        public String getHeader(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        /**
+         * @return the content of the request, read on first use.
+         */
+        public byte[] getBody() {
+            if (body == null) {
+                try (InputStream in = exchange.getRequestBody()) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    body = out.toByteArray();
+                } catch (IOException e) {
+                    throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalid", "Unreadable body: " + e);
+                }
+            }
+            return body;
+        }
+
+        /**
+         * @return the content of the request parsed as a JSON object.
+         * @throws ApiException if the content is not a JSON object.
+         */
+        public JSONObject getJsonBody() {
+            try {
+                return new JSONObject(new String(getBody(), StandardCharsets.UTF_8));
+            } catch (JSONException e) {
+                throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "parseError", "Parse Error");
+            }
+        }
+
+        private static Map<String, String> parseQuery(String rawQuery) {
+            Map<String, String> parameters = new HashMap<>();
+            if (rawQuery != null) {
+                for (String pair : rawQuery.split("&")) {
+                    int equals = pair.indexOf('=');
+                    String name = decode(equals < 0 ? pair : pair.substring(0, equals));
+                    parameters.putIfAbsent(name, equals < 0 ? "" : decode(pair.substring(equals + 1)));
+                }
+            }
+            return parameters;
+        }
+
+        private static String decode(String value) {
+            try {
+                return URLDecoder.decode(value, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /** A response to send. */
+    public static final class Response {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+        private final Map<String, String> headers = new HashMap<>();
+        private String etag;
+
+        /**
+         * @param status      the status code.
+         * @param contentType the content type, or {@code null} without content.
+         * @param body        the content, or {@code null} for none.
+         */
+        public Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        /**
+         * @param etag the {@code ETag} of the content, or {@code null} for none.
+         * @return this response.
+         */
+        public Response setEtag(String etag) {
+            this.etag = etag;
+            return this;
+        }
+
+        /**
+         * @param name  the name of the header.
+         * @param value the value of the header.
+         * @return this response.
+         */
+        public Response setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * @return the status code.
+         */
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    /** One page of a listing. */
+    public static final class Page<T> {
+        private final List<T> items;
+        private final String nextPageToken;
+
+        Page(List<T> items, String nextPageToken) {
+            this.items = items;
+            this.nextPageToken = nextPageToken;
+        }
+
+        /**
+         * @return the items of the page.
+         */
+        public List<T> getItems() {
+            return items;
+        }
+
+        /**
+         * @return the token of the next page, or {@code null} if this is the last one.
+         */
+        public String getNextPageToken() {
+            return nextPageToken;
+        }
+    }
+
+    /** A request rejected with an error response. */
+    public static class ApiException extends RuntimeException {
+        private final int status;
+        private final String reason;
+
+        /**
+         * @param status  the status code of the response.
+         * @param reason  the reason of the error, such as {@code notFound}.
+         * @param message the message of the error.
+         */
+        public ApiException(int status, String reason, String message) {
+            super(message);
+            this.status = status;
+            this.reason = reason;
+        }
+
+        /**
+         * @param what the resource that was not found.
+         * @return an exception answered with {@code 404}.
+         */
+        public static ApiException notFound(String what) {
+            return new ApiException(HttpURLConnection.HTTP_NOT_FOUND, "notFound", "Not Found: " + what);
+        }
+
+        /**
+         * @return an exception answered with {@code 412}.
+         */
+        public static ApiException preconditionFailed() {
+            return new ApiException(HttpURLConnection.HTTP_PRECON_FAILED, "conditionNotMet", "Precondition Failed");
+        }
+
+        /**
+         * @param request the request that cannot be answered.
+         * @return an exception answered with {@code 501}.
+         */
+        public static ApiException notImplemented(Request request) {
+            return new ApiException(HttpURLConnection.HTTP_NOT_IMPLEMENTED, "notImplemented",
+                "Not emulated: " + request.getMethod() + " /" + String.join("/", request.getPath()));
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.ps.google.emulator;
+
+import com.google.api.client.util.DateTime;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Emulates the Calendar v3 endpoints used by {@link com.ps.google.calendar.CalendarImpl}: the calendar list, and
+ * listing, getting, inserting, updating and deleting events, including incremental sync with sync tokens. Deleted
+ * events are kept as cancelled so that syncs report them. Batch requests are not emulated.
+ * <p>
+ * Recurring events are stored and returned as they are sent: {@code singleEvents} does not expand them, and the
+ * instances of an event are the event itself. Every user sees the same calendars.
+ */
+public class CalendarEmulator extends ApiHandler {
+
+    /** The ID of the calendar every user has */
+    public static final String PRIMARY = "primary";
+
+    private static final int DEFAULT_PAGE_SIZE = 250;
+    private static final int MAX_PAGE_SIZE = 2500;
+    private static final int DEFAULT_CALENDAR_PAGE_SIZE = 100;
+    private static final int MAX_CALENDAR_PAGE_SIZE = 250;
+
+    private static final Comparator<JSONObject> BY_START = Comparator.comparingLong(CalendarEmulator::start);
+
+    /** Calendars by ID, in creation order */
+    private final Map<String, CalendarData> calendars = new LinkedHashMap<>();
+
+    /** Incremented on every change, and used as sync token */
+    private long sequence;
+
+    /** Default constructor, creating the primary calendar. */
+    public CalendarEmulator() {
+        super("calendar");
+        addCalendar(PRIMARY, "Primary");
+    }
+
+    /**
+     * Adds a calendar.
+     *
+     * @param calendarId the ID of the calendar.
+     * @param summary    the title of the calendar.
+     */
+    public synchronized void addCalendar(String calendarId, String summary) {
+        calendars.put(calendarId, new CalendarData(new JSONObject()
+            .put("kind", "calendar#calendarListEntry")
+            .put("etag", etag(calendarId, summary))
+            .put("id", calendarId)
+            .put("summary", summary)
+            .put("timeZone", "UTC")
+            .put("accessRole", "owner")
+            .put("primary", PRIMARY.equals(calendarId))));
+    }
+
+    /**
+     * Adds a one-off event.
+     *
+     * @param calendarId  the ID of the calendar.
+     * @param summary     the title of the event.
+     * @param startMillis the start of the event, in milliseconds since the epoch.
+     * @param endMillis   the end of the event, in milliseconds since the epoch.
+     * @return the ID of the event.
+     */
+    public String addEvent(String calendarId, String summary, long startMillis, long endMillis) {
+        return insert(calendarId, new JSONObject()
+            .put("summary", summary)
+            .put("start", new JSONObject().put("dateTime", rfc3339(startMillis)))
+            .put("end", new JSONObject().put("dateTime", rfc3339(endMillis)))).getString("id");
+    }
+
+    @Override
+    protected Response serve(Request request) {
+        List<String> path = request.getPath();
+        String method = request.getMethod();
+        if (path.size() == 5 && "users".equals(path.get(2)) && "calendarList".equals(path.get(4))
+            && "GET".equals(method)) {
+            return calendarList(request);
+        }
+        if (path.size() < 5 || !"calendars".equals(path.get(2)) || !"events".equals(path.get(4))) {
+            throw ApiException.notImplemented(request);
+        }
+        String calendarId = path.get(3);
+        String eventId = request.getPath(5);
+        if (eventId == null) {
+            if ("GET".equals(method)) {
+                return events(request, calendarId);
+            }
+            if ("POST".equals(method)) {
+                return ok(insert(calendarId, request.getJsonBody()));
+            }
+        } else if (path.size() == 6) {
+            switch (method) {
+                case "GET":
+                    return ok(get(calendarId, eventId));
+                case "PUT":
+                case "PATCH":
+                    return ok(update(request, calendarId, eventId));
+                case "DELETE":
+                    delete(calendarId, eventId);
+                    return noContent();
+                default:
+                    break;
+            }
+        } else if (path.size() == 7 && "instances".equals(path.get(6)) && "GET".equals(method)) {
+            return instances(request, calendarId, eventId);
+        }
+        throw ApiException.notImplemented(request);
+    }
+
+    private Response calendarList(Request request) {
+        int maxResults = request.getIntParameter("maxResults", DEFAULT_CALENDAR_PAGE_SIZE, MAX_CALENDAR_PAGE_SIZE);
+        String pageToken = request.getParameter("pageToken");
+        List<JSONObject> entries = new ArrayList<>();
+        synchronized (this) {
+            calendars.values().forEach(calendar -> entries.add(calendar.entry));
+        }
+        Page<JSONObject> page = page(entries, pageToken, maxResults);
+        JSONObject list = new JSONObject()
+            .put("kind", "calendar#calendarList")
+            .put("etag", etag(entries.size(), pageToken, maxResults))
+            .put("items", new JSONArray(page.getItems()));
+        if (page.getNextPageToken() != null) {
+            list.put("nextPageToken", page.getNextPageToken());
+        }
+        return ok(list);
+    }
+
+    private Response events(Request request, String calendarId) {
+        String syncToken = request.getParameter("syncToken");
+        String timeMin = request.getParameter("timeMin");
+        String timeMax = request.getParameter("timeMax");
+        String orderBy = request.getParameter("orderBy");
+        boolean singleEvents = Boolean.parseBoolean(request.getParameter("singleEvents"));
+        boolean showDeleted = Boolean.parseBoolean(request.getParameter("showDeleted"));
+        int maxResults = request.getIntParameter("maxResults", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+        String pageToken = request.getParameter("pageToken");
+        if (syncToken != null && (timeMin != null || timeMax != null || orderBy != null)) {
+            throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalid",
+                "Sync token cannot be used with timeMin, timeMax or orderBy");
+        }
+        if ("startTime".equals(orderBy) && !singleEvents) {
+            throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalid",
+                "The requested ordering is not available for the particular query.");
+        }
+        long min = timeMin == null ? Long.MIN_VALUE : DateTime.parseRfc3339(timeMin).getValue();
+        long max = timeMax == null ? Long.MAX_VALUE : DateTime.parseRfc3339(timeMax).getValue();
+
+        List<JSONObject> matching = new ArrayList<>();
+        long listedSequence;
+        JSONObject entry;
+        synchronized (this) {
+            CalendarData calendar = calendar(calendarId);
+            entry = calendar.entry;
+            listedSequence = sequence;
+            long since = syncToken == null ? -1 : parseSyncToken(syncToken);
+            for (JSONObject event : calendar.events.values()) {
+                boolean cancelled = "cancelled".equals(event.getString("status"));
+                if (since >= 0) {
+                    if (calendar.sequences.get(event.getString("id")) > since) {
+                        matching.add(event);
+                    }
+                } else if ((!cancelled || showDeleted) && end(event) > min && start(event) < max) {
+                    matching.add(event);
+                }
+            }
+        }
+        if ("startTime".equals(orderBy)) {
+            matching.sort(BY_START);
+        }
+        Page<JSONObject> page = page(matching, pageToken, maxResults);
+        JSONObject events = new JSONObject()
+            .put("kind", "calendar#events")
+            .put("etag", etag(listedSequence, request.getParameter("q"), syncToken, timeMin, timeMax, orderBy,
+                singleEvents, showDeleted, pageToken, maxResults))
+            .put("summary", entry.getString("summary"))
+            .put("updated", rfc3339(System.currentTimeMillis()))
+            .put("timeZone", entry.getString("timeZone"))
+            .put("accessRole", "owner")
+            .put("items", new JSONArray(page.getItems()));
+        if (page.getNextPageToken() != null) {
+            events.put("nextPageToken", page.getNextPageToken());
+        } else {
+            events.put("nextSyncToken", Long.toString(listedSequence));
+        }
+        return ok(events);
+    }
+
+    private Response instances(Request request, String calendarId, String eventId) {
+        JSONObject event = get(calendarId, eventId);
+        JSONArray items = new JSONArray();
+        if (!"cancelled".equals(event.getString("status"))) {
+            JSONObject instance = new JSONObject(event.toString())
+                .put("recurringEventId", eventId)
+                .put("originalStartTime", event.getJSONObject("start"));
+            instance.remove("recurrence");
+            items.put(instance);
+        }
+        return ok(new JSONObject()
+            .put("kind", "calendar#events")
+            .put("etag", etag(event.getString("etag"), request.getParameter("pageToken")))
+            .put("items", items));
+    }
+
+    private synchronized JSONObject insert(String calendarId, JSONObject body) {
+        CalendarData calendar = calendar(calendarId);
+        if (!body.has("start") || !body.has("end")) {
+            throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "required", "Missing end time.");
+        }
+        String id = body.optString("id", null);
+        if (id == null) {
+            id = String.format("%026x", (sequence + 1) * 0x9E3779B97F4A7C15L & Long.MAX_VALUE);
+        } else if (calendar.events.containsKey(id)) {
+            throw new ApiException(HttpURLConnection.HTTP_CONFLICT, "duplicate",
+                "The requested identifier already exists.");
+        }
+        String now = rfc3339(System.currentTimeMillis());
+        JSONObject event = new JSONObject(body.toString())
+            .put("kind", "calendar#event")
+            .put("id", id)
+            .put("status", body.optString("status", "confirmed"))
+            .put("htmlLink", "https://www.google.com/calendar/event?eid=" + id)
+            .put("iCalUID", id + "@google.com")
+            .put("created", now)
+            .put("sequence", 0)
+            .put("creator", new JSONObject().put("email", DriveEmulator.OWNER))
+            .put("organizer", new JSONObject().put("email", DriveEmulator.OWNER).put("self", true));
+        return store(calendar, event);
+    }
+
+    private synchronized JSONObject update(Request request, String calendarId, String eventId) {
+        CalendarData calendar = calendar(calendarId);
+        JSONObject current = get(calendarId, eventId);
+        String ifMatch = request.getHeader("If-Match");
+        if (ifMatch != null && !ifMatch.equals(current.getString("etag"))) {
+            throw ApiException.preconditionFailed();
+        }
+        JSONObject body = request.getJsonBody();
+        JSONObject updated = "PATCH".equals(request.getMethod())
+            ? new JSONObject(current.toString()) : new JSONObject();
+        for (String key : body.keySet()) {
+            updated.put(key, body.get(key));
+        }
+        for (String key : new String[]{"kind", "id", "htmlLink", "iCalUID", "created", "creator", "organizer"}) {
+            updated.put(key, current.get(key));
+        }
+        if (!updated.has("status")) {
+            updated.put("status", "confirmed");
+        }
+        updated.put("sequence", current.getInt("sequence") + 1);
+        return store(calendar, updated);
+    }
+
+    private synchronized void delete(String calendarId, String eventId) {
+        CalendarData calendar = calendar(calendarId);
+        JSONObject current = get(calendarId, eventId);
+        if ("cancelled".equals(current.getString("status"))) {
+            throw new ApiException(HttpURLConnection.HTTP_GONE, "deleted", "Resource has been deleted");
+        }
+        store(calendar, new JSONObject(current.toString()).put("status", "cancelled"));
+    }
+
+    private synchronized JSONObject get(String calendarId, String eventId) {
+        JSONObject event = calendar(calendarId).events.get(eventId);
+        if (event == null) {
+            throw ApiException.notFound("Event " + eventId);
+        }
+        return event;
+    }
+
+    // gives the event a new etag and update time, and records the change for sync
+    private synchronized JSONObject store(CalendarData calendar, JSONObject event) {
+        String id = event.getString("id");
+        sequence++;
+        event.put("etag", etag(id, sequence)).put("updated", rfc3339(System.currentTimeMillis()));
+        calendar.events.put(id, event);
+        calendar.sequences.put(id, sequence);
+        return event;
+    }
+
+    private CalendarData calendar(String calendarId) {
+        CalendarData calendar = calendars.get(calendarId);
+        if (calendar == null) {
+            throw ApiException.notFound("Calendar " + calendarId);
+        }
+        return calendar;
+    }
+
+    private long parseSyncToken(String syncToken) {
+        try {
+            long since = Long.parseLong(syncToken);
+            if (since >= 0 && since <= sequence) {
+                return since;
+            }
+        } catch (NumberFormatException e) {
+            // rejected below
+        }
+        throw new ApiException(HttpURLConnection.HTTP_GONE, "fullSyncRequired", "Sync token is no longer valid, "
+            + "a full sync is required.");
+    }
+
+    private static long start(JSONObject event) {
+        return time(event.getJSONObject("start"));
+    }
+
+    private static long end(JSONObject event) {
+        return time(event.getJSONObject("end"));
+    }
+
+    private static long time(JSONObject time) {
+        String value = time.has("dateTime") ? time.getString("dateTime") : time.getString("date");
+        return DateTime.parseRfc3339(value).getValue();
+    }
+
+    /** The events of one calendar. */
+    private static final class CalendarData {
+        private final JSONObject entry;
+        private final Map<String, JSONObject> events = new LinkedHashMap<>();
+        private final Map<String, Long> sequences = new HashMap<>();
+
+        CalendarData(JSONObject entry) {
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.ps.google.emulator;
+
+import com.google.api.client.util.DateTime;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Emulates the Contacts v3 GData endpoints used by {@link com.ps.google.contacts.ContactsImpl}: the contacts feed
+ * with paging, {@code updated-min} and {@code showdeleted}, getting, updating and deleting single contacts, and the
+ * groups feed. Contacts only keep the fields the wrapper reads: name, email addresses, phone numbers and postal
+ * addresses. Every user sees the same contacts.
+ */
+public class ContactsEmulator extends ApiHandler {
+
+    /** The URL prefix of contact feeds and entries */
+    protected static final String FEED_URL = "https://www.google.com/m8/feeds/contacts/";
+
+    /** The content type of Atom responses */
+    protected static final String ATOM_TYPE = "application/atom+xml; charset=UTF-8";
+
+    private static final String GD_NS = "http://schemas.google.com/g/2005";
+    private static final String USER = "user@example.com";
+    private static final int DEFAULT_PAGE_SIZE = 25;
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    /** The fields of postal addresses, in the order they are written */
+    private static final String[] ADDRESS_FIELDS = {"street", "pobox", "neighborhood", "city", "region", "postcode",
+        "country"};
+
+    /** Contacts by ID, never modified once stored */
+    private final Map<String, Contact> contacts = new LinkedHashMap<>();
+    private long nextId = 0x10000000L;
+    private long version;
+
+    /** Default constructor, with no contacts. */
+    public ContactsEmulator() {
+        super("contacts");
+    }
+
+    /**
+     * Adds a contact.
+     *
+     * @param fullName     the full name of the contact.
+     * @param emails       the email addresses of the contact.
+     * @param phoneNumbers the phone numbers of the contact.
+     * @param address      the postal address of the contact, by field such as {@code city}, or {@code null}.
+     * @return the ID of the contact.
+     */
+    public synchronized String addContact(String fullName, List<String> emails, List<String> phoneNumbers,
+                                          Map<String, String> address) {
+        String id = Long.toHexString(nextId++);
+        List<Map<String, String>> addresses = address == null ? Collections.emptyList()
+            : Collections.singletonList(address);
+        store(new Contact(id, fullName, emails, phoneNumbers, addresses, false, 0, null));
+        return id;
+    }
+
+    /**
+     * @return the number of contacts, excluding deleted ones.
+     */
+    public synchronized int getContactCount() {
+        return (int) contacts.values().stream().filter(contact -> !contact.deleted).count();
+    }
+
+    @Override
+    protected Response error(int status, String reason, String message) {
+        return new Response(status, "text/plain; charset=UTF-8", message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected Response serve(Request request) {
+        List<String> path = request.getPath();
+        String method = request.getMethod();
+        if (path.size() == 5 && "groups".equals(path.get(2)) && "GET".equals(method)) {
+            return groups();
+        }
+        if (path.size() < 5 || !"contacts".equals(path.get(2))) {
+            throw ApiException.notImplemented(request);
+        }
+        if (path.size() == 5 && "GET".equals(method)) {
+            return feed(request);
+        }
+        if (path.size() == 6) {
+            String id = path.get(5);
+            switch (method) {
+                case "GET":
+                    return entry(get(id));
+                case "PUT":
+                    return entry(update(request, id));
+                case "DELETE":
+                    delete(request, id);
+                    return new Response(HttpURLConnection.HTTP_OK, null, null);
+                default:
+                    break;
+            }
+        }
+        throw ApiException.notImplemented(request);
+    }
+
+    private Response feed(Request request) {
+        int startIndex = request.getIntParameter("start-index", 1, Integer.MAX_VALUE);
+        int maxResults = request.getIntParameter("max-results", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+        String updatedMinParameter = request.getParameter("updated-min");
+        long updatedMin = updatedMinParameter == null ? Long.MIN_VALUE
+            : DateTime.parseRfc3339(updatedMinParameter).getValue();
+        boolean showDeleted = Boolean.parseBoolean(request.getParameter("showdeleted"));
+        List<Contact> matching = new ArrayList<>();
+        long listedVersion;
+        synchronized (this) {
+            listedVersion = version;
+            for (Contact contact : contacts.values()) {
+                if ((!contact.deleted || showDeleted) && contact.updated > updatedMin) {
+                    matching.add(contact);
+                }
+            }
+        }
+        int from = Math.min(matching.size(), startIndex - 1);
+        List<Contact> page = matching.subList(from, Math.min(matching.size(), from + maxResults));
+
+        StringBuilder xml = new StringBuilder(page.size() * 1500 + 1000);
+        xml.append("<?xml version='1.0' encoding='UTF-8'?>")
+            .append("<feed xmlns='http://www.w3.org/2005/Atom'")
+            .append(" xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/'")
+            .append(" xmlns:gContact='http://schemas.google.com/contact/2008'")
+            .append(" xmlns:batch='http://schemas.google.com/gdata/batch'")
+            .append(" xmlns:gd='").append(GD_NS).append("' gd:etag='")
+            .append(escape(etag(listedVersion, updatedMin, showDeleted))).append("'>")
+            .append("<id>").append(USER).append("</id>")
+            .append("<updated>").append(rfc3339(System.currentTimeMillis())).append("</updated>")
+            .append("<category scheme='http://schemas.google.com/g/2005#kind'")
+            .append(" term='http://schemas.google.com/contact/2008#contact'/>")
+            .append("<title>Contacts</title>")
+            .append("<link rel='self' type='application/atom+xml' href='").append(FEED_URL)
+            .append("default/full?start-index=").append(startIndex).append("&amp;max-results=").append(maxResults)
+            .append("'/>");
+        if (from + maxResults < matching.size()) {
+            xml.append("<link rel='next' type='application/atom+xml' href='").append(FEED_URL)
+                .append("default/full?start-index=").append(startIndex + maxResults).append("&amp;max-results=")
+                .append(maxResults).append("'/>");
+        }
+        xml.append("<openSearch:totalResults>").append(matching.size()).append("</openSearch:totalResults>")
+            .append("<openSearch:startIndex>").append(startIndex).append("</openSearch:startIndex>")
+            .append("<openSearch:itemsPerPage>").append(maxResults).append("</openSearch:itemsPerPage>");
+        for (Contact contact : page) {
+            appendEntry(xml, contact, false);
+        }
+        xml.append("</feed>");
+        return atom(xml);
+    }
+
+    private Response groups() {
+        StringBuilder xml = new StringBuilder(2048);
+        xml.append("<?xml version='1.0' encoding='UTF-8'?>")
+            .append("<feed xmlns='http://www.w3.org/2005/Atom'")
+            .append(" xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/'")
+            .append(" xmlns:gContact='http://schemas.google.com/contact/2008'")
+            .append(" xmlns:gd='").append(GD_NS).append("'>")
+            .append("<id>").append(USER).append("</id>")
+            .append("<updated>2014-01-01T00:00:00.000Z</updated>")
+            .append("<title>Groups</title>")
+            .append("<openSearch:totalResults>4</openSearch:totalResults>");
+        for (String group : new String[]{"Contacts", "Friends", "Family", "Coworkers"}) {
+            xml.append("<entry gd:etag='&quot;").append(group).append("&quot;'>")
+                .append("<id>http://www.google.com/m8/feeds/groups/").append(USER).append("/base/6")
+                .append(group.toLowerCase()).append("</id>")
+                .append("<updated>2014-01-01T00:00:00.000Z</updated>")
+                .append("<title>System Group: ").append(group).append("</title>")
+                .append("<gContact:systemGroup id='").append(group).append("'/>")
+                .append("</entry>");
+        }
+        xml.append("</feed>");
+        return atom(xml);
+    }
+
+    private Response entry(Contact contact) {
+        StringBuilder xml = new StringBuilder(2048).append("<?xml version='1.0' encoding='UTF-8'?>");
+        appendEntry(xml, contact, true);
+        return atom(xml).setEtag(contact.etag);
+    }
+
+    private synchronized Contact update(Request request, String id) {
+        Contact current = get(id);
+        checkEtag(request, current);
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(request.getBody()));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalid", "Invalid entry: " + e.getMessage());
+        }
+        Element root = document.getDocumentElement();
+        NodeList fullNames = root.getElementsByTagNameNS(GD_NS, "fullName");
+        String fullName = fullNames.getLength() > 0 ? fullNames.item(0).getTextContent() : null;
+        List<String> emails = new ArrayList<>();
+        NodeList emailNodes = root.getElementsByTagNameNS(GD_NS, "email");
+        for (int i = 0; i < emailNodes.getLength(); i++) {
+            emails.add(((Element) emailNodes.item(i)).getAttribute("address"));
+        }
+        List<String> phoneNumbers = new ArrayList<>();
+        NodeList phoneNodes = root.getElementsByTagNameNS(GD_NS, "phoneNumber");
+        for (int i = 0; i < phoneNodes.getLength(); i++) {
+            phoneNumbers.add(phoneNodes.item(i).getTextContent());
+        }
+        List<Map<String, String>> addresses = new ArrayList<>();
+        NodeList addressNodes = root.getElementsByTagNameNS(GD_NS, "structuredPostalAddress");
+        for (int i = 0; i < addressNodes.getLength(); i++) {
+            Element addressNode = (Element) addressNodes.item(i);
+            Map<String, String> address = new LinkedHashMap<>();
+            for (String field : ADDRESS_FIELDS) {
+                NodeList values = addressNode.getElementsByTagNameNS(GD_NS, field);
+                if (values.getLength() > 0) {
+                    address.put(field, values.item(0).getTextContent());
+                }
+            }
+            addresses.add(address);
+        }
+        return store(new Contact(id, fullName, emails, phoneNumbers, addresses, false, 0, null));
+    }
+
+    private synchronized void delete(Request request, String id) {
+        Contact current = get(id);
+        checkEtag(request, current);
+        store(new Contact(id, current.fullName, Collections.emptyList(), Collections.emptyList(),
+            Collections.emptyList(), true, 0, null));
+    }
+
+    private synchronized Contact get(String id) {
+        Contact contact = contacts.get(id);
+        if (contact == null || contact.deleted) {
+            throw ApiException.notFound("Contact " + id);
+        }
+        return contact;
+    }
+
+    // gives the contact a new etag and update time, and stores it
+    private synchronized Contact store(Contact contact) {
+        version++;
+        Contact stored = new Contact(contact.id, contact.fullName, contact.emails, contact.phoneNumbers,
+            contact.addresses, contact.deleted, System.currentTimeMillis(), etag(contact.id, version));
+        contacts.put(contact.id, stored);
+        return stored;
+    }
+
+    private static void checkEtag(Request request, Contact current) {
+        String ifMatch = request.getHeader("If-Match");
+        if (ifMatch != null && !"*".equals(ifMatch) && !ifMatch.equals(current.etag)) {
+            throw ApiException.preconditionFailed();
+        }
+    }
+
+    private static void appendEntry(StringBuilder xml, Contact contact, boolean namespaces) {
+        String editUrl = FEED_URL + USER.replace("@", "%40") + "/full/" + contact.id;
+        xml.append("<entry");
+        if (namespaces) {
+            xml.append(" xmlns='http://www.w3.org/2005/Atom'")
+                .append(" xmlns:gContact='http://schemas.google.com/contact/2008'")
+                .append(" xmlns:gd='").append(GD_NS).append('\'');
+        }
+        xml.append(" gd:etag='").append(escape(contact.etag)).append("'>")
+            .append("<id>http://www.google.com/m8/feeds/contacts/").append(USER.replace("@", "%40"))
+            .append("/base/").append(contact.id).append("</id>")
+            .append("<updated>").append(rfc3339(contact.updated)).append("</updated>")
+            .append("<app:edited xmlns:app='http://www.w3.org/2007/app'>").append(rfc3339(contact.updated))
+            .append("</app:edited>")
+            .append("<category scheme='http://schemas.google.com/g/2005#kind'")
+            .append(" term='http://schemas.google.com/contact/2008#contact'/>")
+            .append("<title>").append(escape(contact.fullName)).append("</title>")
+            .append("<link rel='self' type='application/atom+xml' href='").append(editUrl).append("'/>")
+            .append("<link rel='edit' type='application/atom+xml' href='").append(editUrl).append("'/>");
+        if (contact.deleted) {
+            xml.append("<gd:deleted/>");
+        }
+        if (contact.fullName != null) {
+            xml.append("<gd:name><gd:fullName>").append(escape(contact.fullName)).append("</gd:fullName></gd:name>");
+        }
+        for (int i = 0; i < contact.emails.size(); i++) {
+            xml.append("<gd:email rel='http://schemas.google.com/g/2005#").append(i == 0 ? "home" : "other")
+                .append("' address='").append(escape(contact.emails.get(i))).append('\'')
+                .append(i == 0 ? " primary='true'" : "").append("/>");
+        }
+        for (String phoneNumber : contact.phoneNumbers) {
+            xml.append("<gd:phoneNumber rel='http://schemas.google.com/g/2005#mobile'>").append(escape(phoneNumber))
+                .append("</gd:phoneNumber>");
+        }
+        for (Map<String, String> address : contact.addresses) {
+            xml.append("<gd:structuredPostalAddress rel='http://schemas.google.com/g/2005#home'>");
+            for (String field : ADDRESS_FIELDS) {
+                String value = address.get(field);
+                if (value != null) {
+                    xml.append("<gd:").append(field).append('>').append(escape(value)).append("</gd:").append(field)
+                        .append('>');
+                }
+            }
+            xml.append("</gd:structuredPostalAddress>");
+        }
+        xml.append("</entry>");
+    }
+
+    private static Response atom(StringBuilder xml) {
+        return new Response(HttpURLConnection.HTTP_OK, ATOM_TYPE, xml.toString().getBytes(StandardCharsets.UTF_8))
+            .setHeader("GData-Version", "3.0");
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("'", "&apos;")
+            .replace("\"", "&quot;");
+    }
+
+    /** A contact, replaced rather than modified when it changes. */
+    private static final class Contact {
+        private final String id;
+        private final String fullName;
+        private final List<String> emails;
+        private final List<String> phoneNumbers;
+        private final List<Map<String, String>> addresses;
+        private final boolean deleted;
+        private final long updated;
+        private final String etag;
+
+        Contact(String id, String fullName, List<String> emails, List<String> phoneNumbers,
+                List<Map<String, String>> addresses, boolean deleted, long updated, String etag) {
+            this.id = id;
+            this.fullName = fullName;
+            this.emails = new ArrayList<>(emails);
+            this.phoneNumbers = new ArrayList<>(phoneNumbers);
+            this.addresses = new ArrayList<>(addresses);
+            this.deleted = deleted;
+            this.updated = updated;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package com.ps.google.emulator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Emulates the Drive v2 endpoints used by {@link com.ps.google.drive.DriveImpl}: listing, getting, updating and
+ * deleting files, downloading their content with optional byte ranges, simple, multipart and resumable uploads, and
+ * listing, inserting, updating and deleting permissions. Batch requests are not emulated.
+ * <p>
+ * Listings accept the query terms the wrapper sends: {@code 'id' in parents}, {@code trashed}, {@code title} and
+ * {@code mimeType} comparisons joined with {@code and}. The {@code fields} parameter is ignored and full resources are
+ * returned. Every user sees the same files.
+ */
+public class DriveEmulator extends ApiHandler {
+
+    /** The URL prefix of file resources */
+    protected static final String FILES_URL = "https://www.googleapis.com/drive/v2/files";
+
+    /** The URL resumable upload sessions are sent to */
+    protected static final String UPLOAD_URL = "https://www.googleapis.com/upload/drive/v2/files";
+
+    /** The MIME type of folders */
+    public static final String FOLDER_TYPE = "application/vnd.google-apps.folder";
+
+    /** The email address of the owner of every file */
+    public static final String OWNER = "owner@example.com";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (?:(\\d+)-(\\d+)|\\*)/(\\d+|\\*)");
+    private static final Pattern PARENT_TERM = Pattern.compile("'((?:[^'\\\\]|\\\\.)*)' in parents");
+    private static final Pattern FIELD_TERM =
+        Pattern.compile("(title|mimeType|trashed)\\s*(=|!=|contains)\\s*(?:'((?:[^'\\\\]|\\\\.)*)'|(true|false))");
+
+    /** Files by ID, never modified once stored so they can be serialized outside of the lock */
+    private final Map<String, JSONObject> files = new LinkedHashMap<>();
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private final Map<String, Map<String, JSONObject>> permissions = new HashMap<>();
+    private final Map<String, Upload> uploads = new HashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private long version;
+
+    /** Default constructor, with an empty drive. */
+    public DriveEmulator() {
+        super("drive");
+    }
+
+    /**
+     * Adds a folder.
+     *
+     * @param parentId the ID of the parent folder, or {@code null} for the root.
+     * @param title    the title of the folder.
+     * @return the ID of the folder.
+     */
+    public String addFolder(String parentId, String title) {
+        return insert(new JSONObject().put("title", title).put("mimeType", FOLDER_TYPE), parentId, null);
+    }
+
+    /**
+     * Adds a file.
+     *
+     * @param parentId the ID of the parent folder, or {@code null} for the root.
+     * @param title    the title of the file.
+     * @param mimeType the MIME type of the file.
+     * @param content  the content of the file.
+     * @return the ID of the file.
+     */
+    public String addFile(String parentId, String title, String mimeType, byte[] content) {
+        return insert(new JSONObject().put("title", title).put("mimeType", mimeType), parentId, content);
+    }
+
+    /**
+     * @return the number of files and folders, including trashed ones.
+     */
+    public synchronized int getFileCount() {
+        return files.size();
+    }
+
+    @Override
+    protected int throttleStatus() {
+        return HttpURLConnection.HTTP_FORBIDDEN;
+    }
+
+    @Override
+    protected Response serve(Request request) {
+        if ("upload".equals(request.getPath(0))) {
+            return upload(request);
+        }
+        if (!"files".equals(request.getPath(2))) {
+            throw ApiException.notImplemented(request);
+        }
+        String fileId = request.getPath(3);
+        String method = request.getMethod();
+        if (fileId == null) {
+            if ("GET".equals(method)) {
+                return list(request);
+            }
+            if ("POST".equals(method)) {
+                return ok(get(insert(request.getJsonBody(), null, null)));
+            }
+        } else if (request.getPath().size() == 4) {
+            switch (method) {
+                case "GET":
+                    return "media".equals(request.getParameter("alt")) ? media(request, fileId) : ok(get(fileId));
+                case "PUT":
+                case "PATCH":
+                    return ok(update(request, fileId));
+                case "DELETE":
+                    delete(fileId);
+                    return noContent();
+                default:
+                    break;
+            }
+        } else if ("permissions".equals(request.getPath(4))) {
+            return permissions(request, fileId, request.getPath(5));
+        }
+        throw ApiException.notImplemented(request);
+    }
+
+    private Response list(Request request) {
+        String q = request.getParameter("q");
+        Predicate<JSONObject> filter = parseQuery(q);
+        int maxResults = request.getIntParameter("maxResults", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+        String pageToken = request.getParameter("pageToken");
+        List<JSONObject> matching = new ArrayList<>();
+        long listedVersion;
+        synchronized (this) {
+            listedVersion = version;
+            for (JSONObject file : files.values()) {
+                if (filter.test(file)) {
+                    matching.add(file);
+                }
+            }
+        }
+        Page<JSONObject> page = page(matching, pageToken, maxResults);
+        JSONObject list = new JSONObject()
+            .put("kind", "drive#fileList")
+            .put("etag", etag(listedVersion, q, pageToken, maxResults))
+            .put("selfLink", FILES_URL)
+            .put("items", new JSONArray(page.getItems()));
+        if (page.getNextPageToken() != null) {
+            list.put("nextPageToken", page.getNextPageToken());
+        }
+        return ok(list);
+    }
+
+    private Response media(Request request, String fileId) {
+        byte[] content;
+        String mimeType;
+        synchronized (this) {
+            mimeType = get(fileId).getString("mimeType");
+            content = contents.get(fileId);
+        }
+        if (content == null) {
+            throw new ApiException(HttpURLConnection.HTTP_FORBIDDEN, "fileNotDownloadable",
+                "Only files with binary content can be downloaded");
+        }
+        String range = request.getHeader("Range");
+        if (range == null) {
+            return new Response(HttpURLConnection.HTTP_OK, mimeType, content);
+        }
+        Matcher matcher = RANGE.matcher(range.trim());
+        long start = matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+        if (start < 0 || start >= content.length) {
+            return new Response(416, null, null).setHeader("Content-Range", "bytes */" + content.length);
+        }
+        long end = matcher.group(2).isEmpty() ? content.length - 1
+            : Math.min(content.length - 1, Long.parseLong(matcher.group(2)));
+        return new Response(206, mimeType, Arrays.copyOfRange(content, (int) start, (int) end + 1))
+            .setHeader("Content-Range", String.format("bytes %d-%d/%d", start, end, content.length));
+    }
+
+    private synchronized JSONObject update(Request request, String fileId) {
+        JSONObject current = get(fileId);
+        String ifMatch = request.getHeader("If-Match");
+        if (ifMatch != null && !ifMatch.equals(current.getString("etag"))) {
+            throw ApiException.preconditionFailed();
+        }
+        JSONObject updated = new JSONObject(current.toString());
+        JSONObject changes = request.getJsonBody();
+        for (String key : changes.keySet()) {
+            if (!Arrays.asList("id", "etag", "kind", "selfLink", "fileSize", "md5Checksum").contains(key)) {
+                updated.put(key, changes.get(key));
+            }
+        }
+        List<String> parents = parentIds(updated);
+        String addParents = request.getParameter("addParents");
+        if (addParents != null) {
+            parents.addAll(Arrays.asList(addParents.split(",")));
+        }
+        String removeParents = request.getParameter("removeParents");
+        if (removeParents != null) {
+            parents.removeAll(Arrays.asList(removeParents.split(",")));
+        }
+        updated.put("parents", parentReferences(parents));
+        return store(updated);
+    }
+
+    private synchronized void delete(String fileId) {
+        get(fileId);
+        files.remove(fileId);
+        contents.remove(fileId);
+        permissions.remove(fileId);
+        version++;
+    }
+
+    private Response permissions(Request request, String fileId, String permissionId) {
+        String method = request.getMethod();
+        synchronized (this) {
+            get(fileId);
+            Map<String, JSONObject> filePermissions = permissions.get(fileId);
+            if (permissionId == null) {
+                if ("GET".equals(method)) {
+                    List<String> etags = new ArrayList<>();
+                    filePermissions.values().forEach(permission -> etags.add(permission.getString("etag")));
+                    return ok(new JSONObject()
+                        .put("kind", "drive#permissionList")
+                        .put("etag", etag(fileId, etags))
+                        .put("items", new JSONArray(filePermissions.values())));
+                }
+                if ("POST".equals(method)) {
+                    JSONObject body = request.getJsonBody();
+                    String value = body.optString("value", null);
+                    if (value == null || !body.has("role") || !body.has("type")) {
+                        throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "required", "Required");
+                    }
+                    JSONObject permission = permission(value, body.getString("type"), body.getString("role"));
+                    filePermissions.put(permission.getString("id"), permission);
+                    return ok(permission);
+                }
+                throw ApiException.notImplemented(request);
+            }
+            JSONObject permission = filePermissions.get(permissionId);
+            if (permission == null) {
+                throw ApiException.notFound("Permission " + permissionId);
+            }
+            switch (method) {
+                case "GET":
+                    return ok(permission);
+                case "PUT":
+                case "PATCH":
+                    JSONObject updated = new JSONObject(permission.toString());
+                    JSONObject changes = request.getJsonBody();
+                    if (changes.has("role")) {
+                        updated.put("role", changes.getString("role"));
+                    }
+                    updated.put("etag", etag(permissionId, updated.getString("role"), ids.incrementAndGet()));
+                    filePermissions.put(permissionId, updated);
+                    return ok(updated);
+                case "DELETE":
+                    filePermissions.remove(permissionId);
+                    return noContent();
+                default:
+                    throw ApiException.notImplemented(request);
+            }
+        }
+    }
+
+    private Response upload(Request request) {
+        if (request.getPath().size() != 4) {
+            throw ApiException.notImplemented(request);
+        }
+        String uploadType = request.getParameter("uploadType");
+        if ("media".equals(uploadType) && "POST".equals(request.getMethod())) {
+            return ok(get(insert(new JSONObject().put("title", "Untitled"), null, request.getBody())));
+        }
+        if ("multipart".equals(uploadType) && "POST".equals(request.getMethod())) {
+            return multipartUpload(request);
+        }
+        if ("resumable".equals(uploadType)) {
+            String uploadId = request.getParameter("upload_id");
+            if (uploadId == null && "POST".equals(request.getMethod())) {
+                byte[] body = request.getBody();
+                JSONObject metadata = body.length == 0 ? new JSONObject() : request.getJsonBody();
+                uploadId = Long.toString(ids.incrementAndGet(), 36) + Long.toHexString(System.nanoTime());
+                synchronized (this) {
+                    uploads.put(uploadId, new Upload(metadata));
+                }
+                return new Response(HttpURLConnection.HTTP_OK, null, null)
+                    .setHeader("Location", UPLOAD_URL + "?uploadType=resumable&upload_id=" + uploadId);
+            }
+            if (uploadId != null && "PUT".equals(request.getMethod())) {
+                return resumableUpload(request, uploadId);
+            }
+        }
+        throw ApiException.notImplemented(request);
+    }
+
+    private Response multipartUpload(Request request) {
+        String contentType = String.valueOf(request.getHeader("Content-Type"));
+        int boundaryAt = contentType.indexOf("boundary=");
+        if (boundaryAt < 0) {
+            throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "badContent", "Missing multipart boundary");
+        }
+        String boundary = contentType.substring(boundaryAt + "boundary=".length()).split(";")[0].replace("\"", "");
+        // ISO-8859-1 maps every byte to one char, so the media part can be turned back into the original bytes
+        String body = new String(request.getBody(), StandardCharsets.ISO_8859_1);
+        List<String> parts = new ArrayList<>();
+        for (String part : body.split("--" + Pattern.quote(boundary))) {
+            int headersEnd = part.indexOf("\r\n\r\n");
+            if (headersEnd >= 0) {
+                String content = part.substring(headersEnd + 4);
+                parts.add(content.endsWith("\r\n") ? content.substring(0, content.length() - 2) : content);
+            }
+        }
+        if (parts.size() != 2) {
+            throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "badContent",
+                "Expected 2 parts: " + parts.size());
+        }
+        JSONObject metadata = new JSONObject(new String(parts.get(0).getBytes(StandardCharsets.ISO_8859_1),
+            StandardCharsets.UTF_8));
+        return ok(get(insert(metadata, null, parts.get(1).getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+    private Response resumableUpload(Request request, String uploadId) {
+        byte[] chunk = request.getBody();
+        String contentRange = request.getHeader("Content-Range");
+        Upload upload;
+        long received;
+        long total = -1;
+        synchronized (this) {
+            upload = uploads.get(uploadId);
+            if (upload == null) {
+                throw ApiException.notFound("Upload " + uploadId);
+            }
+            if (contentRange != null) {
+                Matcher matcher = CONTENT_RANGE.matcher(contentRange.trim());
+                if (!matcher.matches()) {
+                    throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "badContent",
+                        "Invalid Content-Range: " + contentRange);
+                }
+                if (matcher.group(1) != null && Long.parseLong(matcher.group(1)) != upload.content.size()) {
+                    throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "badContent",
+                        "Chunk does not start at " + upload.content.size() + ": " + contentRange);
+                }
+                total = "*".equals(matcher.group(3)) ? -1 : Long.parseLong(matcher.group(3));
+            } else {
+                total = upload.content.size() + chunk.length;
+            }
+            upload.content.write(chunk, 0, chunk.length);
+            received = upload.content.size();
+            if (received == total) {
+                uploads.remove(uploadId);
+            }
+        }
+        if (received == total) {
+            return ok(get(insert(upload.metadata, null, upload.content.toByteArray())));
+        }
+        Response incomplete = new Response(308, null, null);
+        if (received > 0) {
+            incomplete.setHeader("Range", "bytes=0-" + (received - 1));
+        }
+        return incomplete;
+    }
+
+    // creates a file from its metadata, placing it in the parent if the metadata has none
+    private String insert(JSONObject metadata, String parentId, byte[] content) {
+        String id = String.format("0B%030x", ids.incrementAndGet() * 2654435761L);
+        long now = System.currentTimeMillis();
+        JSONObject file = new JSONObject(metadata.toString())
+            .put("kind", "drive#file")
+            .put("id", id)
+            .put("selfLink", FILES_URL + "/" + id)
+            .put("alternateLink", "https://drive.google.com/file/d/" + id + "/view")
+            .put("createdDate", rfc3339(now))
+            .put("modifiedDate", rfc3339(now))
+            .put("owners", new JSONArray().put(new JSONObject()
+                .put("kind", "drive#user")
+                .put("emailAddress", OWNER)
+                .put("displayName", "Owner")));
+        if (!file.has("title")) {
+            file.put("title", "Untitled");
+        }
+        if (!file.has("mimeType")) {
+            file.put("mimeType", content == null ? FOLDER_TYPE : "application/octet-stream");
+        }
+        List<String> parents = parentIds(file);
+        if (parents.isEmpty()) {
+            parents.add(parentId == null ? "root" : parentId);
+        }
+        file.put("parents", parentReferences(parents));
+        JSONObject labels = file.optJSONObject("labels");
+        file.put("labels", new JSONObject()
+            .put("starred", labels != null && labels.optBoolean("starred"))
+            .put("hidden", false)
+            .put("trashed", labels != null && labels.optBoolean("trashed"))
+            .put("restricted", false)
+            .put("viewed", true));
+        if (content != null) {
+            file.put("fileSize", Long.toString(content.length)).put("md5Checksum", md5(content));
+        }
+        Map<String, JSONObject> filePermissions = new LinkedHashMap<>();
+        JSONObject owner = permission(OWNER, "user", "owner");
+        filePermissions.put(owner.getString("id"), owner);
+        synchronized (this) {
+            if (content != null) {
+                contents.put(id, content);
+            }
+            permissions.put(id, filePermissions);
+            store(file);
+        }
+        return id;
+    }
+
+    // gives the file a new etag and modification date, and stores it
+    private synchronized JSONObject store(JSONObject file) {
+        String id = file.getString("id");
+        file.put("etag", etag(id, ids.incrementAndGet()));
+        if (files.containsKey(id)) {
+            file.put("modifiedDate", rfc3339(System.currentTimeMillis()));
+        }
+        files.put(id, file);
+        version++;
+        return file;
+    }
+
+    private synchronized JSONObject get(String fileId) {
+        JSONObject file = files.get(fileId);
+        if (file == null) {
+            throw ApiException.notFound("File " + fileId);
+        }
+        return file;
+    }
+
+    private JSONObject permission(String value, String type, String role) {
+        String id = Long.toString(Math.abs((long) value.toLowerCase(Locale.ROOT).hashCode()));
+        return new JSONObject()
+            .put("kind", "drive#permission")
+            .put("id", id)
+            .put("etag", etag(id, role, ids.incrementAndGet()))
+            .put("type", type)
+            .put("role", role)
+            .put("value", value)
+            .put("emailAddress", value);
+    }
+
+    private static List<String> parentIds(JSONObject file) {
+        List<String> ids = new ArrayList<>();
+        JSONArray parents = file.optJSONArray("parents");
+        if (parents != null) {
+            for (int i = 0; i < parents.length(); i++) {
+                ids.add(parents.getJSONObject(i).getString("id"));
+            }
+        }
+        return ids;
+    }
+
+    private static JSONArray parentReferences(List<String> parentIds) {
+        JSONArray parents = new JSONArray();
+        for (String parentId : new LinkedHashSet<>(parentIds)) {
+            parents.put(new JSONObject()
+                .put("kind", "drive#parentReference")
+                .put("id", parentId)
+                .put("isRoot", "root".equals(parentId)));
+        }
+        return parents;
+    }
+
+    /**
+     * Parses the subset of the Drive query language used by the wrapper.
+     *
+     * @param q the query, or {@code null} to match every file.
+     * @return the filter matching the files selected by the query.
+     * @throws ApiException if the query uses unsupported terms.
+     */
+    protected static Predicate<JSONObject> parseQuery(String q) {
+        Predicate<JSONObject> filter = file -> true;
+        if (q == null || q.trim().isEmpty()) {
+            return filter;
+        }
+        for (String term : splitTerms(q)) {
+            Matcher parent = PARENT_TERM.matcher(term);
+            Matcher field = FIELD_TERM.matcher(term);
+            if (parent.matches()) {
+                String parentId = unescape(parent.group(1));
+                filter = filter.and(file -> parentIds(file).contains(parentId));
+            } else if (field.matches()) {
+                filter = filter.and(fieldFilter(field.group(1), field.group(2),
+                    field.group(3) != null ? unescape(field.group(3)) : field.group(4)));
+            } else {
+                throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalid", "Invalid Value: " + term);
+            }
+        }
+        return filter;
+    }
+
+    private static Predicate<JSONObject> fieldFilter(String name, String operator, String value) {
+        if ("trashed".equals(name)) {
+            if ("contains".equals(operator)) {
+                throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalid", "Invalid Value: trashed");
+            }
+            boolean trashed = Boolean.parseBoolean(value);
+            boolean equal = "=".equals(operator);
+            return file -> (file.getJSONObject("labels").getBoolean("trashed") == trashed) == equal;
+        }
+        if ("contains".equals(operator)) {
+            String lower = value.toLowerCase(Locale.ROOT);
+            return file -> file.getString(name).toLowerCase(Locale.ROOT).contains(lower);
+        }
+        boolean equal = "=".equals(operator);
+        return file -> value.equals(file.getString(name)) == equal;
+    }
+
+    // splits a query on the "and" operators outside of quoted values
+    private static List<String> splitTerms(String q) {
+        List<String> terms = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (c == '\\' && quoted) {
+                i++;
+            } else if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && q.regionMatches(true, i, " and ", 0, 5)) {
+                terms.add(q.substring(start, i).trim());
+                start = i + 5;
+                i += 4;
+            }
+        }
+        terms.add(q.substring(start).trim());
+        return terms;
+    }
+
+    private static String unescape(String value) {
+        return value.replaceAll("\\\\(.)", "$1");
+    }
+
+    private static String md5(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder(32);
+            for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** A resumable upload in progress. */
+    private static final class Upload {
+        private final JSONObject metadata;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        Upload(JSONObject metadata) {
+            this.metadata = metadata;
+        }
+    }
+}
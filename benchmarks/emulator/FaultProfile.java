@@ -0,0 +1,67 @@
+package com.ps.google.emulator;
+
+/**
+ * How the emulator degrades the answers of an API: the latency added to each request, and the share of requests
+ * rejected as throttled or failed with a server error.
+ */
+public class FaultProfile {
+
+    /** Answers every request immediately and successfully */
+    public static final FaultProfile NONE = new FaultProfile(LatencyDistribution.NONE, 0, 0, 0);
+
+    private final LatencyDistribution latency;
+    private final double throttleRate;
+    private final double errorRate;
+    private final int retryAfterSeconds;
+
+    /**
+     * @param latency           the latency added to each request.
+     * @param throttleRate      the share of requests rejected as throttled, between 0 and 1.
+     * @param errorRate         the share of requests failed with {@code 503}, between 0 and 1.
+     * @param retryAfterSeconds the {@code Retry-After} sent with throttled responses, or {@code 0} for none.
+     */
+    public FaultProfile(LatencyDistribution latency, double throttleRate, double errorRate, int retryAfterSeconds) {
+        if (throttleRate < 0 || errorRate < 0 || throttleRate + errorRate > 1) {
+            throw new IllegalArgumentException(String.format("Invalid fault rates: throttle=%f, error=%f",
+                throttleRate, errorRate));
+        }
+        this.latency = latency;
+        this.throttleRate = throttleRate;
+        this.errorRate = errorRate;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the latency added to each request.
+     */
+    public LatencyDistribution getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the share of requests rejected as throttled.
+     */
+    public double getThrottleRate() {
+        return throttleRate;
+    }
+
+    /**
+     * @return the share of requests failed with a server error.
+     */
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * @return the {@code Retry-After} sent with throttled responses, or {@code 0} for none.
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FaultProfile{throttleRate=%.4f, errorRate=%.4f, retryAfter=%ds}",
+            throttleRate, errorRate, retryAfterSeconds);
+    }
+}
@@ -0,0 +1,186 @@
+package com.ps.google.emulator;
+
+import com.google.api.client.http.javanet.ConnectionFactory;
+import com.google.api.client.http.javanet.DefaultConnectionFactory;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.gdata.client.http.HttpUrlConnectionSource;
+import com.ps.google.HttpTransportRegistry;
+import com.ps.google.contacts.ContactsImpl;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local server emulating the Google APIs used by the wrappers, so they can be load tested offline without using any
+ * quota. It listens on the loopback interface; {@link #install()} makes wrappers created afterwards send their
+ * requests to it, by rewriting the scheme, host and port of every URL and keeping the path.
+ * <p>
+ * Each API is served by its own handler, which holds its data in memory and can be given a {@link FaultProfile}.
+ */
+public class GoogleApiEmulator implements Closeable {
+
+    /** The number of pending connections the server accepts */
+    private static final int BACKLOG = 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final DriveEmulator drive = new DriveEmulator();
+    private final CalendarEmulator calendar = new CalendarEmulator();
+    private final ContactsEmulator contacts = new ContactsEmulator();
+    private final PlusEmulator plus = new PlusEmulator();
+
+    /**
+     * Creates the emulator. It does not accept requests until {@link #start()} is called.
+     *
+     * @param port the port to listen on, or {@code 0} for any free port.
+     * @throws IOException
+     */
+    public GoogleApiEmulator(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server.createContext("/drive/", drive);
+        server.createContext("/upload/drive/", drive);
+        server.createContext("/calendar/", calendar);
+        server.createContext("/m8/feeds/", contacts);
+        server.createContext("/plus/", plus);
+        server.createContext("/", new ApiHandler("unknown") {
+            @Override
+            protected Response serve(Request request) {
+                throw ApiException.notImplemented(request);
+            }
+        });
+        // handlers sleep to emulate latency, so every connection gets its own thread
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "google-emulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, and undoes {@link #install()}.
+     */
+    @Override
+    public void close() {
+        uninstall();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Makes the wrappers created afterwards send their requests to the emulator: the shared transport of
+     * {@link HttpTransportRegistry} and the GData client of {@link ContactsImpl} are both redirected.
+     */
+    public void install() {
+        HttpTransportRegistry.setBackend(backend());
+        ContactsImpl.setConnectionSource(connectionSource());
+    }
+
+    /**
+     * Makes the wrappers created afterwards send their requests to Google again.
+     */
+    public void uninstall() {
+        HttpTransportRegistry.setBackend(HttpTransportRegistry.NET_HTTP);
+        ContactsImpl.setConnectionSource(null);
+    }
+
+    /**
+     * @return the port the emulator listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param faults the latency and faults injected into the requests of every API.
+     */
+    public void setFaults(FaultProfile faults) {
+        getHandlers().forEach(handler -> handler.setFaults(faults));
+    }
+
+    /**
+     * @return the handlers of the emulated APIs.
+     */
+    public List<ApiHandler> getHandlers() {
+        return Collections.unmodifiableList(Arrays.asList(drive, calendar, contacts, plus));
+    }
+
+    /**
+     * @return the handler emulating the Drive API.
+     */
+    public DriveEmulator getDrive() {
+        return drive;
+    }
+
+    /**
+     * @return the handler emulating the Calendar API.
+     */
+    public CalendarEmulator getCalendar() {
+        return calendar;
+    }
+
+    /**
+     * @return the handler emulating the Contacts API.
+     */
+    public ContactsEmulator getContacts() {
+        return contacts;
+    }
+
+    /**
+     * @return the handler emulating the Plus API.
+     */
+    public PlusEmulator getPlus() {
+        return plus;
+    }
+
+    /**
+     * Returns the URL of the emulator serving a Google API URL.
+     *
+     * @param url the URL of a Google API.
+     * @return the same path and query on the emulator.
+     * @throws MalformedURLException
+     */
+    public URL redirect(URL url) throws MalformedURLException {
+        return new URL("http", server.getAddress().getHostString(), getPort(), url.getFile());
+    }
+
+    /**
+     * @return a backend for {@link HttpTransportRegistry} creating transports connected to the emulator.
+     */
+    public HttpTransportRegistry.Backend backend() {
+        return (maxConnectionsPerHost, stats) -> {
+            ConnectionFactory connections = new DefaultConnectionFactory();
+            return new NetHttpTransport.Builder()
+                .setConnectionFactory(url -> {
+                    stats.recordRequest(url.getHost());
+                    return connections.openConnection(redirect(url));
+                })
+                .build();
+        };
+    }
+
+    /**
+     * @return a connection source for the GData client opening connections to the emulator.
+     */
+    public HttpUrlConnectionSource connectionSource() {
+        return url -> (HttpURLConnection) redirect(url).openConnection();
+    }
+}
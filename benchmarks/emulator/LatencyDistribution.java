@@ -0,0 +1,53 @@
+package com.ps.google.emulator;
+
+import java.util.Random;
+
+/**
+ * Distribution of the time the emulator waits before answering a request.
+ */
+public interface LatencyDistribution {
+
+    /** Answers immediately */
+    LatencyDistribution NONE = random -> 0;
+
+    /**
+     * Draws a latency.
+     *
+     * @param random the source of randomness.
+     * @return the latency, in milliseconds.
+     */
+    long sampleMillis(Random random);
+
+    /**
+     * @param millis the latency, in milliseconds.
+     * @return a distribution always returning the same latency.
+     */
+    static LatencyDistribution fixed(long millis) {
+        return random -> millis;
+    }
+
+    /**
+     * @param minMillis the smallest latency, in milliseconds.
+     * @param maxMillis the largest latency, in milliseconds.
+     * @return a distribution of latencies spread evenly between two bounds.
+     */
+    static LatencyDistribution uniform(long minMillis, long maxMillis) {
+        if (maxMillis < minMillis) {
+            throw new IllegalArgumentException("Max latency is below min latency: " + maxMillis + " < " + minMillis);
+        }
+        return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+    }
+
+    /**
+     * Returns a log-normal distribution, the usual shape of service latencies: most requests are close to the median
+     * and a long tail is much slower. A sigma of {@code 0.5} puts the 99th percentile at about three times the median.
+     *
+     * @param medianMillis the median latency, in milliseconds.
+     * @param sigma        the standard deviation of the logarithm of the latency.
+     * @return the distribution.
+     */
+    static LatencyDistribution logNormal(double medianMillis, double sigma) {
+        double mu = Math.log(medianMillis);
+        return random -> Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+    }
+}
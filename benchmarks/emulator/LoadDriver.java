@@ -0,0 +1,288 @@
+package com.ps.google.emulator;
+
+import com.google.api.client.util.DateTime;
+import com.ps.google.LatencyHistogram;
+import com.ps.google.calendar.CalendarImpl;
+import com.ps.google.contacts.ContactsImpl;
+import com.ps.google.drive.DriveImpl;
+import com.ps.google.plus.PlusImpl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives the wrappers against a {@link GoogleApiEmulator} at a fixed concurrency and reports their sustained
+ * throughput and latency percentiles. Each worker thread acts as its own user, with its own wrappers and so its own
+ * rate limiters, and calls one operation in a closed loop: the next call starts as soon as the previous one ends.
+ * <p>
+ * Latencies are measured end to end, including rate limiting, retries and parsing, and recorded in a
+ * {@link LatencyHistogram}, so percentiles are upper bounds accurate to within a quarter of their order of magnitude.
+ */
+public class LoadDriver {
+
+    /** The number of operations run at the same time by default */
+    public static final int DEFAULT_CONCURRENCY = 32;
+
+    /** The default time spent calling an operation before measuring it */
+    public static final long DEFAULT_WARMUP_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /** The default time spent measuring an operation */
+    public static final long DEFAULT_DURATION_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+    /** A call to a wrapper. */
+    public interface Operation {
+
+        /**
+         * Makes the call.
+         *
+         * @throws Exception if the call fails.
+         */
+        void run() throws Exception;
+    }
+
+    private final int concurrency;
+    private final long warmupMillis;
+    private final long durationMillis;
+
+    /**
+     * @param concurrency    the number of operations run at the same time.
+     * @param warmupMillis   the time spent calling an operation before measuring it.
+     * @param durationMillis the time spent measuring an operation.
+     */
+    public LoadDriver(int concurrency, long warmupMillis, long durationMillis) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        this.warmupMillis = warmupMillis;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Runs an operation at the configured concurrency.
+     *
+     * @param name    the name of the operation, for the report.
+     * @param workers creates the operation run by each worker, from the index of the worker.
+     * @return the measurements of the operation.
+     * @throws InterruptedException if interrupted while waiting for the workers.
+     */
+    public Report run(String name, IntFunction<Operation> workers) throws InterruptedException {
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        AtomicReference<Exception> firstError = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        long measureFrom = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long measureUntil = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        ExecutorService threads = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "load-driver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                Operation operation = workers.apply(i);
+                threads.execute(() -> {
+                    try {
+                        long now;
+                        while ((now = System.nanoTime()) < measureUntil) {
+                            try {
+                                operation.run();
+                                if (now >= measureFrom) {
+                                    latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - now));
+                                }
+                            } catch (InterruptedException e) {
+                                throw e;
+                            } catch (Exception e) {
+                                if (now >= measureFrom) {
+                                    errors.incrementAndGet();
+                                }
+                                firstError.compareAndSet(null, e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        } finally {
+            threads.shutdownNow();
+        }
+        if (firstError.get() != null) {
+            Logger.getLogger(LoadDriver.class.getName())
+                .log(Level.WARNING, "First error of " + name + ", of " + errors.get() + " measured.", firstError.get());
+        }
+        return new Report(name, concurrency, durationMillis, latencies, errors.get());
+    }
+
+    /** The measurements of one operation. */
+    public static final class Report {
+        private final String name;
+        private final int concurrency;
+        private final long durationMillis;
+        private final LatencyHistogram latencies;
+        private final long errors;
+
+        Report(String name, int concurrency, long durationMillis, LatencyHistogram latencies, long errors) {
+            this.name = name;
+            this.concurrency = concurrency;
+            this.durationMillis = durationMillis;
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        /**
+         * @return the number of successful operations per second.
+         */
+        public double getThroughput() {
+            return latencies.getCount() * 1000.0 / durationMillis;
+        }
+
+        /**
+         * @return the number of failed operations.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the latencies of successful operations, in microseconds.
+         */
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s c=%-4d %10.1f ops/s  errors=%-6d p50=%8.2fms p90=%8.2fms p99=%8.2fms "
+                    + "p99.9=%8.2fms", name, concurrency, getThroughput(), errors, millis(50), millis(90), millis(99),
+                millis(99.9));
+        }
+
+        private double millis(double percentile) {
+            return latencies.getPercentile(percentile) / 1000.0;
+        }
+    }
+
+    /**
+     * Starts an emulator with seeded data and the default fault profile, and reports every scenario. Arguments are
+     * the concurrency, the measured seconds per scenario, and the names of the scenarios to run.
+     *
+     * @param args {@code [concurrency [seconds [scenario...]]]}.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CONCURRENCY;
+        long duration = args.length > 1 ? TimeUnit.SECONDS.toMillis(Long.parseLong(args[1])) : DEFAULT_DURATION_MILLIS;
+        List<String> only = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : Collections.emptyList();
+
+        try (GoogleApiEmulator emulator = new GoogleApiEmulator(0)) {
+            Scenarios scenarios = new Scenarios(emulator);
+            emulator.setFaults(new FaultProfile(LatencyDistribution.logNormal(40, 0.5), 0.01, 0.005, 1));
+            emulator.start();
+            emulator.install();
+            System.out.printf("Emulator on port %d, %s%n", emulator.getPort(), emulator.getDrive().getFaults());
+
+            LoadDriver driver = new LoadDriver(concurrency, DEFAULT_WARMUP_MILLIS, duration);
+            for (Map.Entry<String, IntFunction<Operation>> scenario : scenarios.all().entrySet()) {
+                if (only.isEmpty() || only.contains(scenario.getKey())) {
+                    System.out.println(driver.run(scenario.getKey(), scenario.getValue()));
+                }
+            }
+            for (ApiHandler handler : emulator.getHandlers()) {
+                System.out.printf("%-10s requests=%d throttled=%d failed=%d%n", handler.getApi(),
+                    handler.getRequestCount(), handler.getThrottledCount(), handler.getFailedCount());
+            }
+        }
+    }
+
+    /** The seeded data and the operations run against it. */
+    private static final class Scenarios {
+        private static final int FILES = 500;
+        private static final int FILE_SIZE = 64 * 1024;
+        private static final int EVENTS = 500;
+        private static final int CONTACTS = 2000;
+        private static final int ACTIVITIES = 300;
+
+        private final String folderId;
+        private final String fileId;
+
+        Scenarios(GoogleApiEmulator emulator) {
+            DriveEmulator drive = emulator.getDrive();
+            folderId = drive.addFolder(null, "Load test");
+            byte[] content = new byte[FILE_SIZE];
+            Arrays.fill(content, (byte) 'x');
+            String lastFileId = null;
+            for (int i = 0; i < FILES; i++) {
+                lastFileId = drive.addFile(folderId, "Document " + i + ".txt", "text/plain", content);
+            }
+            fileId = lastFileId;
+
+            long start = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30);
+            for (int i = 0; i < EVENTS; i++) {
+                long eventStart = start + TimeUnit.HOURS.toMillis(3 * i);
+                emulator.getCalendar().addEvent(CalendarEmulator.PRIMARY, "Meeting " + i, eventStart,
+                    eventStart + TimeUnit.MINUTES.toMillis(45));
+            }
+
+            for (int i = 0; i < CONTACTS; i++) {
+                Map<String, String> address = new LinkedHashMap<>();
+                address.put("street", (i + 1) + " Queen Street West");
+                address.put("city", "Toronto");
+                address.put("country", "Canada");
+                emulator.getContacts().addContact("Contact " + i,
+                    Arrays.asList("contact" + i + "@example.com", "work" + i + "@example.com"),
+                    Collections.singletonList(String.format("+1 416-555-%04d", i)), i % 4 == 0 ? null : address);
+            }
+
+            for (int i = 0; i < ACTIVITIES; i++) {
+                emulator.getPlus().addActivity("Post " + i, "<b>Post</b> number " + i);
+            }
+        }
+
+        Map<String, IntFunction<Operation>> all() {
+            DateTime min = new DateTime(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30));
+            DateTime max = new DateTime(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(60));
+            Map<String, IntFunction<Operation>> scenarios = new LinkedHashMap<>();
+            scenarios.put("drive.list", worker -> {
+                DriveImpl drive = new DriveImpl(token(worker));
+                return () -> drive.getFilesInFolder(folderId);
+            });
+            scenarios.put("drive.returnFile", worker -> {
+                DriveImpl drive = new DriveImpl(token(worker));
+                return () -> drive.returnFile(fileId);
+            });
+            scenarios.put("calendar.events", worker -> {
+                CalendarImpl calendar = new CalendarImpl(token(worker));
+                return () -> calendar.getEvents(CalendarEmulator.PRIMARY, max, min);
+            });
+            scenarios.put("contacts.feed", worker -> {
+                ContactsImpl contacts = new ContactsImpl(token(worker));
+                return () -> contacts.getContacts();
+            });
+            scenarios.put("plus.activities", worker -> {
+                PlusImpl plus = new PlusImpl(token(worker));
+                return () -> plus.getActivities(PlusEmulator.PUBLIC);
+            });
+            return scenarios;
+        }
+
+        private static String token(int worker) {
+            return "load-user-" + worker;
+        }
+    }
+}
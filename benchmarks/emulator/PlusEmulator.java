@@ -0,0 +1,97 @@
+package com.ps.google.emulator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Emulates the Plus v1 activities listing used by {@link com.ps.google.plus.PlusImpl}, with paging and {@code ETag}s.
+ * The {@code fields} parameter is ignored and full activities are returned. Every user sees the same activities.
+ */
+public class PlusEmulator extends ApiHandler {
+
+    /** The only collection of activities */
+    public static final String PUBLIC = "public";
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+
+    /** Activities, newest first */
+    private final List<JSONObject> activities = new ArrayList<>();
+    private long version;
+
+    /** Default constructor, with no activities. */
+    public PlusEmulator() {
+        super("plus");
+    }
+
+    /**
+     * Adds an activity, newer than every activity already added.
+     *
+     * @param title   the title of the activity.
+     * @param content the HTML content of the activity.
+     * @return the ID of the activity.
+     */
+    public synchronized String addActivity(String title, String content) {
+        version++;
+        String id = String.format("z%021x", version * 0x9E3779B97F4A7C15L & Long.MAX_VALUE);
+        String published = rfc3339(System.currentTimeMillis());
+        activities.add(0, new JSONObject()
+            .put("kind", "plus#activity")
+            .put("etag", etag(id, version))
+            .put("id", id)
+            .put("title", title)
+            .put("published", published)
+            .put("updated", published)
+            .put("url", "https://plus.google.com/+Example/posts/" + id)
+            .put("verb", "post")
+            .put("actor", new JSONObject()
+                .put("id", "112233445566778899000")
+                .put("displayName", "Example User"))
+            .put("object", new JSONObject()
+                .put("objectType", "note")
+                .put("content", content)
+                .put("replies", new JSONObject().put("totalItems", 0))
+                .put("plusoners", new JSONObject().put("totalItems", 0))
+                .put("resharers", new JSONObject().put("totalItems", 0)))
+            .put("access", new JSONObject()
+                .put("kind", "plus#acl")
+                .put("description", "Public")));
+        return id;
+    }
+
+    @Override
+    protected Response serve(Request request) {
+        List<String> path = request.getPath();
+        if (path.size() != 6 || !"people".equals(path.get(2)) || !"activities".equals(path.get(4))
+            || !"GET".equals(request.getMethod())) {
+            throw ApiException.notImplemented(request);
+        }
+        if (!PUBLIC.equals(path.get(5))) {
+            throw new ApiException(HttpURLConnection.HTTP_BAD_REQUEST, "invalidParameter",
+                "Invalid string value: '" + path.get(5) + "'. Allowed values: [public]");
+        }
+        int maxResults = request.getIntParameter("maxResults", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+        String pageToken = request.getParameter("pageToken");
+        List<JSONObject> snapshot;
+        long listedVersion;
+        synchronized (this) {
+            snapshot = new ArrayList<>(activities);
+            listedVersion = version;
+        }
+        Page<JSONObject> page = page(snapshot, pageToken, maxResults);
+        JSONObject feed = new JSONObject()
+            .put("kind", "plus#activityFeed")
+            .put("etag", etag(listedVersion, pageToken, maxResults))
+            .put("title", "Plus Public Activity Feed")
+            .put("updated", snapshot.isEmpty() ? rfc3339(0) : snapshot.get(0).getString("updated"))
+            .put("items", new JSONArray(page.getItems()));
+        if (page.getNextPageToken() != null) {
+            feed.put("nextPageToken", page.getNextPageToken());
+        }
+        return ok(feed);
+    }
+}
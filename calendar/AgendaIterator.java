@@ -0,0 +1,241 @@
+package com.ps.google.calendar;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+import com.ps.google.InFlightLimiter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merges the events of several calendars into a single iterator ordered by start time.
+ * <p>
+ * The first page of every calendar is fetched concurrently. Every page is fetched on the given executor within a
+ * limit of its own, typically the agenda limit shared by the user's agendas. It must not be the limit of the user's
+ * {@link com.ps.google.GoogleOauth2Impl#async} calls: an agenda read inside such a call would wait for fetches needing
+ * the slot it holds. Further pages of a calendar are only fetched once the merge has consumed the previous one, so a
+ * caller that stops early does not pay for the events it never reads.
+ * <p>
+ * Calendars the user can no longer read, answering {@code 403} or {@code 404}, are skipped and reported by
+ * {@link #getSkippedCalendars()} rather than failing the whole agenda. Other errors raised while fetching are rethrown
+ * as {@link UncheckedIOException}.
+ */
+public class AgendaIterator implements Iterator<Event> {
+
+    /** Fetches one page of the events of a calendar. */
+    public interface PageFetcher {
+
+        /**
+         * Fetches a page of events ordered by start time.
+         *
+         * @param calendarID the ID of the calendar.
+         * @param pageToken  the token of the page to fetch, or {@code null} for the first page.
+         * @return the page of events.
+         * @throws IOException
+         */
+        Events fetch(String calendarID, String pageToken) throws IOException;
+    }
+
+    /** Orders events by start time, all-day events by their date */
+    public static final Comparator<Event> BY_START = Comparator.comparingLong(AgendaIterator::startMillis);
+
+    private final PageFetcher fetcher;
+    private final InFlightLimiter limiter;
+    private final Executor executor;
+    private final List<String> skipped = new CopyOnWriteArrayList<>();
+    private final PriorityQueue<Source> queue = new PriorityQueue<>(Comparator.comparing(Source::head, BY_START));
+
+    /**
+     * Starts fetching the first page of every calendar and waits for them to arrive.
+     *
+     * @param calendarIDs the IDs of the calendars to merge.
+     * @param fetcher     the object used to fetch each page.
+     * @param limiter     bounds the number of requests in flight.
+     * @param executor    the executor running the requests.
+     */
+    public AgendaIterator(List<String> calendarIDs, PageFetcher fetcher, InFlightLimiter limiter, Executor executor) {
+        this.fetcher = fetcher;
+        this.limiter = limiter;
+        this.executor = executor;
+
+        List<CompletableFuture<Events>> firstPages = new ArrayList<>();
+        for (String calendarID : calendarIDs) {
+            firstPages.add(fetchAsync(calendarID, null));
+        }
+        for (int i = 0; i < firstPages.size(); i++) {
+            Source source = new Source(calendarIDs.get(i), await(firstPages.get(i)));
+            if (source.advance()) {
+                queue.add(source);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public Event next() {
+        Source source = queue.poll();
+        if (source == null) {
+            throw new NoSuchElementException();
+        }
+        Event event = source.head;
+        if (source.advance()) {
+            queue.add(source);
+        }
+        return event;
+    }
+
+    /**
+     * @return the IDs of the calendars skipped because the user cannot read them, in the order they failed.
+     */
+    public List<String> getSkippedCalendars() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    /**
+     * Returns the start of an event in milliseconds, using the date of all-day events.
+     *
+     * @param event the event.
+     * @return the start of the event, or {@link Long#MAX_VALUE} if it has none.
+     */
+    public static long startMillis(Event event) {
+        EventDateTime start = event.getStart();
+        if (start == null) {
+            return Long.MAX_VALUE;
+        }
+        DateTime time = start.getDateTime() != null ? start.getDateTime() : start.getDate();
+        return time == null ? Long.MAX_VALUE : time.getValue();
+    }
+
+    // the page is completed in every case, exceptionally if the executor rejects the fetch, so awaiting it never hangs
+    private CompletableFuture<Events> fetchAsync(String calendarID, String pageToken) {
+        CompletableFuture<Events> page = new CompletableFuture<>();
+        limiter.submit(new InFlightLimiter.Call() {
+            @Override
+            public void start() {
+                try {
+                    executor.execute(() -> {
+                        try {
+                            page.complete(fetch(calendarID, pageToken));
+                        } catch (RuntimeException e) {
+                            page.completeExceptionally(e);
+                        } finally {
+                            limiter.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    page.completeExceptionally(e);
+                    limiter.release();
+                }
+            }
+
+            @Override
+            public boolean isDone() {
+                return page.isDone();
+            }
+        });
+        return page;
+    }
+
+    private Events fetch(String calendarID, String pageToken) {
+        try {
+            return fetcher.fetch(calendarID, pageToken);
+        } catch (HttpResponseException e) {
+            if (!isInaccessible(e)) {
+                throw new UncheckedIOException(e);
+            }
+            skipped.add(calendarID);
+            Logger.getLogger(AgendaIterator.class.getName()).log(Level.WARNING, String.format(
+                "Skipping calendar %s of the agenda after a %d response.", calendarID, e.getStatusCode()));
+            return new Events();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // a calendar that was deleted or unshared, as opposed to a request rejected for exceeding a rate limit or quota
+    private static boolean isInaccessible(HttpResponseException e) {
+        if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+            return true;
+        }
+        if (e.getStatusCode() != HttpStatusCodes.STATUS_CODE_FORBIDDEN) {
+            return false;
+        }
+        if (e instanceof GoogleJsonResponseException && ((GoogleJsonResponseException) e).getDetails() != null
+            && ((GoogleJsonResponseException) e).getDetails().getErrors() != null) {
+            for (GoogleJsonError.ErrorInfo error : ((GoogleJsonResponseException) e).getDetails().getErrors()) {
+                String reason = error.getReason() == null ? "" : error.getReason().toLowerCase(Locale.ROOT);
+                if (reason.contains("ratelimitexceeded") || reason.contains("quotaexceeded")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** The events of one calendar, positioned on its next event. */
+    private final class Source {
+        private final String calendarID;
+        private Iterator<Event> events;
+        private String pageToken;
+        private Event head;
+
+        Source(String calendarID, Events page) {
+            this.calendarID = calendarID;
+            load(page);
+        }
+
+        Event head() {
+            return head;
+        }
+
+        // moves to the next event, fetching the next page when the current one is exhausted
+        boolean advance() {
+            while (!events.hasNext() && pageToken != null) {
+                load(await(fetchAsync(calendarID, pageToken)));
+            }
+            head = events.hasNext() ? events.next() : null;
+            return head != null;
+        }
+
+        private void load(Events page) {
+            events = page.getItems() == null ? Collections.<Event>emptyIterator() : page.getItems().iterator();
+            pageToken = page.getNextPageToken();
+        }
+    }
+}
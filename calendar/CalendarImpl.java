@@ -1,19 +1,39 @@
 package com.ps.google.calendar;
 
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.calendar.Calendar;
 import com.google.api.services.calendar.model.CalendarList;
+import com.google.api.services.calendar.model.CalendarListEntry;
 import com.google.api.services.calendar.model.Event;
 import com.google.api.services.calendar.model.Events;
 import com.google.api.services.calendar.model.EventDateTime;
+import com.ps.google.AccessTokenManager;
+import com.ps.google.BatchExecutor;
+import com.ps.google.BatchOperation;
+import com.ps.google.BatchResult;
 import com.ps.google.GoogleOauth2Impl;
+import com.ps.google.InFlightLimiter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.Map;
 import java.util.Iterator;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
@@ -21,9 +41,42 @@ import org.json.JSONObject;
  */
 public class CalendarImpl extends GoogleOauth2Impl {
 
+    /** The number of events requested per page when syncing */
+    protected static final int SYNC_PAGE_SIZE = 2500;
+
+    /** The name of the API, used to share rate limits between a user's wrappers */
+    protected static final String API_NAME = "calendar";
+
+    /** The status of cancelled and deleted events */
+    protected static final String CANCELLED = "cancelled";
+
+    /** The status returned when a sync token is no longer valid */
+    private static final int STATUS_CODE_GONE = 410;
+
+    /** The name of the per-user pool limiting agenda fetches */
+    private static final String AGENDA_POOL = "agenda";
+
+    /** The default number of events requested per calendar page when fetching an agenda */
+    protected static final int DEFAULT_AGENDA_PAGE_SIZE = 50;
+
+    /** The maximum number of operations sent in one batch request */
+    protected static final int DEFAULT_BATCH_SIZE = 50;
+
+    /** The default number of batch requests sent at the same time */
+    protected static final int DEFAULT_BATCH_CONCURRENCY = 4;
+
+    /** How far around a window modified instances moved out of it are looked for, in milliseconds */
+    protected static final long MOVED_INSTANCE_MARGIN = TimeUnit.DAYS.toMillis(31);
+
+    /** Expands recurring events locally, caching hot series for all instances */
+    private static final RecurrenceExpander RECURRENCE_EXPANDER = new RecurrenceExpander();
+
     /** The main class used to make API calls to Calendar */
     protected Calendar service;
 
+    /** Index of the user's events kept up to date by this instance, or {@code null} */
+    protected EventIntervalIndex intervalIndex;
+
     /**
      * Default constructor.
      *
@@ -31,7 +84,29 @@ public class CalendarImpl extends GoogleOauth2Impl {
      */
     public CalendarImpl(String token) {
         super(token);
-        service = new Calendar.Builder(httpTransport, jsonFactory, credential).setApplicationName(APP_NAME).build();
+        service = new Calendar.Builder(httpTransport, jsonFactory, requestInitializer(API_NAME)).setApplicationName(APP_NAME).build();
+    }
+
+    /**
+     * Constructor used to take the user's credential from a token manager. Callers use {@link #forUser}.
+     *
+     * @param userId       the ID of the user.
+     * @param tokenManager the manager holding the user's credential.
+     */
+    protected CalendarImpl(String userId, AccessTokenManager tokenManager) {
+        super(userId, tokenManager);
+        service = new Calendar.Builder(httpTransport, jsonFactory, requestInitializer(API_NAME)).setApplicationName(APP_NAME).build();
+    }
+
+    /**
+     * Creates a wrapper taking the user's credential from a token manager.
+     *
+     * @param userId       the ID of the user.
+     * @param tokenManager the manager holding the user's credential.
+     * @return the wrapper.
+     */
+    public static CalendarImpl forUser(String userId, AccessTokenManager tokenManager) {
+        return new CalendarImpl(userId, tokenManager);
     }
 
     /**
@@ -44,6 +119,15 @@ public class CalendarImpl extends GoogleOauth2Impl {
         return service.calendarList().list().execute();
     }
 
+    /**
+     * Asynchronous variant of {@link #getCalendarList()}.
+     *
+     * @return a future completed with the user's list of calendars.
+     */
+    public CompletableFuture<CalendarList> getCalendarListAsync() {
+        return async(this::getCalendarList);
+    }
+
     public Event updateEvent(String calendarId,
                              String event) throws IOException {
 
@@ -61,7 +145,18 @@ public class CalendarImpl extends GoogleOauth2Impl {
         EventDateTime endTime = new EventDateTime().setDateTime(endDateTime);
         content.setEnd(endTime);
         //throw new IOException();
-        return service.events().update(calendarId, eventId, content).execute();
+        return indexed(calendarId, service.events().update(calendarId, eventId, content).execute());
+    }
+
+    /**
+     * Asynchronous variant of {@link #updateEvent(String, String)}.
+     *
+     * @param calendarId the ID of the calendar containing the event.
+     * @param event      the event as a JSON string with {@code id}, {@code title}, {@code start} and {@code end}.
+     * @return a future completed with the updated event.
+     */
+    public CompletableFuture<Event> updateEventAsync(String calendarId, String event) {
+        return async(() -> updateEvent(calendarId, event));
     }
     public void deleteEvent(String calendarId,
                             String event) throws IOException {
@@ -74,12 +169,29 @@ public class CalendarImpl extends GoogleOauth2Impl {
         //throw new IOException();
         try {
         service.events().delete(calendarId, eventId).execute();
+        if (intervalIndex != null) {
+            intervalIndex.remove(calendarId, eventId);
+        }
         } catch (IOException e) {
           Logger.getLogger(CalendarImpl.class.getName()).log(Level.WARNING, e.getMessage());
 
         }
 
     }
+
+    /**
+     * Asynchronous variant of {@link #deleteEvent(String, String)}.
+     *
+     * @param calendarId the ID of the calendar containing the event.
+     * @param event      the event as a JSON string with its {@code id}.
+     * @return a future completed once the event is deleted.
+     */
+    public CompletableFuture<Void> deleteEventAsync(String calendarId, String event) {
+        return async(() -> {
+            deleteEvent(calendarId, event);
+            return null;
+        });
+    }
     public Event createEvent(String calendarId,
                              String event) throws IOException {
    Logger.getLogger(CalendarImpl.class.getName()).log(Level.WARNING, event);
@@ -94,7 +206,290 @@ public class CalendarImpl extends GoogleOauth2Impl {
         EventDateTime end = new EventDateTime().setDateTime(endDateTime);
         content.setEnd(end);
 
-        return service.events().insert(calendarId, content).execute();
+        return indexed(calendarId, service.events().insert(calendarId, content).execute());
+    }
+
+    /**
+     * Asynchronous variant of {@link #createEvent(String, String)}.
+     *
+     * @param calendarId the ID of the calendar in which to create the event.
+     * @param event      the event as a JSON string with {@code title}, {@code start} and {@code end}.
+     * @return a future completed with the created event.
+     */
+    public CompletableFuture<Event> createEventAsync(String calendarId, String event) {
+        return async(() -> createEvent(calendarId, event));
+    }
+
+    /**
+     * Creates many events using batch requests, sent {@link #DEFAULT_BATCH_CONCURRENCY} at a time.
+     *
+     * @param calendarId the ID of the calendar in which to create the events.
+     * @param events     the events as JSON strings with {@code title}, {@code start} and {@code end}.
+     * @return the result for each event, in the order of {@code events} and keyed by its position in them.
+     */
+    public List<BatchResult<Event>> createEvents(String calendarId, List<String> events) {
+        return createEvents(calendarId, events, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Asynchronous variant of {@link #createEvents(String, List)}.
+     *
+     * @param calendarId the ID of the calendar in which to create the events.
+     * @param events     the events as JSON strings with {@code title}, {@code start} and {@code end}.
+     * @return a future completed with the result for each event, in the order of {@code events} and keyed by its
+     *         position in them.
+     */
+    public CompletableFuture<List<BatchResult<Event>>> createEventsAsync(String calendarId, List<String> events) {
+        return async(() -> createEvents(calendarId, events));
+    }
+
+    /**
+     * Creates many events using batch requests.
+     *
+     * @param calendarId the ID of the calendar in which to create the events.
+     * @param events     the events as JSON strings with {@code title}, {@code start} and {@code end}.
+     * @param batchSize  the maximum number of events sent in one batch request.
+     * @return the result for each event, in the order of {@code events} and keyed by its position in them.
+     */
+    public List<BatchResult<Event>> createEvents(String calendarId, List<String> events, int batchSize) {
+        @SuppressWarnings("unchecked")
+        BatchResult<Event>[] results = new BatchResult[events.size()];
+        List<BatchOperation<Event>> operations = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            String key = Integer.toString(i);
+            try {
+                Event content = eventFromJSON(new JSONObject(events.get(i)));
+                operations.add(new BatchOperation<>(key,
+                    (batch, callback) -> service.events().insert(calendarId, content).queue(batch, callback)));
+                positions.add(i);
+            } catch (JSONException | IllegalArgumentException e) {
+                results[i] = BatchResult.failure(key, e);
+            }
+        }
+        return indexed(calendarId, executeBatches(operations, positions, results, batchSize));
+    }
+
+    /**
+     * Asynchronous variant of {@link #createEvents(String, List, int)}.
+     *
+     * @param calendarId the ID of the calendar in which to create the events.
+     * @param events     the events as JSON strings with {@code title}, {@code start} and {@code end}.
+     * @param batchSize  the maximum number of events sent in one batch request.
+     * @return a future completed with the result for each event, in the order of {@code events} and keyed by its
+     *         position in them.
+     */
+    public CompletableFuture<List<BatchResult<Event>>> createEventsAsync(String calendarId, List<String> events,
+                                                                         int batchSize) {
+        return async(() -> createEvents(calendarId, events, batchSize));
+    }
+
+    /**
+     * Updates many events using batch requests, sent {@link #DEFAULT_BATCH_CONCURRENCY} at a time.
+     *
+     * @param calendarId the ID of the calendar containing the events.
+     * @param events     the events as JSON strings with {@code id}, {@code title}, {@code start} and {@code end}.
+     * @return the result for each event, in the order of {@code events} and keyed by its position in them.
+     */
+    public List<BatchResult<Event>> updateEvents(String calendarId, List<String> events) {
+        return updateEvents(calendarId, events, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Asynchronous variant of {@link #updateEvents(String, List)}.
+     *
+     * @param calendarId the ID of the calendar containing the events.
+     * @param events     the events as JSON strings with {@code id}, {@code title}, {@code start} and {@code end}.
+     * @return a future completed with the result for each event, in the order of {@code events} and keyed by its
+     *         position in them.
+     */
+    public CompletableFuture<List<BatchResult<Event>>> updateEventsAsync(String calendarId, List<String> events) {
+        return async(() -> updateEvents(calendarId, events));
+    }
+
+    /**
+     * Updates many events using batch requests.
+     *
+     * @param calendarId the ID of the calendar containing the events.
+     * @param events     the events as JSON strings with {@code id}, {@code title}, {@code start} and {@code end}.
+     * @param batchSize  the maximum number of events sent in one batch request.
+     * @return the result for each event, in the order of {@code events} and keyed by its position in them.
+     */
+    public List<BatchResult<Event>> updateEvents(String calendarId, List<String> events, int batchSize) {
+        @SuppressWarnings("unchecked")
+        BatchResult<Event>[] results = new BatchResult[events.size()];
+        List<BatchOperation<Event>> operations = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            String key = Integer.toString(i);
+            try {
+                JSONObject json = new JSONObject(events.get(i));
+                String eventId = json.getString("id");
+                Event content = eventFromJSON(json);
+                operations.add(new BatchOperation<>(key,
+                    (batch, callback) -> service.events().update(calendarId, eventId, content).queue(batch, callback)));
+                positions.add(i);
+            } catch (JSONException | IllegalArgumentException e) {
+                results[i] = BatchResult.failure(key, e);
+            }
+        }
+        return indexed(calendarId, executeBatches(operations, positions, results, batchSize));
+    }
+
+    /**
+     * Asynchronous variant of {@link #updateEvents(String, List, int)}.
+     *
+     * @param calendarId the ID of the calendar containing the events.
+     * @param events     the events as JSON strings with {@code id}, {@code title}, {@code start} and {@code end}.
+     * @param batchSize  the maximum number of events sent in one batch request.
+     * @return a future completed with the result for each event, in the order of {@code events} and keyed by its
+     *         position in them.
+     */
+    public CompletableFuture<List<BatchResult<Event>>> updateEventsAsync(String calendarId, List<String> events,
+                                                                         int batchSize) {
+        return async(() -> updateEvents(calendarId, events, batchSize));
+    }
+
+    /**
+     * Deletes many events using batch requests, sent {@link #DEFAULT_BATCH_CONCURRENCY} at a time.
+     *
+     * @param calendarId the ID of the calendar containing the events.
+     * @param eventIds   the IDs of the events to delete.
+     * @return the result for each event, keyed by event ID.
+     */
+    public List<BatchResult<Void>> deleteEvents(String calendarId, List<String> eventIds) {
+        return deleteEvents(calendarId, eventIds, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Asynchronous variant of {@link #deleteEvents(String, List)}.
+     *
+     * @param calendarId the ID of the calendar containing the events.
+     * @param eventIds   the IDs of the events to delete.
+     * @return a future completed with the result for each event, keyed by event ID.
+     */
+    public CompletableFuture<List<BatchResult<Void>>> deleteEventsAsync(String calendarId, List<String> eventIds) {
+        return async(() -> deleteEvents(calendarId, eventIds));
+    }
+
+    /**
+     * Deletes many events using batch requests. Unlike {@link #deleteEvent(String, String)}, failures are reported
+     * in the results rather than logged.
+     *
+     * @param calendarId the ID of the calendar containing the events.
+     * @param eventIds   the IDs of the events to delete.
+     * @param batchSize  the maximum number of events sent in one batch request.
+     * @return the result for each event, keyed by event ID.
+     */
+    public List<BatchResult<Void>> deleteEvents(String calendarId, List<String> eventIds, int batchSize) {
+        List<BatchOperation<Void>> operations = new ArrayList<>();
+        for (String eventId : eventIds) {
+            operations.add(new BatchOperation<>(eventId,
+                (batch, callback) -> service.events().delete(calendarId, eventId).queue(batch, callback)));
+        }
+        List<BatchResult<Void>> results = new BatchExecutor(service::batch, batchSize, getSharedExecutor(),
+            DEFAULT_BATCH_CONCURRENCY).execute(operations);
+        if (intervalIndex != null) {
+            for (BatchResult<Void> result : results) {
+                if (result.isSuccess()) {
+                    intervalIndex.remove(calendarId, result.getKey());
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Asynchronous variant of {@link #deleteEvents(String, List, int)}.
+     *
+     * @param calendarId the ID of the calendar containing the events.
+     * @param eventIds   the IDs of the events to delete.
+     * @param batchSize  the maximum number of events sent in one batch request.
+     * @return a future completed with the result for each event, keyed by event ID.
+     */
+    public CompletableFuture<List<BatchResult<Void>>> deleteEventsAsync(String calendarId, List<String> eventIds,
+                                                                        int batchSize) {
+        return async(() -> deleteEvents(calendarId, eventIds, batchSize));
+    }
+
+    // sends the operations and puts their results at their positions among the entries rejected before sending
+    private <T> List<BatchResult<T>> executeBatches(List<BatchOperation<T>> operations, List<Integer> positions,
+                                                    BatchResult<T>[] results, int batchSize) {
+        List<BatchResult<T>> sent = new BatchExecutor(service::batch, batchSize, getSharedExecutor(),
+            DEFAULT_BATCH_CONCURRENCY).execute(operations);
+        for (int i = 0; i < sent.size(); i++) {
+            results[positions.get(i)] = sent.get(i);
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * Sets the index kept up to date with the events fetched, created, updated and deleted through this instance.
+     * The index should be shared by all instances of the same user.
+     *
+     * @param intervalIndex the index of the user's events, or {@code null} to stop updating it.
+     */
+    public void setIntervalIndex(EventIntervalIndex intervalIndex) {
+        this.intervalIndex = intervalIndex;
+    }
+
+    /**
+     * Fetches the single events of every calendar of the user within a window into the interval index.
+     *
+     * @param max the max time (exclusive) of events to index.
+     * @param min the min time (exclusive) of events to index.
+     * @throws IOException
+     */
+    public void indexEvents(DateTime max, DateTime min) throws IOException {
+        if (intervalIndex == null) {
+            throw new IllegalStateException("No interval index set.");
+        }
+        CalendarList calendars = getCalendarList();
+        if (calendars.getItems() != null) {
+            for (CalendarListEntry calendar : calendars.getItems()) {
+                getEvents(calendar.getId(), max, min, true);
+            }
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #indexEvents(DateTime, DateTime)}.
+     *
+     * @param max the max time (exclusive) of events to index.
+     * @param min the min time (exclusive) of events to index.
+     * @return a future completed once every event is indexed.
+     */
+    public CompletableFuture<Void> indexEventsAsync(DateTime max, DateTime min) {
+        return async(() -> {
+            indexEvents(max, min);
+            return null;
+        });
+    }
+
+    private Event indexed(String calendarId, Event event) {
+        if (intervalIndex != null) {
+            intervalIndex.put(calendarId, event);
+        }
+        return event;
+    }
+
+    private List<BatchResult<Event>> indexed(String calendarId, List<BatchResult<Event>> results) {
+        if (intervalIndex != null) {
+            for (BatchResult<Event> result : results) {
+                if (result.isSuccess()) {
+                    intervalIndex.put(calendarId, result.getValue());
+                }
+            }
+        }
+        return results;
+    }
+
+    // builds the event content from its JSON form, as used by createEvent and updateEvent
+    private static Event eventFromJSON(JSONObject json) {
+        Event content = new Event().setSummary(json.getString("title"));
+        content.setStart(new EventDateTime().setDateTime(new DateTime(json.getString("start"))));
+        content.setEnd(new EventDateTime().setDateTime(new DateTime(json.getString("end"))));
+        return content;
     }
 
     /**
@@ -122,7 +517,331 @@ public class CalendarImpl extends GoogleOauth2Impl {
      * @throws IOException
      */
     public Events getEvents(String calendarID, DateTime max, DateTime min, boolean singleEvents) throws IOException {
-        return service.events().list(calendarID).setTimeMax(max).setTimeMin(min).setSingleEvents(singleEvents).execute();
+        Events events = service.events().list(calendarID).setTimeMax(max).setTimeMin(min).setSingleEvents(singleEvents).execute();
+        String pageToken = events.getNextPageToken();
+        while (pageToken != null) {
+            Events page = service.events().list(calendarID).setTimeMax(max).setTimeMin(min).setSingleEvents(singleEvents)
+                .setPageToken(pageToken).execute();
+            if (page.getItems() != null) {
+                if (events.getItems() == null) {
+                    events.setItems(new ArrayList<>());
+                }
+                events.getItems().addAll(page.getItems());
+            }
+            pageToken = page.getNextPageToken();
+        }
+        events.setNextPageToken(null);
+        if (intervalIndex != null && singleEvents) {
+            intervalIndex.putAll(calendarID, events.getItems());
+        }
+        return events;
+    }
+
+    /**
+     * Asynchronous variant of {@link #getEvents(String, DateTime, DateTime, boolean)}.
+     *
+     * @param calendarID   the ID of the calendar from which to retrieve events.
+     * @param max          the max time (exclusive) of events to search for.
+     * @param min          the min time (exclusive) of events to search for.
+     * @param singleEvents true to expand recurring events into instances and only return single one-off events and
+     *                     instances of recurring events, but not the underlying recurring events themselves, false otherwise.
+     * @return a future completed with an {@link com.google.api.services.calendar.model.Events} list of events.
+     */
+    public CompletableFuture<Events> getEventsAsync(String calendarID, DateTime max, DateTime min,
+                                                    boolean singleEvents) {
+        return async(() -> getEvents(calendarID, max, min, singleEvents));
+    }
+
+    /**
+     * Asynchronous variant of {@link #getEvents(String, DateTime, DateTime)}.
+     *
+     * @param calendarID the ID of the calendar from which to retrieve events.
+     * @param max        the max time (exclusive) of events to search for.
+     * @param min        the min time (exclusive) of events to search for.
+     * @return a future completed with the events.
+     */
+    public CompletableFuture<Events> getEventsAsync(String calendarID, DateTime max, DateTime min) {
+        return async(() -> getEvents(calendarID, max, min));
+    }
+
+    /**
+     * Used to retrieve a user's events in a specified calendar, expanding recurring events locally. Recurring events
+     * are fetched once rather than as one instance per occurrence, then expanded for the requested window, with
+     * modified and cancelled instances applied. Modified instances are matched to the instance they replace by their
+     * original start, with one more listing of only those fields when the window holds recurring events. Series using
+     * recurrence rules that cannot be expanded locally are expanded by the server instead.
+     * <p>
+     * Unlike {@link #getEvents(String, DateTime, DateTime, boolean)}, both bounds are required, since a series may
+     * have no end.
+     *
+     * @param calendarID the ID of the calendar from which to retrieve events.
+     * @param max        the max time (exclusive) of events to search for.
+     * @param min        the min time (exclusive) of events to search for.
+     * @return the single events and instances of recurring events, ordered by start time.
+     * @throws IOException
+     * @throws IllegalArgumentException if a bound is {@code null}.
+     */
+    public List<Event> getExpandedEvents(String calendarID, DateTime max, DateTime min) throws IOException {
+        if (max == null || min == null) {
+            throw new IllegalArgumentException("Expanding recurring events needs both a min and a max time.");
+        }
+        Events events = getEvents(calendarID, max, min, false);
+        List<Event> items = events.getItems() == null ? new ArrayList<>() : events.getItems();
+
+        // modified and cancelled instances, replacing the instances generated for their original start
+        Set<String> exceptions = null;
+        List<Event> expanded = new ArrayList<>();
+        for (Event event : items) {
+            if (CANCELLED.equals(event.getStatus())) {
+                continue;
+            }
+            if (event.getRecurrence() == null || event.getRecurrence().isEmpty()) {
+                expanded.add(event);
+                continue;
+            }
+            if (exceptions == null) {
+                exceptions = getExceptions(calendarID, max, min);
+            }
+            try {
+                List<Event> series = new ArrayList<>();
+                Iterator<Event> instances = RECURRENCE_EXPANDER.expand(event, min.getValue(), max.getValue());
+                while (instances.hasNext()) {
+                    Event instance = instances.next();
+                    if (!exceptions.contains(RecurrenceExpander.instanceKey(event.getId(), instance.getOriginalStartTime()))) {
+                        series.add(instance);
+                    }
+                }
+                expanded.addAll(series);
+            } catch (RecurrenceException e) {
+                Logger.getLogger(CalendarImpl.class.getName())
+                    .log(Level.WARNING, "Expanding " + event.getId() + " on the server: " + e.getMessage());
+                // the modified instances were already added from the listing, so only the regular ones are kept
+                for (Event instance : getInstances(calendarID, event.getId(), max, min)) {
+                    if (!exceptions.contains(RecurrenceExpander.instanceKey(event.getId(), instance.getOriginalStartTime()))) {
+                        expanded.add(instance);
+                    }
+                }
+            }
+        }
+        expanded.sort(AgendaIterator.BY_START);
+        return expanded;
+    }
+
+    /**
+     * Asynchronous variant of {@link #getExpandedEvents(String, DateTime, DateTime)}.
+     *
+     * @param calendarID the ID of the calendar from which to retrieve events.
+     * @param max        the max time (exclusive) of events to search for.
+     * @param min        the min time (exclusive) of events to search for.
+     * @return a future completed with the single events and instances of recurring events, ordered by start time.
+     */
+    public CompletableFuture<List<Event>> getExpandedEventsAsync(String calendarID, DateTime max, DateTime min) {
+        return async(() -> getExpandedEvents(calendarID, max, min));
+    }
+
+    /**
+     * Returns the keys of the modified and cancelled instances of a calendar's recurring events, as built by
+     * {@link RecurrenceExpander#instanceKey(String, EventDateTime)}. An instance moved out of a window is not listed
+     * with the window, so instances are looked for up to {@link #MOVED_INSTANCE_MARGIN} around it, fetching only the
+     * fields needed to match them.
+     *
+     * @param calendarID the ID of the calendar.
+     * @param max        the max time (exclusive) of the window.
+     * @param min        the min time (exclusive) of the window.
+     * @return the keys of the modified and cancelled instances.
+     * @throws IOException
+     */
+    protected Set<String> getExceptions(String calendarID, DateTime max, DateTime min) throws IOException {
+        Set<String> exceptions = new HashSet<>();
+        DateTime from = new DateTime(min.getValue() - MOVED_INSTANCE_MARGIN);
+        DateTime to = new DateTime(max.getValue() + MOVED_INSTANCE_MARGIN);
+        String pageToken = null;
+        do {
+            Events page = service.events().list(calendarID).setTimeMax(to).setTimeMin(from).setSingleEvents(false)
+                .setFields("items(recurringEventId,originalStartTime),nextPageToken").setPageToken(pageToken).execute();
+            if (page.getItems() != null) {
+                for (Event event : page.getItems()) {
+                    if (event.getRecurringEventId() != null && event.getOriginalStartTime() != null) {
+                        exceptions.add(RecurrenceExpander.instanceKey(event.getRecurringEventId(),
+                            event.getOriginalStartTime()));
+                    }
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return exceptions;
+    }
+
+    /**
+     * Used to retrieve the instances of a recurring event as expanded by the server.
+     *
+     * @param calendarID the ID of the calendar containing the event.
+     * @param eventID    the ID of the recurring event.
+     * @param max        the max time (exclusive) of instances to search for.
+     * @param min        the min time (exclusive) of instances to search for.
+     * @return the instances of the recurring event, without cancelled ones.
+     * @throws IOException
+     */
+    public List<Event> getInstances(String calendarID, String eventID, DateTime max, DateTime min) throws IOException {
+        List<Event> instances = new ArrayList<>();
+        String pageToken = null;
+        do {
+            Events page = service.events().instances(calendarID, eventID)
+                .setTimeMax(max).setTimeMin(min).setPageToken(pageToken).execute();
+            if (page.getItems() != null) {
+                for (Event instance : page.getItems()) {
+                    if (!CANCELLED.equals(instance.getStatus())) {
+                        instances.add(instance);
+                    }
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return instances;
+    }
+
+    /**
+     * Asynchronous variant of {@link #getInstances(String, String, DateTime, DateTime)}.
+     *
+     * @param calendarID the ID of the calendar containing the event.
+     * @param eventID    the ID of the recurring event.
+     * @param max        the max time (exclusive) of instances to search for.
+     * @param min        the min time (exclusive) of instances to search for.
+     * @return a future completed with the instances of the recurring event, without cancelled ones.
+     */
+    public CompletableFuture<List<Event>> getInstancesAsync(String calendarID, String eventID, DateTime max,
+                                                            DateTime min) {
+        return async(() -> getInstances(calendarID, eventID, max, min));
+    }
+
+    /**
+     * Used to retrieve a user's events across all of their calendars as a single stream ordered by start time.
+     * Recurring events are expanded into instances.
+     *
+     * @param max the max time (exclusive) of events to search for.
+     * @param min the min time (exclusive) of events to search for.
+     * @return a lazily merged stream of events; use {@link Stream#limit(long)} to stop once enough events were read.
+     * @throws IOException
+     */
+    public Stream<Event> getAgenda(DateTime max, DateTime min) throws IOException {
+        return getAgenda(max, min, DEFAULT_AGENDA_PAGE_SIZE);
+    }
+
+    /**
+     * Used to retrieve a user's events across all of their calendars as a single stream ordered by start time. The
+     * first page of every calendar is requested concurrently; further pages are only requested as the stream is read.
+     * Pages are fetched within the agenda limit shared by all the agendas of the user, {@link #DEFAULT_MAX_IN_FLIGHT}
+     * requests, which is separate from the limit of {@link #async} calls, so an agenda can be read inside one.
+     * Calendars the user can no longer read are skipped with a warning.
+     *
+     * @param max      the max time (exclusive) of events to search for.
+     * @param min      the min time (exclusive) of events to search for.
+     * @param pageSize the number of events requested per page of each calendar.
+     * @return a lazily merged stream of events.
+     * @throws IOException
+     */
+    public Stream<Event> getAgenda(DateTime max, DateTime min, int pageSize) throws IOException {
+        List<String> calendarIDs = new ArrayList<>();
+        String pageToken = null;
+        do {
+            CalendarList calendars = service.calendarList().list().setPageToken(pageToken).execute();
+            if (calendars.getItems() != null) {
+                for (CalendarListEntry calendar : calendars.getItems()) {
+                    calendarIDs.add(calendar.getId());
+                }
+            }
+            pageToken = calendars.getNextPageToken();
+        } while (pageToken != null);
+
+        AgendaIterator agenda = new AgendaIterator(calendarIDs, (calendarID, token) -> service.events().list(calendarID)
+            .setTimeMax(max)
+            .setTimeMin(min)
+            .setSingleEvents(true)
+            .setOrderBy("startTime")
+            .setMaxResults(pageSize)
+            .setPageToken(token)
+            .execute(), InFlightLimiter.forUser(userKey, AGENDA_POOL), getSharedExecutor());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(agenda, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Brings a local event store up to date. The first sync fetches every event of the calendar; later syncs only
+     * fetch the events changed since the store's sync token and apply them to the store. If the server rejects the
+     * sync token with {@code 410 Gone}, the store is rebuilt with a full sync.
+     *
+     * @param calendarID the ID of the calendar to sync.
+     * @param store      the store holding the calendar's events.
+     * @return the IDs of the events changed and cancelled by this sync.
+     * @throws IOException
+     */
+    public EventSyncResult syncEvents(String calendarID, EventStore store) throws IOException {
+        String syncToken = store.getSyncToken();
+        if (syncToken != null) {
+            try {
+                return fetchChanges(calendarID, store, syncToken);
+            } catch (HttpResponseException e) {
+                if (e.getStatusCode() != STATUS_CODE_GONE) {
+                    throw e;
+                }
+                Logger.getLogger(CalendarImpl.class.getName())
+                    .log(Level.WARNING, "Sync token expired for " + calendarID + ", doing a full sync.");
+            }
+        }
+        store.clear();
+        if (intervalIndex != null) {
+            intervalIndex.removeCalendar(calendarID);
+        }
+        return fetchChanges(calendarID, store, null);
+    }
+
+    /**
+     * Asynchronous variant of {@link #syncEvents(String, EventStore)}.
+     *
+     * @param calendarID the ID of the calendar to sync.
+     * @param store      the store holding the calendar's events.
+     * @return a future completed with the IDs of the events changed and cancelled by this sync.
+     */
+    public CompletableFuture<EventSyncResult> syncEventsAsync(String calendarID, EventStore store) {
+        return async(() -> syncEvents(calendarID, store));
+    }
+
+    /**
+     * Fetches every page of changes since the sync token, or every event if the token is {@code null}, and applies
+     * them to the store.
+     */
+    private EventSyncResult fetchChanges(String calendarID, EventStore store, String syncToken) throws IOException {
+        Set<String> changed = new LinkedHashSet<>();
+        Set<String> cancelled = new LinkedHashSet<>();
+        String pageToken = null;
+        Events page;
+        do {
+            page = service.events().list(calendarID)
+                .setSingleEvents(store.isSingleEvents())
+                .setMaxResults(SYNC_PAGE_SIZE)
+                .setSyncToken(syncToken)
+                .setPageToken(pageToken)
+                .execute();
+            if (page.getItems() != null) {
+                for (Event event : page.getItems()) {
+                    if (CANCELLED.equals(event.getStatus())) {
+                        store.remove(event.getId());
+                        if (intervalIndex != null) {
+                            intervalIndex.remove(calendarID, event.getId());
+                        }
+                        cancelled.add(event.getId());
+                    } else {
+                        store.put(event);
+                        if (intervalIndex != null && store.isSingleEvents()) {
+                            intervalIndex.put(calendarID, event);
+                        }
+                        changed.add(event.getId());
+                    }
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        store.setSyncToken(page.getNextSyncToken());
+        return new EventSyncResult(syncToken == null, changed, cancelled);
     }
 
     /**
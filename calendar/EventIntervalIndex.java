@@ -0,0 +1,383 @@
+package com.ps.google.calendar;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of a user's events across all of their calendars, answering overlap and free/busy queries locally.
+ * <p>
+ * Events are stored in an interval tree: an AVL tree ordered by start time where every node also records the latest
+ * end time in its subtree. Inserts and removals take logarithmic time, and an overlap query takes logarithmic time plus
+ * the number of events returned. Intervals are half-open, so back-to-back events do not overlap.
+ * <p>
+ * The index only holds single events and instances of recurring events; recurring events themselves must be expanded
+ * before being added. Events marked as transparent ("show as available") are returned by overlap queries but do not
+ * count as busy time.
+ */
+public class EventIntervalIndex {
+
+    /** The transparency of events which do not block time */
+    private static final String TRANSPARENT = "transparent";
+
+    /** A time interval, in milliseconds since the epoch. */
+    public static final class Interval {
+        private final long start;
+        private final long end;
+
+        /**
+         * @param start the start of the interval (inclusive).
+         * @param end   the end of the interval (exclusive).
+         */
+        public Interval(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the start of the interval (inclusive).
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the end of the interval (exclusive).
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s, %s)", new DateTime(start), new DateTime(end));
+        }
+    }
+
+    private static final class Node {
+        final long start;
+        final long end;
+        final String key;
+        final Event event;
+        long maxEnd;
+        int height = 1;
+        Node left;
+        Node right;
+
+        Node(long start, long end, String key, Event event) {
+            this.start = start;
+            this.end = end;
+            this.key = key;
+            this.event = event;
+            this.maxEnd = end;
+        }
+    }
+
+    private Node root;
+    private final Map<String, Node> byKey = new HashMap<>();
+
+    /**
+     * Adds an event, replacing any previous version of it. Cancelled events and events without a start or end are
+     * removed instead.
+     *
+     * @param calendarID the ID of the calendar containing the event.
+     * @param event      the event.
+     */
+    public synchronized void put(String calendarID, Event event) {
+        String key = key(calendarID, event.getId());
+        removeKey(key);
+        long start = millis(event.getStart());
+        long end = millis(event.getEnd());
+        if (CalendarImpl.CANCELLED.equals(event.getStatus()) || start == Long.MIN_VALUE || end == Long.MIN_VALUE) {
+            return;
+        }
+        Node node = new Node(start, Math.max(start, end), key, event);
+        root = insert(root, node);
+        byKey.put(key, node);
+    }
+
+    /**
+     * Adds all events of a calendar.
+     *
+     * @param calendarID the ID of the calendar containing the events.
+     * @param events     the events.
+     */
+    public synchronized void putAll(String calendarID, List<Event> events) {
+        if (events != null) {
+            for (Event event : events) {
+                put(calendarID, event);
+            }
+        }
+    }
+
+    /**
+     * Removes an event.
+     *
+     * @param calendarID the ID of the calendar containing the event.
+     * @param eventID    the ID of the event.
+     * @return {@code true} if the event was indexed, {@code false} otherwise.
+     */
+    public synchronized boolean remove(String calendarID, String eventID) {
+        return removeKey(key(calendarID, eventID));
+    }
+
+    /**
+     * Removes every event of a calendar, for example before it is fully resynced.
+     *
+     * @param calendarID the ID of the calendar.
+     */
+    public synchronized void removeCalendar(String calendarID) {
+        String prefix = key(calendarID, "");
+        for (String key : new ArrayList<>(byKey.keySet())) {
+            if (key.startsWith(prefix)) {
+                removeKey(key);
+            }
+        }
+    }
+
+    /**
+     * Removes every event.
+     */
+    public synchronized void clear() {
+        root = null;
+        byKey.clear();
+    }
+
+    /**
+     * @return the number of indexed events.
+     */
+    public synchronized int size() {
+        return byKey.size();
+    }
+
+    /**
+     * Returns the events overlapping a time slot, ordered by start time.
+     *
+     * @param start the start of the slot (inclusive), in milliseconds.
+     * @param end   the end of the slot (exclusive), in milliseconds.
+     * @return the overlapping events.
+     */
+    public synchronized List<Event> overlapping(long start, long end) {
+        List<Node> nodes = new ArrayList<>();
+        collect(root, start, end, nodes);
+        List<Event> events = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            events.add(node.event);
+        }
+        return events;
+    }
+
+    /**
+     * Returns the busy time within a window: the merged intervals of all non-transparent events overlapping it,
+     * clipped to the window.
+     *
+     * @param start the start of the window (inclusive), in milliseconds.
+     * @param end   the end of the window (exclusive), in milliseconds.
+     * @return the busy intervals, ordered and non-overlapping.
+     */
+    public synchronized List<Interval> busy(long start, long end) {
+        List<Node> nodes = new ArrayList<>();
+        collect(root, start, end, nodes);
+        List<Interval> busy = new ArrayList<>();
+        long busyStart = 0;
+        long busyEnd = Long.MIN_VALUE;
+        for (Node node : nodes) {
+            if (TRANSPARENT.equals(node.event.getTransparency())) {
+                continue;
+            }
+            long nodeStart = Math.max(node.start, start);
+            long nodeEnd = Math.min(node.end, end);
+            if (nodeStart > busyEnd) {
+                if (busyEnd != Long.MIN_VALUE) {
+                    busy.add(new Interval(busyStart, busyEnd));
+                }
+                busyStart = nodeStart;
+                busyEnd = nodeEnd;
+            } else {
+                busyEnd = Math.max(busyEnd, nodeEnd);
+            }
+        }
+        if (busyEnd != Long.MIN_VALUE) {
+            busy.add(new Interval(busyStart, busyEnd));
+        }
+        return busy;
+    }
+
+    /**
+     * Returns the free slots within a window that are at least a minimum duration long.
+     *
+     * @param start       the start of the window (inclusive), in milliseconds.
+     * @param end         the end of the window (exclusive), in milliseconds.
+     * @param minDuration the minimum length of a slot, in milliseconds.
+     * @return the free slots, ordered.
+     */
+    public synchronized List<Interval> free(long start, long end, long minDuration) {
+        List<Interval> free = new ArrayList<>();
+        long cursor = start;
+        for (Interval busy : busy(start, end)) {
+            if (busy.getStart() - cursor >= minDuration && busy.getStart() > cursor) {
+                free.add(new Interval(cursor, busy.getStart()));
+            }
+            cursor = Math.max(cursor, busy.getEnd());
+        }
+        if (end - cursor >= minDuration && end > cursor) {
+            free.add(new Interval(cursor, end));
+        }
+        return free;
+    }
+
+    /**
+     * Returns whether a time slot is free of non-transparent events.
+     *
+     * @param start the start of the slot (inclusive), in milliseconds.
+     * @param end   the end of the slot (exclusive), in milliseconds.
+     * @return {@code true} if nothing blocks the slot, {@code false} otherwise.
+     */
+    public synchronized boolean isFree(long start, long end) {
+        return busy(start, end).isEmpty();
+    }
+
+    private static String key(String calendarID, String eventID) {
+        return calendarID + "/" + eventID;
+    }
+
+    // returns the time of an event boundary, using the date of all-day events
+    private static long millis(EventDateTime time) {
+        if (time == null) {
+            return Long.MIN_VALUE;
+        }
+        DateTime value = time.getDateTime() != null ? time.getDateTime() : time.getDate();
+        return value == null ? Long.MIN_VALUE : value.getValue();
+    }
+
+    private boolean removeKey(String key) {
+        Node node = byKey.remove(key);
+        if (node == null) {
+            return false;
+        }
+        root = delete(root, node.start, key);
+        return true;
+    }
+
+    // in-order walk of the nodes overlapping [start, end), pruning subtrees that end before the slot
+    private static void collect(Node node, long start, long end, List<Node> out) {
+        if (node == null || node.maxEnd <= start) {
+            return;
+        }
+        collect(node.left, start, end, out);
+        if (node.start < end) {
+            if (node.end > start) {
+                out.add(node);
+            }
+            collect(node.right, start, end, out);
+        }
+    }
+
+    private static int compare(long start, String key, Node node) {
+        int c = Long.compare(start, node.start);
+        return c != 0 ? c : key.compareTo(node.key);
+    }
+
+    private static Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (compare(added.start, added.key, node) < 0) {
+            node.left = insert(node.left, added);
+        } else {
+            node.right = insert(node.right, added);
+        }
+        return balance(node);
+    }
+
+    private static Node delete(Node node, long start, String key) {
+        if (node == null) {
+            return null;
+        }
+        int c = compare(start, key, node);
+        if (c < 0) {
+            node.left = delete(node.left, start, key);
+        } else if (c > 0) {
+            node.right = delete(node.right, start, key);
+        } else {
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+            Node successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = deleteMin(node.right);
+            successor.left = node.left;
+            return balance(successor);
+        }
+        return balance(node);
+    }
+
+    private static Node deleteMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = deleteMin(node.left);
+        return balance(node);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void update(Node node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.maxEnd = node.end;
+        if (node.left != null) {
+            node.maxEnd = Math.max(node.maxEnd, node.left.maxEnd);
+        }
+        if (node.right != null) {
+            node.maxEnd = Math.max(node.maxEnd, node.right.maxEnd);
+        }
+    }
+
+    private static Node balance(Node node) {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+}
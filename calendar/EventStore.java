@@ -0,0 +1,107 @@
+package com.ps.google.calendar;
+
+import com.google.api.services.calendar.model.Event;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local copy of the events of one calendar kept up to date by
+ * {@link CalendarImpl#syncEvents(String, EventStore)}.
+ * <p>
+ * Events are keyed by event ID, together with the sync token returned by the last successful sync so the next sync
+ * only needs to fetch what changed since then.
+ */
+public class EventStore {
+
+    private final boolean singleEvents;
+    private final Map<String, Event> events = new LinkedHashMap<>();
+    private String syncToken;
+
+    /**
+     * Creates a store holding single events and instances of recurring events.
+     */
+    public EventStore() {
+        this(true);
+    }
+
+    /**
+     * @param singleEvents true to store recurring events expanded into instances, false to store the recurring events
+     *                     themselves. A sync token only applies to the expansion mode it was obtained with.
+     */
+    public EventStore(boolean singleEvents) {
+        this.singleEvents = singleEvents;
+    }
+
+    /**
+     * @return true if recurring events are stored expanded into instances, false otherwise.
+     */
+    public boolean isSingleEvents() {
+        return singleEvents;
+    }
+
+    /**
+     * @return the token of the last successful sync, or {@code null} if the store was never synced.
+     */
+    public synchronized String getSyncToken() {
+        return syncToken;
+    }
+
+    /**
+     * @param syncToken the token of the last successful sync.
+     */
+    public synchronized void setSyncToken(String syncToken) {
+        this.syncToken = syncToken;
+    }
+
+    /**
+     * Adds or replaces an event.
+     *
+     * @param event the event.
+     */
+    public synchronized void put(Event event) {
+        events.put(event.getId(), event);
+    }
+
+    /**
+     * Removes an event.
+     *
+     * @param eventId the ID of the event.
+     * @return {@code true} if the event was stored, {@code false} otherwise.
+     */
+    public synchronized boolean remove(String eventId) {
+        return events.remove(eventId) != null;
+    }
+
+    /**
+     * @param eventId the ID of the event.
+     * @return the event, or {@code null} if it is not stored.
+     */
+    public synchronized Event get(String eventId) {
+        return events.get(eventId);
+    }
+
+    /**
+     * @return the number of stored events.
+     */
+    public synchronized int size() {
+        return events.size();
+    }
+
+    /**
+     * Removes every event and the sync token, so the next sync is a full one.
+     */
+    public synchronized void clear() {
+        events.clear();
+        syncToken = null;
+    }
+
+    /**
+     * @return a snapshot of the stored events.
+     */
+    public synchronized List<Event> getEvents() {
+        return new ArrayList<>(events.values());
+    }
+}
@@ -0,0 +1,53 @@
+package com.ps.google.calendar;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Outcome of an event sync: which events changed and which were cancelled since the previous sync.
+ */
+public class EventSyncResult {
+
+    private final boolean fullSync;
+    private final Set<String> changed;
+    private final Set<String> cancelled;
+
+    /**
+     * @param fullSync  {@code true} if every event was fetched instead of only the changes.
+     * @param changed   IDs of the events added or updated.
+     * @param cancelled IDs of the events cancelled or deleted.
+     */
+    public EventSyncResult(boolean fullSync, Set<String> changed, Set<String> cancelled) {
+        this.fullSync = fullSync;
+        this.changed = Collections.unmodifiableSet(changed);
+        this.cancelled = Collections.unmodifiableSet(cancelled);
+    }
+
+    /**
+     * @return {@code true} if every event was fetched, in which case consumers should rebuild rather than apply the
+     * changes in place.
+     */
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+    /**
+     * @return IDs of the events added or updated.
+     */
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return IDs of the events cancelled or deleted.
+     */
+    public Set<String> getCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EventSyncResult{fullSync=%s, changed=%d, cancelled=%d}",
+            fullSync, changed.size(), cancelled.size());
+    }
+}
@@ -0,0 +1,23 @@
+package com.ps.google.calendar;
+
+/**
+ * Thrown when the recurrence of an event is malformed or uses features {@link RecurrenceExpander} does not support, so
+ * the event has to be expanded by the server instead.
+ */
+public class RecurrenceException extends Exception {
+
+    /**
+     * @param message the reason the recurrence cannot be expanded.
+     */
+    public RecurrenceException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message the reason the recurrence cannot be expanded.
+     * @param cause   the error raised while parsing the recurrence.
+     */
+    public RecurrenceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
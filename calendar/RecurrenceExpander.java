@@ -0,0 +1,598 @@
+package com.ps.google.calendar;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expands recurring events into their instances locally, so that a recurring series can be fetched once with
+ * {@code singleEvents=false} instead of the server returning every instance.
+ * <p>
+ * Supports the {@code RRULE} parts used by Google Calendar ({@code FREQ} of DAILY, WEEKLY, MONTHLY or YEARLY,
+ * {@code INTERVAL}, {@code COUNT}, {@code UNTIL}, {@code BYDAY}, {@code BYMONTHDAY}, {@code BYMONTH} and {@code WKST})
+ * along with {@code EXDATE} and {@code RDATE}. Malformed recurrences and those using other parts throw
+ * {@link RecurrenceException} so the caller can fall back to server-side expansion.
+ * <p>
+ * The instance start times of a series are computed up to a year past the requested window and cached per series
+ * version, so hot series are only expanded again when they change or a window goes past what was computed. Events are
+ * only built for the instances read. Modified and cancelled instances are not applied here; see
+ * {@link CalendarImpl#getExpandedEvents(String, DateTime, DateTime)}.
+ */
+public class RecurrenceExpander {
+
+    /** The default number of expanded series kept in the cache */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /** How far past the requested window a series is expanded, so following windows are served from the cache */
+    protected static final long LOOKAHEAD = TimeUnit.DAYS.toMillis(366);
+
+    /** The maximum number of instances computed for a series before it is left to the server */
+    protected static final int MAX_INSTANCES = 100000;
+
+    /** Periods generated in a row without any candidate before the rule is considered empty */
+    private static final int MAX_EMPTY_PERIODS = 1000;
+
+    private static final DateTimeFormatter UTC_ID_FORMAT =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE_ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter LOCAL_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final List<Integer> ALL_MONTHS = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12);
+
+    /** The start times of the instances of a series, computed up to a horizon. */
+    private static final class Expansion {
+        final long[] starts;
+        final long horizon;
+
+        Expansion(long[] starts, long horizon) {
+            this.starts = starts;
+            this.horizon = horizon;
+        }
+    }
+
+    private final Map<String, Expansion> cache;
+
+    /**
+     * Creates an expander with a cache of {@link #DEFAULT_CACHE_SIZE} series.
+     */
+    public RecurrenceExpander() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the maximum number of expanded series kept in the cache.
+     */
+    public RecurrenceExpander(int cacheSize) {
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, Expansion>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expansion> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * Expands a recurring event into its instances overlapping a window.
+     *
+     * @param master      the recurring event, with its {@code recurrence} lines.
+     * @param windowStart the start of the window (inclusive), in milliseconds.
+     * @param windowEnd   the end of the window (exclusive), in milliseconds.
+     * @return the instances, ordered by start time and built as they are read.
+     * @throws RecurrenceException if the recurrence is malformed or uses rule parts this class does not support.
+     */
+    public Iterator<Event> expand(Event master, long windowStart, long windowEnd) throws RecurrenceException {
+        Series series = new Series(master);
+        // the ETag changes with the series, so a cached expansion is valid for as long as it covers the window
+        String key = master.getId() + "|" + master.getEtag();
+        Expansion expansion = cache.get(key);
+        if (expansion == null || expansion.horizon < windowEnd) {
+            long horizon = windowEnd > Long.MAX_VALUE - LOOKAHEAD ? Long.MAX_VALUE : windowEnd + LOOKAHEAD;
+            expansion = new Expansion(series.occurrences(horizon), horizon);
+            cache.put(key, expansion);
+        }
+        long[] starts = expansion.starts;
+        // every instance lasts as long as the series, so the first one overlapping the window is found by its start
+        int first = Arrays.binarySearch(starts, windowStart - series.duration);
+        first = first < 0 ? -first - 1 : first + 1;
+        int from = first;
+        return new Iterator<Event>() {
+            private int index = from;
+
+            @Override
+            public boolean hasNext() {
+                return index < starts.length && starts[index] < windowEnd;
+            }
+
+            @Override
+            public Event next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return series.instance(starts[index++]);
+            }
+        };
+    }
+
+    /**
+     * Returns the key matching an instance to the modified instance replacing it: the ID of the recurring event and
+     * the original start time of the instance.
+     *
+     * @param recurringEventId the ID of the recurring event.
+     * @param originalStart    the original start time of the instance.
+     * @return the key.
+     */
+    public static String instanceKey(String recurringEventId, EventDateTime originalStart) {
+        DateTime time = originalStart.getDateTime() != null ? originalStart.getDateTime() : originalStart.getDate();
+        return recurringEventId + "@" + time.getValue();
+    }
+
+    /** A recurring event with its parsed recurrence. */
+    private static final class Series {
+        private final Event master;
+        private final boolean allDay;
+        private final ZoneId zone;
+        private final LocalDateTime dtStart;
+        private final long duration;
+        private final Rule rule;
+        private final List<Long> rdates = new ArrayList<>();
+        private final Set<Long> exdates = new HashSet<>();
+
+        Series(Event master) throws RecurrenceException {
+            this.master = master;
+            EventDateTime start = master.getStart();
+            EventDateTime end = master.getEnd();
+            if (start == null || end == null) {
+                throw new RecurrenceException("Recurring event without a start or end.");
+            }
+            allDay = start.getDateTime() == null;
+            DateTime startTime = allDay ? start.getDate() : start.getDateTime();
+            DateTime endTime = allDay ? end.getDate() : end.getDateTime();
+            if (startTime == null || endTime == null) {
+                throw new RecurrenceException("Recurring event without a start or end time.");
+            }
+            try {
+                if (allDay) {
+                    zone = ZoneOffset.UTC;
+                } else if (start.getTimeZone() != null) {
+                    zone = ZoneId.of(start.getTimeZone());
+                } else {
+                    zone = ZoneOffset.ofTotalSeconds(startTime.getTimeZoneShift() * 60);
+                }
+                dtStart = LocalDateTime.ofInstant(Instant.ofEpochMilli(startTime.getValue()), zone);
+                duration = endTime.getValue() - startTime.getValue();
+
+                Rule parsed = null;
+                for (String line : master.getRecurrence()) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0) {
+                        throw new RecurrenceException("Malformed recurrence line: " + line);
+                    }
+                    String name = line.substring(0, colon);
+                    String value = line.substring(colon + 1);
+                    String property = name.split(";")[0].toUpperCase(Locale.ROOT);
+                    if (property.equals("RRULE")) {
+                        if (parsed != null) {
+                            throw new RecurrenceException("Multiple RRULEs are not supported.");
+                        }
+                        parsed = new Rule(value);
+                        if (parsed.untilValue != null) {
+                            parsed.until = parseTime(parsed.untilValue, ZoneOffset.UTC);
+                        }
+                    } else if (property.equals("RDATE")) {
+                        rdates.addAll(parseDates(name, value));
+                    } else if (property.equals("EXDATE")) {
+                        exdates.addAll(parseDates(name, value));
+                    } else {
+                        throw new RecurrenceException("Unsupported recurrence property: " + property);
+                    }
+                }
+                rule = parsed;
+            } catch (DateTimeException e) {
+                throw new RecurrenceException("Invalid date or time zone in the recurrence of " + master.getId(), e);
+            }
+        }
+
+        // parses the values of an RDATE or EXDATE line, using its TZID or the event's time zone
+        private List<Long> parseDates(String name, String value) throws RecurrenceException {
+            ZoneId valueZone = zone;
+            for (String parameter : name.split(";")) {
+                if (parameter.toUpperCase(Locale.ROOT).startsWith("TZID=")) {
+                    valueZone = ZoneId.of(parameter.substring(5));
+                } else if (parameter.toUpperCase(Locale.ROOT).equals("VALUE=PERIOD")) {
+                    throw new RecurrenceException("Period dates are not supported.");
+                }
+            }
+            List<Long> dates = new ArrayList<>();
+            for (String date : value.split(",")) {
+                dates.add(parseTime(date.trim(), valueZone));
+            }
+            return dates;
+        }
+
+        private long parseTime(String value, ZoneId valueZone) {
+            if (value.endsWith("Z")) {
+                return LocalDateTime.parse(value.substring(0, value.length() - 1), LOCAL_FORMAT)
+                    .toInstant(ZoneOffset.UTC).toEpochMilli();
+            }
+            if (value.indexOf('T') < 0) {
+                // a date-only value starts at the event's local time of day
+                return toMillis(LocalDate.parse(value, DATE_FORMAT).atTime(dtStart.toLocalTime()));
+            }
+            return LocalDateTime.parse(value, LOCAL_FORMAT).atZone(valueZone).toInstant().toEpochMilli();
+        }
+
+        long toMillis(LocalDateTime time) {
+            return time.atZone(zone).toInstant().toEpochMilli();
+        }
+
+        // the start times of the instances before a horizon, from the rule and RDATEs but without EXDATEs
+        long[] occurrences(long horizon) throws RecurrenceException {
+            TreeSet<Long> starts = new TreeSet<>();
+            Iterator<Long> generated = rule == null
+                ? Collections.singletonList(toMillis(dtStart)).iterator()
+                : new RuleIterator(this, horizon);
+            while (generated.hasNext()) {
+                long start = generated.next();
+                if (start >= horizon) {
+                    break;
+                }
+                starts.add(start);
+                if (starts.size() > MAX_INSTANCES) {
+                    throw new RecurrenceException("More than " + MAX_INSTANCES + " instances in " + master.getId());
+                }
+            }
+            for (long rdate : rdates) {
+                if (rdate < horizon) {
+                    starts.add(rdate);
+                }
+            }
+            starts.removeAll(exdates);
+            return starts.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        Event instance(long start) {
+            Event instance = master.clone();
+            instance.setRecurrence(null);
+            instance.setRecurringEventId(master.getId());
+            EventDateTime originalStart = time(start, master.getStart());
+            instance.setId(master.getId() + "_" + (allDay ? DATE_ID_FORMAT : UTC_ID_FORMAT).format(Instant.ofEpochMilli(start)));
+            instance.setOriginalStartTime(originalStart);
+            instance.setStart(originalStart.clone());
+            instance.setEnd(time(start + duration, master.getEnd()));
+            return instance;
+        }
+
+        private EventDateTime time(long millis, EventDateTime template) {
+            EventDateTime time = new EventDateTime().setTimeZone(template.getTimeZone());
+            if (allDay) {
+                return time.setDate(new DateTime(true, millis, 0));
+            }
+            int shift = zone.getRules().getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds() / 60;
+            return time.setDateTime(new DateTime(millis, shift));
+        }
+    }
+
+    /** A parsed RRULE. */
+    private static final class Rule {
+        String freq;
+        int interval = 1;
+        int count = -1;
+        Long until;
+        String untilValue;
+        DayOfWeek weekStart = DayOfWeek.MONDAY;
+        final List<int[]> byDay = new ArrayList<>();
+        final List<Integer> byMonthDay = new ArrayList<>();
+        final List<Integer> byMonth = new ArrayList<>();
+
+        Rule(String value) throws RecurrenceException {
+            for (String part : value.split(";")) {
+                String[] pair = part.split("=", 2);
+                String name = pair[0].toUpperCase(Locale.ROOT);
+                String partValue = pair.length > 1 ? pair[1] : "";
+                switch (name) {
+                    case "FREQ":
+                        freq = partValue.toUpperCase(Locale.ROOT);
+                        if (!Arrays.asList("DAILY", "WEEKLY", "MONTHLY", "YEARLY").contains(freq)) {
+                            throw new RecurrenceException("Unsupported frequency: " + freq);
+                        }
+                        break;
+                    case "INTERVAL":
+                        interval = parseInt(name, partValue, 1, Integer.MAX_VALUE);
+                        break;
+                    case "COUNT":
+                        count = parseInt(name, partValue, 1, Integer.MAX_VALUE);
+                        break;
+                    case "UNTIL":
+                        untilValue = partValue;
+                        break;
+                    case "WKST":
+                        weekStart = dayOfWeek(partValue);
+                        break;
+                    case "BYDAY":
+                        for (String day : partValue.split(",")) {
+                            if (day.length() < 2) {
+                                throw new RecurrenceException("Invalid BYDAY: " + partValue);
+                            }
+                            String ordinal = day.substring(0, day.length() - 2);
+                            int week = ordinal.isEmpty() ? 0 : parseInt(name, ordinal, -53, 53);
+                            if (!ordinal.isEmpty() && week == 0) {
+                                throw new RecurrenceException("Invalid BYDAY: " + partValue);
+                            }
+                            byDay.add(new int[]{week, dayOfWeek(day.substring(day.length() - 2)).getValue()});
+                        }
+                        break;
+                    case "BYMONTHDAY":
+                        for (String day : partValue.split(",")) {
+                            int monthDay = parseInt(name, day, -31, 31);
+                            if (monthDay == 0) {
+                                throw new RecurrenceException("Invalid BYMONTHDAY: " + partValue);
+                            }
+                            byMonthDay.add(monthDay);
+                        }
+                        break;
+                    case "BYMONTH":
+                        for (String month : partValue.split(",")) {
+                            byMonth.add(parseInt(name, month, 1, 12));
+                        }
+                        break;
+                    default:
+                        throw new RecurrenceException("Unsupported rule part: " + name);
+                }
+            }
+            if (freq == null) {
+                throw new RecurrenceException("Rule without a frequency: " + value);
+            }
+            if (freq.equals("YEARLY") && !byDay.isEmpty() && byMonth.isEmpty()) {
+                throw new RecurrenceException("Yearly BYDAY rules without BYMONTH are not supported.");
+            }
+        }
+
+        private static int parseInt(String name, String value, int min, int max) throws RecurrenceException {
+            int parsed;
+            try {
+                parsed = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new RecurrenceException("Invalid " + name + ": " + value, e);
+            }
+            if (parsed < min || parsed > max) {
+                throw new RecurrenceException("Invalid " + name + ": " + value);
+            }
+            return parsed;
+        }
+
+        private static DayOfWeek dayOfWeek(String day) throws RecurrenceException {
+            switch (day.toUpperCase(Locale.ROOT)) {
+                case "MO": return DayOfWeek.MONDAY;
+                case "TU": return DayOfWeek.TUESDAY;
+                case "WE": return DayOfWeek.WEDNESDAY;
+                case "TH": return DayOfWeek.THURSDAY;
+                case "FR": return DayOfWeek.FRIDAY;
+                case "SA": return DayOfWeek.SATURDAY;
+                case "SU": return DayOfWeek.SUNDAY;
+                default: throw new RecurrenceException("Unknown day: " + day);
+            }
+        }
+    }
+
+    /** Generates the occurrences of a rule in order, period by period, from the start of the series. */
+    private static final class RuleIterator implements Iterator<Long> {
+        private final Series series;
+        private final Rule rule;
+        private final long windowEnd;
+        private final LocalDate base;
+        private final LocalTime time;
+        private final List<Long> buffer = new ArrayList<>();
+        private int bufferIndex;
+        private int period;
+        private int emitted;
+        private boolean done;
+        private boolean firstEmitted;
+
+        RuleIterator(Series series, long windowEnd) {
+            this.series = series;
+            this.rule = series.rule;
+            this.windowEnd = windowEnd;
+            this.base = series.dtStart.toLocalDate();
+            this.time = series.dtStart.toLocalTime();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (done) {
+                return false;
+            }
+            if (bufferIndex < buffer.size()) {
+                return checkLimits();
+            }
+            buffer.clear();
+            bufferIndex = 0;
+            int emptyPeriods = 0;
+            while (buffer.isEmpty()) {
+                LocalDate periodStart = periodStart(period);
+                if (series.toMillis(periodStart.atStartOfDay()) >= windowEnd && firstEmitted) {
+                    done = true;
+                    return false;
+                }
+                long dtStart = series.toMillis(series.dtStart);
+                for (LocalDate date : candidates(period)) {
+                    long start = series.toMillis(date.atTime(time));
+                    if (start > dtStart) {
+                        buffer.add(start);
+                    }
+                }
+                // the start of the series is always its first occurrence, even if it does not match the rule
+                if (!firstEmitted) {
+                    buffer.add(0, dtStart);
+                    firstEmitted = true;
+                }
+                period++;
+                if (buffer.isEmpty() && ++emptyPeriods > MAX_EMPTY_PERIODS) {
+                    done = true;
+                    return false;
+                }
+            }
+            return checkLimits();
+        }
+
+        @Override
+        public Long next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            emitted++;
+            return buffer.get(bufferIndex++);
+        }
+
+        // stops at COUNT occurrences or at the first occurrence after UNTIL
+        private boolean checkLimits() {
+            if ((rule.count >= 0 && emitted >= rule.count)
+                || (rule.until != null && buffer.get(bufferIndex) > rule.until)) {
+                done = true;
+            }
+            return !done;
+        }
+
+        private LocalDate periodStart(int index) {
+            switch (rule.freq) {
+                case "DAILY":
+                    return base.plusDays((long) index * rule.interval);
+                case "WEEKLY":
+                    return base.with(TemporalAdjusters.previousOrSame(rule.weekStart)).plusWeeks((long) index * rule.interval);
+                case "MONTHLY":
+                    return base.withDayOfMonth(1).plusMonths((long) index * rule.interval);
+                default:
+                    return base.withDayOfYear(1).plusYears((long) index * rule.interval);
+            }
+        }
+
+        // the dates of a period matching the rule, in order
+        private List<LocalDate> candidates(int index) {
+            LocalDate start = periodStart(index);
+            TreeSet<LocalDate> dates = new TreeSet<>();
+            switch (rule.freq) {
+                case "DAILY":
+                    dates.add(start);
+                    break;
+                case "WEEKLY":
+                    if (rule.byDay.isEmpty()) {
+                        dates.add(start.with(TemporalAdjusters.nextOrSame(base.getDayOfWeek())));
+                    } else {
+                        for (int[] day : rule.byDay) {
+                            dates.add(start.with(TemporalAdjusters.nextOrSame(DayOfWeek.of(day[1]))));
+                        }
+                    }
+                    break;
+                case "MONTHLY":
+                    dates.addAll(monthDates(YearMonth.from(start)));
+                    break;
+                default:
+                    // BYMONTHDAY without BYMONTH repeats in every month of the year, anything else in the start month
+                    List<Integer> months = !rule.byMonth.isEmpty() ? rule.byMonth
+                        : !rule.byMonthDay.isEmpty() ? ALL_MONTHS : Collections.singletonList(base.getMonthValue());
+                    for (int month : months) {
+                        dates.addAll(monthDates(YearMonth.of(start.getYear(), month)));
+                    }
+                    break;
+            }
+
+            List<LocalDate> matching = new ArrayList<>();
+            for (LocalDate date : dates) {
+                if (!rule.byMonth.isEmpty() && !rule.byMonth.contains(date.getMonthValue())) {
+                    continue;
+                }
+                if (rule.freq.equals("DAILY") && !matchesDaily(date)) {
+                    continue;
+                }
+                matching.add(date);
+            }
+            return matching;
+        }
+
+        // BYDAY and BYMONTHDAY only limit the dates of a daily rule
+        private boolean matchesDaily(LocalDate date) {
+            if (!rule.byMonthDay.isEmpty() && !rule.byMonthDay.contains(date.getDayOfMonth())
+                && !rule.byMonthDay.contains(date.getDayOfMonth() - date.lengthOfMonth() - 1)) {
+                return false;
+            }
+            if (!rule.byDay.isEmpty()) {
+                for (int[] day : rule.byDay) {
+                    if (day[1] == date.getDayOfWeek().getValue()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return true;
+        }
+
+        private List<LocalDate> monthDates(YearMonth month) {
+            List<LocalDate> dates = new ArrayList<>();
+            int length = month.lengthOfMonth();
+            if (!rule.byMonthDay.isEmpty()) {
+                for (int monthDay : rule.byMonthDay) {
+                    int day = monthDay > 0 ? monthDay : length + monthDay + 1;
+                    if (day >= 1 && day <= length) {
+                        LocalDate date = month.atDay(day);
+                        if (rule.byDay.isEmpty() || hasDay(date)) {
+                            dates.add(date);
+                        }
+                    }
+                }
+            } else if (!rule.byDay.isEmpty()) {
+                for (int[] day : rule.byDay) {
+                    DayOfWeek dayOfWeek = DayOfWeek.of(day[1]);
+                    if (day[0] == 0) {
+                        for (LocalDate date = month.atDay(1).with(TemporalAdjusters.nextOrSame(dayOfWeek));
+                             date.getMonthValue() == month.getMonthValue(); date = date.plusWeeks(1)) {
+                            dates.add(date);
+                        }
+                    } else {
+                        LocalDate date = day[0] > 0
+                            ? month.atDay(1).with(TemporalAdjusters.nextOrSame(dayOfWeek)).plusWeeks(day[0] - 1)
+                            : month.atEndOfMonth().with(TemporalAdjusters.previousOrSame(dayOfWeek)).minusWeeks(-day[0] - 1);
+                        if (YearMonth.from(date).equals(month)) {
+                            dates.add(date);
+                        }
+                    }
+                }
+            } else if (base.getDayOfMonth() <= length) {
+                dates.add(month.atDay(base.getDayOfMonth()));
+            }
+            return dates;
+        }
+
+        private boolean hasDay(LocalDate date) {
+            for (int[] day : rule.byDay) {
+                if (day[1] == date.getDayOfWeek().getValue()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
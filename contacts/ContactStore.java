@@ -0,0 +1,99 @@
+package com.ps.google.contacts;
+
+import com.google.gdata.data.DateTime;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local copy of a user's contacts kept up to date by {@link ContactsImpl#syncContacts(ContactStore)}.
+ * <p>
+ * Contacts are stored already converted to JSON, keyed by contact ID, together with the watermark of the last
+ * successful sync so the next sync only needs to fetch what changed since then.
+ */
+public class ContactStore {
+
+    private final Map<String, JSONObject> contacts = new LinkedHashMap<>();
+    private DateTime watermark;
+
+    /**
+     * @return the time of the last successful sync, or {@code null} if the store was never synced.
+     */
+    public synchronized DateTime getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @param watermark the time of the last successful sync.
+     */
+    public synchronized void setWatermark(DateTime watermark) {
+        this.watermark = watermark;
+    }
+
+    /**
+     * Adds or replaces a contact.
+     *
+     * @param id      the ID of the contact.
+     * @param contact the contact in JSON form.
+     */
+    public synchronized void put(String id, JSONObject contact) {
+        contacts.put(id, contact);
+    }
+
+    /**
+     * Removes a contact.
+     *
+     * @param id the ID of the contact.
+     * @return {@code true} if the contact was stored, {@code false} otherwise.
+     */
+    public synchronized boolean remove(String id) {
+        return contacts.remove(id) != null;
+    }
+
+    /**
+     * @param id the ID of the contact.
+     * @return the contact in JSON form, or {@code null} if it is not stored.
+     */
+    public synchronized JSONObject get(String id) {
+        return contacts.get(id);
+    }
+
+    /**
+     * @return the number of stored contacts.
+     */
+    public synchronized int size() {
+        return contacts.size();
+    }
+
+    /**
+     * Removes every contact and the watermark, so the next sync is a full one.
+     */
+    public synchronized void clear() {
+        contacts.clear();
+        watermark = null;
+    }
+
+    /**
+     * @return a snapshot of the stored contacts.
+     */
+    public synchronized List<JSONObject> getContacts() {
+        return new ArrayList<>(contacts.values());
+    }
+
+    /**
+     * Builds the stored contacts in the same shape as {@link ContactsImpl#getContacts()}.
+     *
+     * @return the stored contacts as {@code {"feed": {"entry": [...]}}}.
+     */
+    public JSONObject toJSON() {
+        JSONObject feed = new JSONObject();
+        JSONObject entryObject = new JSONObject();
+        feed.put("feed", entryObject);
+        entryObject.put("entry", new JSONArray(getContacts()));
+        return feed;
+    }
+}
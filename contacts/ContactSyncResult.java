@@ -0,0 +1,53 @@
+package com.ps.google.contacts;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Outcome of a contact sync: which contacts changed and which were deleted since the previous sync.
+ */
+public class ContactSyncResult {
+
+    private final boolean fullSync;
+    private final Set<String> changed;
+    private final Set<String> deleted;
+
+    /**
+     * @param fullSync {@code true} if the whole address book was fetched instead of only the changes.
+     * @param changed  IDs of the contacts added or updated.
+     * @param deleted  IDs of the contacts deleted.
+     */
+    public ContactSyncResult(boolean fullSync, Set<String> changed, Set<String> deleted) {
+        this.fullSync = fullSync;
+        this.changed = Collections.unmodifiableSet(changed);
+        this.deleted = Collections.unmodifiableSet(deleted);
+    }
+
+    /**
+     * @return {@code true} if the whole address book was fetched, in which case consumers should rebuild rather than
+     * apply the changes in place.
+     */
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+    /**
+     * @return IDs of the contacts added or updated.
+     */
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return IDs of the contacts deleted.
+     */
+    public Set<String> getDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ContactSyncResult{fullSync=%s, changed=%d, deleted=%d}",
+            fullSync, changed.size(), deleted.size());
+    }
+}
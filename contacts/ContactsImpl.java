@@ -4,17 +4,21 @@ import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
+import com.ps.google.AccessTokenManager;
 import com.ps.google.GoogleOauth2Impl;
+import com.ps.google.MetricsRegistry;
+import com.ps.google.QuotaRateLimiter;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONWriter;
 
 import com.google.gdata.client.Query;
 import com.google.gdata.client.Service;
 import com.google.gdata.client.contacts.ContactsService;
 import com.google.gdata.client.http.HttpGDataRequest;
+import com.google.gdata.client.http.HttpUrlConnectionSource;
 import com.google.gdata.data.DateTime;
-import com.google.gdata.data.Link;
 import com.google.gdata.data.contacts.ContactEntry;
 import com.google.gdata.data.contacts.ContactFeed;
 import com.google.gdata.data.contacts.ContactGroupEntry;
@@ -24,19 +28,43 @@ import com.google.gdata.data.extensions.FullName;
 import com.google.gdata.data.extensions.Name;
 import com.google.gdata.data.extensions.Email;
 import com.google.gdata.data.extensions.StructuredPostalAddress;
+import com.google.gdata.data.extensions.City;
+import com.google.gdata.data.extensions.Country;
+import com.google.gdata.data.extensions.Neighborhood;
+import com.google.gdata.data.extensions.PoBox;
+import com.google.gdata.data.extensions.PostCode;
+import com.google.gdata.data.extensions.Region;
+import com.google.gdata.data.extensions.Street;
 import com.google.gdata.data.extensions.ExtendedProperty;
 import com.google.gdata.util.AuthenticationException;
 import com.google.gdata.util.NoLongerAvailableException;
 import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.FileReader;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.ConsoleHandler;
 
 import com.google.api.client.http.HttpContent;
@@ -90,9 +118,50 @@ public class ContactsImpl extends GoogleOauth2Impl {
         }
     }
 
-    private final String projection;
+    /** The default number of contacts requested per page */
+    protected static final int DEFAULT_PAGE_SIZE = 500;
+
+    /** The default number of pages fetched at the same time */
+    protected static final int DEFAULT_PAGE_PARALLELISM = 4;
+
+    /** The number of times a request is retried after a quota error */
+    protected static final int MAX_RETRIES = 5;
+
+    /** The delay before the first retry, doubled on each following one */
+    protected static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    /** How far before the start of a sync the next sync starts looking for changes */
+    protected static final long SYNC_OVERLAP_MILLIS = 60 * 1000;
+
+    /** The projection of the entries fetched by ID, full so that they can be updated and deleted */
+    private static final String PROJECTION = "full";
+
+    /** The relation of the addresses and numbers of a posted contact */
+    private static final String OTHER_REL = "http://schemas.google.com/g/2005#other";
+
     protected ContactsService service;
 
+    /** The name of the API, used to share rate limits between a user's wrappers */
+    protected static final String API_NAME = "contacts";
+
+    /** The names of the GData operations, for metrics */
+    protected static final String FEED_OPERATION = API_NAME + " GET /feed";
+    protected static final String ENTRY_OPERATION = API_NAME + " GET /entry";
+    protected static final String INSERT_OPERATION = API_NAME + " POST /feed";
+    protected static final String UPDATE_OPERATION = API_NAME + " PUT /entry";
+    protected static final String DELETE_OPERATION = API_NAME + " DELETE /entry";
+
+    /** Opens the connections of the GData client, or {@code null} for the JDK default */
+    private static volatile HttpUrlConnectionSource connectionSource;
+
+    /** The rate limiter shared by all of the user's Contacts requests */
+    private final QuotaRateLimiter limiter;
+
+    /** The manager keeping the user's token fresh, or {@code null} if a fixed token is used */
+    private final AccessTokenManager tokenManager;
+    private final String userId;
+    private volatile String authorizedToken;
+
     /**
      * Default constructor.
      *
@@ -100,32 +169,86 @@ public class ContactsImpl extends GoogleOauth2Impl {
      */
     public ContactsImpl(String token) {
         super(token);
+        tokenManager = null;
+        userId = null;
+        limiter = QuotaRateLimiter.forUser(userKey, API_NAME);
+        service = newService(token);
+    }
 
-        service = new ContactsService("Focus Feed");
+    /**
+     * Constructor used to take the user's credential from a token manager. The token is only refreshed when the
+     * manager's copy is about to expire, not on every construction. Callers use {@link #forUser}.
+     *
+     * @param userId       the ID of the user.
+     * @param tokenManager the manager holding the user's credential.
+     */
+    protected ContactsImpl(String userId, AccessTokenManager tokenManager) {
+        super(userId, tokenManager);
+        this.tokenManager = tokenManager;
+        this.userId = userId;
+        limiter = QuotaRateLimiter.forUser(userKey, API_NAME);
+        service = newService(null);
+    }
 
-        //refresh the token just in case
-        try {
-            credential.refreshToken();
-        } catch (IOException e) {
-            Logger
-                .getLogger(ContactsImpl.class.getName())
-                .log(Level.WARNING, "refreshtoken ioerror ", e);
+    /**
+     * Creates a wrapper taking the user's credential from a token manager.
+     *
+     * @param userId       the ID of the user.
+     * @param tokenManager the manager holding the user's credential.
+     * @return the wrapper.
+     */
+    public static ContactsImpl forUser(String userId, AccessTokenManager tokenManager) {
+        return new ContactsImpl(userId, tokenManager);
+    }
+
+    /**
+     * Sets the source of the connections opened by the GData client, for wrappers created afterwards. The GData client
+     * does its own HTTP rather than going through {@link com.ps.google.HttpTransportRegistry}, so this is how its
+     * requests can be sent to another server, such as a local emulator.
+     *
+     * @param source the connection source, or {@code null} to open connections with the JDK.
+     */
+    public static void setConnectionSource(HttpUrlConnectionSource source) {
+        connectionSource = source;
+    }
+
+    @Override
+    public void setAccessToken(String token) {
+        if (tokenManager == null) {
+            super.setAccessToken(token);
+            // the GData client sends the header set on the service, not the credential's token
+            service.setHeader("Authorization", "Bearer " + token);
+            authorizedToken = token;
         }
-        service.setOAuth2Credentials(credential);
+    }
 
-        //stuff that may not be needed
-        service.getRequestFactory().setHeader("User-Agent", "Focus Feed");//npe
-        service.setHeader("Authorization", "Bearer " + token); //prevent npe
-        service.setHeader("WWW-Authenticate", "junk"); //prevent npe [maybe]
+    private ContactsService newService(String token) {
+        ContactsService contactsService = new ContactsService("Focus Feed");
+        contactsService.setOAuth2Credentials(credential);
+        HttpUrlConnectionSource source = connectionSource;
+        if (source != null) {
+            ((HttpGDataRequest.Factory) contactsService.getRequestFactory()).setConnectionSource(source);
+        }
 
-        projection = "full"; //TODO make this a parameter
+        //stuff that may not be needed
+        contactsService.getRequestFactory().setHeader("User-Agent", "Focus Feed");//npe
+        if (token != null) {
+            contactsService.setHeader("Authorization", "Bearer " + token); //prevent npe
+            authorizedToken = token;
+        }
+        contactsService.setHeader("WWW-Authenticate", "junk"); //prevent npe [maybe]
+        return contactsService;
     }
 
     public void deleteContact(String id)
         throws IOException {
         log("DELETE param: " + id);
         try {
-            getContactInternal(id).delete();
+            ContactEntry contact = getContactInternal(id);
+            execute(DELETE_OPERATION, () -> {
+                contact.delete();
+                return null;
+            });
         } catch (ServiceException e) {
             log(e);
         } catch (java.lang.UnsupportedOperationException e) {
@@ -135,14 +258,28 @@ public class ContactsImpl extends GoogleOauth2Impl {
         }
     }
 
+    /**
+     * Asynchronous variant of {@link #deleteContact(String)}.
+     *
+     * @param id the ID of the contact to delete.
+     * @return a future completed once the contact is deleted.
+     */
+    public CompletableFuture<Void> deleteContactAsync(String id) {
+        return async(() -> {
+            deleteContact(id);
+            return null;
+        });
+    }
+
     private ContactEntry getContactInternal(String id)
         throws IOException, ServiceException {
         ContactEntry contact = null;
         id = id.replace("http://", "https://");
         //very important after 2015-10-7
 
-        id = id.replace("/base/", "/" + projection + "/");
-        contact = service.getEntry(new URL(id), ContactEntry.class);
+        id = id.replace("/base/", "/" + PROJECTION + "/");
+        URL entryUrl = new URL(id);
+        contact = execute(ENTRY_OPERATION, () -> service.getEntry(entryUrl, ContactEntry.class));
         return contact;
     }
 
@@ -196,42 +333,409 @@ public class ContactsImpl extends GoogleOauth2Impl {
      * @throws IOException
      */
     public JSONObject getContacts() throws IOException, ServiceException {
-        URL feedUrl = buildContactsFeed();
-        ContactFeed resultFeed;
-        Link link;
+        return getContacts(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getContacts()}.
+     *
+     * @return a future completed with the user's contacts.
+     */
+    public CompletableFuture<JSONObject> getContactsAsync() {
+        return async(() -> getContacts());
+    }
+
+    /**
+     * Used to retrieve all of a user's contacts, fetching up to {@link #DEFAULT_PAGE_PARALLELISM} pages at a time.
+     *
+     * @param pageSize the maximum number of contacts requested per page.
+     * @return a user's contacts in a JSON formatted string.
+     * @throws IOException
+     */
+    public JSONObject getContacts(int pageSize) throws IOException, ServiceException {
         JSONObject feed = new JSONObject();
         JSONObject entryObject = new JSONObject();
         feed.put("feed", entryObject);
         JSONArray entryArray = new JSONArray();
         entryObject.put("entry", entryArray);
 
+        for (ContactEntry entry : fetchAllContacts(buildContactsFeed(), pageSize, DEFAULT_PAGE_PARALLELISM)) {
+            entryArray.put(entryToJSON(entry));
+        }
+        return feed;
+    }
+
+    /**
+     * Asynchronous variant of {@link #getContacts(int)}.
+     *
+     * @param pageSize the maximum number of contacts requested per page.
+     * @return a future completed with a user's contacts in a JSON formatted string.
+     */
+    public CompletableFuture<JSONObject> getContactsAsync(int pageSize) {
+        return async(() -> getContacts(pageSize));
+    }
+
+    /**
+     * Fetches every page of a contacts feed. The first page gives the total number of results, after which the
+     * remaining pages are requested by {@code start-index} with at most {@code parallelism} requests in flight.
+     *
+     * @param feedUrl     the URL of the feed.
+     * @param pageSize    the maximum number of contacts requested per page.
+     * @param parallelism the maximum number of pages fetched at the same time.
+     * @return the contacts of all pages, in feed order.
+     * @throws IOException
+     */
+    protected List<ContactEntry> fetchAllContacts(URL feedUrl, int pageSize, int parallelism)
+        throws IOException, ServiceException {
+        return fetchAllContacts(feedUrl, null, pageSize, parallelism);
+    }
+
+    /**
+     * Fetches every page of a contacts feed, limited to the contacts changed since the specified time. Deleted
+     * contacts are included and can be recognized with {@link ContactEntry#hasDeleted()}.
+     *
+     * @param feedUrl     the URL of the feed.
+     * @param updatedMin  only fetch contacts updated after this time, or {@code null} to fetch all contacts.
+     * @param pageSize    the maximum number of contacts requested per page.
+     * @param parallelism the maximum number of pages fetched at the same time.
+     * @return the contacts of all pages, in feed order.
+     * @throws IOException
+     */
+    protected List<ContactEntry> fetchAllContacts(URL feedUrl, DateTime updatedMin, int pageSize, int parallelism)
+        throws IOException, ServiceException {
+        ContactFeed first = fetchPage(feedUrl, updatedMin, 1, pageSize);
+        // the server may cap max-results below the requested size; page by what it actually returns
+        int returned = first.getEntries().size();
+        int pageLength = returned > 0 && returned < pageSize && returned < first.getTotalResults() ? returned : pageSize;
+        int pageCount = Math.max(1, (first.getTotalResults() + pageLength - 1) / pageLength);
+        AtomicReferenceArray<List<ContactEntry>> pages = new AtomicReferenceArray<>(pageCount);
+        pages.set(0, first.getEntries());
+
+        AtomicInteger nextPage = new AtomicInteger(1);
+        List<Future<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, pageCount - 1); i++) {
+            workers.add(getSharedExecutor().submit(() -> {
+                int page;
+                while ((page = nextPage.getAndIncrement()) < pageCount) {
+                    pages.set(page, fetchPage(feedUrl, updatedMin, page * pageLength + 1, pageSize).getEntries());
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching contacts.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceException) {
+                throw (ServiceException) e.getCause();
+            }
+            throw new IOException("Error fetching contacts.", e.getCause());
+        } finally {
+            nextPage.set(pageCount);
+        }
+
+        List<ContactEntry> entries = new ArrayList<>();
+        for (int page = 0; page < pageCount; page++) {
+            entries.addAll(pages.get(page));
+        }
+        return entries;
+    }
+
+    /**
+     * Fetches one page of a contacts feed, backing off exponentially while the request is rejected for quota reasons.
+     *
+     * @param feedUrl    the URL of the feed.
+     * @param updatedMin only fetch contacts updated after this time, including deleted ones, or {@code null}.
+     * @param startIndex the 1-based index of the first contact of the page.
+     * @param pageSize   the maximum number of contacts requested.
+     * @return the page.
+     * @throws IOException
+     */
+    protected ContactFeed fetchPage(URL feedUrl, DateTime updatedMin, int startIndex, int pageSize)
+        throws IOException, ServiceException {
+        Query query = new Query(feedUrl);
+        if (updatedMin != null) {
+            query.setUpdatedMin(updatedMin);
+            query.setStringCustomParameter("showdeleted", "true");
+        }
+        query.setStartIndex(startIndex);
+        query.setMaxResults(pageSize);
+        return execute(FEED_OPERATION, () -> service.getFeed(query, ContactFeed.class));
+    }
+
+    /**
+     * Runs a GData request through the user's shared rate limiter, retrying it with jittered exponential backoff if it
+     * fails with a quota error. When a token manager is used, a request rejected with {@code 401} is retried once with
+     * a refreshed token. The request is reported to the metrics registry under the specified operation.
+     *
+     * @param operation the name of the operation, for metrics.
+     * @param request   the request to run.
+     * @return the result of the request.
+     * @throws IOException
+     */
+    protected <T> T execute(String operation, GDataRequest<T> request) throws IOException, ServiceException {
+        MetricsRegistry metrics = getMetricsRegistry();
+        long start = System.nanoTime();
+        int statusCode = 0;
+        metrics.requestStarted(operation);
+        try {
+            boolean reauthorized = false;
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 0 || reauthorized) {
+                    metrics.retried(operation);
+                }
+                try {
+                    authorize();
+                    limiter.acquire();
+                    T result = request.execute();
+                    limiter.onSuccess();
+                    statusCode = HttpURLConnection.HTTP_OK;
+                    return result;
+                } catch (ServiceException e) {
+                    statusCode = Math.max(0, e.getHttpErrorCodeOverride());
+                    if (tokenManager != null && !reauthorized && isUnauthorized(e)) {
+                        reauthorized = true;
+                        setAuthorization(tokenManager.refreshAccessToken(userId, authorizedToken));
+                        attempt--;
+                        continue;
+                    }
+                    boolean quotaError = isQuotaError(e);
+                    if (quotaError) {
+                        limiter.onThrottle();
+                    }
+                    if (attempt >= MAX_RETRIES || !quotaError) {
+                        throw e;
+                    }
+                    long delay = INITIAL_BACKOFF_MILLIS << attempt;
+                    delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+                    log("Quota error, retrying in " + delay + "ms: " + e.getMessage());
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while backing off.", interrupted);
+                    }
+                }
+            }
+        } finally {
+            metrics.requestFinished(operation, statusCode, System.nanoTime() - start, 0, 0);
+        }
+    }
+
+    /** A request made through the GData client. */
+    protected interface GDataRequest<T> {
+        T execute() throws IOException, ServiceException;
+    }
+
+    // points the client at the user's current token, which the token manager refreshes in the background
+    private void authorize() throws IOException {
+        if (tokenManager != null) {
+            setAuthorization(tokenManager.getAccessToken(userId));
+        }
+    }
+
+    private void setAuthorization(AccessTokenManager.AccessToken token) {
+        if (!token.getValue().equals(authorizedToken)) {
+            credential.setAccessToken(token.getValue());
+            credential.setExpirationTimeMilliseconds(token.getExpirationTimeMillis());
+            service.setHeader("Authorization", "Bearer " + token.getValue());
+            authorizedToken = token.getValue();
+        }
+    }
+
+    private static boolean isUnauthorized(ServiceException e) {
+        return e instanceof AuthenticationException || e.getHttpErrorCodeOverride() == 401;
+    }
+
+    private static boolean isQuotaError(ServiceException e) {
+        int code = e.getHttpErrorCodeOverride();
+        if (code == 429 || code == 503) {
+            return true;
+        }
+        // matched on whole reasons, so a permanent 403 mentioning "operate" or "generate" is not retried
+        String message = String.valueOf(e.getMessage()).toLowerCase(Locale.ROOT);
+        return (code == 403 || e instanceof ServiceForbiddenException)
+            && (message.contains("ratelimitexceeded") || message.contains("rate limit")
+                || message.contains("quotaexceeded") || message.contains("quota exceeded"));
+    }
+
+    /**
+     * Writes all of a user's contacts as JSON to a stream, in the same shape as {@link #getContacts()}. Contacts are
+     * written page by page as they are fetched, so memory use does not grow with the size of the address book.
+     *
+     * @param out the stream to write UTF-8 encoded JSON to. It is flushed but not closed.
+     * @throws IOException
+     */
+    public void writeContacts(OutputStream out) throws IOException, ServiceException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeContacts(writer, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Asynchronous variant of {@link #writeContacts(OutputStream)}.
+     *
+     * @param out the stream to write UTF-8 encoded JSON to. It is flushed but not closed.
+     * @return a future completed once every contact is written.
+     */
+    public CompletableFuture<Void> writeContactsAsync(OutputStream out) {
+        return async(() -> {
+            writeContacts(out);
+            return null;
+        });
+    }
+
+    /**
+     * Writes all of a user's contacts as JSON to a writer, in the same shape as {@link #getContacts()}.
+     *
+     * @param out the writer to write the JSON to. It is flushed but not closed.
+     * @throws IOException
+     */
+    public void writeContacts(Writer out) throws IOException, ServiceException {
+        writeContacts(out, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Asynchronous variant of {@link #writeContacts(Writer)}.
+     *
+     * @param out the writer to write the JSON to. It is flushed but not closed.
+     * @return a future completed once every contact is written.
+     */
+    public CompletableFuture<Void> writeContactsAsync(Writer out) {
+        return async(() -> {
+            writeContacts(out);
+            return null;
+        });
+    }
+
+    /**
+     * Writes all of a user's contacts as JSON to a writer, fetching one page at a time.
+     *
+     * @param out      the writer to write the JSON to. It is flushed but not closed.
+     * @param pageSize the maximum number of contacts requested per page.
+     * @throws IOException
+     */
+    public void writeContacts(Writer out, int pageSize) throws IOException, ServiceException {
+        URL feedUrl = buildContactsFeed();
+        JSONWriter writer = new JSONWriter(out);
+        writer.object().key("feed").object().key("entry").array();
+
+        // advanced by the contacts actually returned, as the server may cap max-results below the requested size
+        int startIndex = 1;
+        ContactFeed page;
         do {
-            //objectify entries
-            resultFeed = service.getFeed(feedUrl, ContactFeed.class);
-            List<ContactEntry> entries = resultFeed.getEntries();
-            //log(entries.size());
-
-            //loop each 25 entries
-            for (ContactEntry entry : entries) {
-                JSONObject json = entryToJSON(entry);
-                entryArray.put(json);
+            page = fetchPage(feedUrl, null, startIndex, pageSize);
+            for (ContactEntry entry : page.getEntries()) {
+                writeEntry(writer, entry);
             }
+            startIndex += page.getEntries().size();
+        } while (!page.getEntries().isEmpty() && startIndex <= page.getTotalResults());
 
-            //get next 25 entries
-            //link = resultFeed.getNextLink();
-            link = null; //stop breaking google
-            if (link == null) {
-                feedUrl = null;
-            } else {
-                feedUrl = new URL(link.getHref());
+        writer.endArray().endObject().endObject();
+        out.flush();
+    }
+
+    /**
+     * Asynchronous variant of {@link #writeContacts(Writer, int)}.
+     *
+     * @param out      the writer to write the JSON to. It is flushed but not closed.
+     * @param pageSize the maximum number of contacts requested per page.
+     * @return a future completed once every contact is written.
+     */
+    public CompletableFuture<Void> writeContactsAsync(Writer out, int pageSize) {
+        return async(() -> {
+            writeContacts(out, pageSize);
+            return null;
+        });
+    }
+
+    /**
+     * Brings a local contact store up to date. The first sync fetches the whole address book; later syncs only fetch
+     * the contacts changed or deleted since the store's watermark and apply them to the store. If the server no longer
+     * has the changes since the watermark, the store is rebuilt with a full sync.
+     *
+     * @param store the store to update.
+     * @return the IDs of the contacts changed and deleted by this sync.
+     * @throws IOException
+     */
+    public ContactSyncResult syncContacts(ContactStore store) throws IOException, ServiceException {
+        URL feedUrl = buildContactsFeed();
+        // start the next sync a little before this one to cover clock skew; replayed changes are harmless
+        DateTime syncStart = new DateTime(System.currentTimeMillis() - SYNC_OVERLAP_MILLIS);
+        DateTime watermark = store.getWatermark();
+        Set<String> changed = new LinkedHashSet<>();
+        Set<String> deleted = new LinkedHashSet<>();
+
+        if (watermark != null) {
+            List<ContactEntry> entries = null;
+            try {
+                entries = fetchAllContacts(feedUrl, watermark, DEFAULT_PAGE_SIZE, DEFAULT_PAGE_PARALLELISM);
+            } catch (NoLongerAvailableException e) {
+                log("Changes since " + watermark + " are no longer available, doing a full sync.");
+            }
+            if (entries != null) {
+                for (ContactEntry entry : entries) {
+                    if (entry.hasDeleted()) {
+                        if (store.remove(entry.getId())) {
+                            deleted.add(entry.getId());
+                        }
+                    } else {
+                        store.put(entry.getId(), entryToJSON(entry));
+                        changed.add(entry.getId());
+                    }
+                }
+                store.setWatermark(syncStart);
+                return new ContactSyncResult(false, changed, deleted);
             }
-        } while (feedUrl != null);
+        }
 
-        return feed;
+        List<ContactEntry> entries = fetchAllContacts(feedUrl, DEFAULT_PAGE_SIZE, DEFAULT_PAGE_PARALLELISM);
+        store.clear();
+        for (ContactEntry entry : entries) {
+            store.put(entry.getId(), entryToJSON(entry));
+            changed.add(entry.getId());
+        }
+        store.setWatermark(syncStart);
+        return new ContactSyncResult(true, changed, deleted);
+    }
+
+    /**
+     * Asynchronous variant of {@link #syncContacts(ContactStore)}.
+     *
+     * @param store the store to update.
+     * @return a future completed with the IDs of the contacts changed and deleted by this sync.
+     */
+    public CompletableFuture<ContactSyncResult> syncContactsAsync(ContactStore store) {
+        return async(() -> syncContacts(store));
+    }
+
+    /**
+     * Used to retrieve a user's contacts through a local store, only fetching the changes since the last call.
+     *
+     * @param store the store holding the user's contacts.
+     * @return a user's contacts in a JSON formatted string.
+     * @throws IOException
+     */
+    public JSONObject getContacts(ContactStore store) throws IOException, ServiceException {
+        syncContacts(store);
+        return store.toJSON();
+    }
+
+    /**
+     * Asynchronous variant of {@link #getContacts(ContactStore)}.
+     *
+     * @param store the store holding the user's contacts.
+     * @return a future completed with a user's contacts in a JSON formatted string.
+     */
+    public CompletableFuture<JSONObject> getContactsAsync(ContactStore store) {
+        return async(() -> getContacts(store));
     }
 
-    //convert entry object to json object
-    private static JSONObject entryToJSON(ContactEntry contact) {
+    //convert entry object to json object, package-private so the benchmarks can call it
+    static JSONObject entryToJSON(ContactEntry contact) {
         JSONObject response = new JSONObject();
 
         JSONArray a = null;
@@ -287,6 +791,66 @@ public class ContactsImpl extends GoogleOauth2Impl {
         return response;
     }
 
+    //write entry object straight to a json writer, same shape as entryToJSON
+    static void writeEntry(JSONWriter writer, ContactEntry contact) {
+        writer.object();
+
+        writer.key("emailAddresses").array();
+        for (Email email : contact.getEmailAddresses()) {
+            writer.value(email.getAddress());
+        }
+        writer.endArray();
+
+        writer.key("phoneNumbers").array();
+        for (PhoneNumber email : contact.getPhoneNumbers()) {
+            writer.value(email.getPhoneNumber());
+        }
+        writer.endArray();
+
+        writer.key("postalAddresses").array();
+        for (StructuredPostalAddress email :
+                 contact.getStructuredPostalAddresses()) {
+            writer.object();
+            if (email.hasStreet())
+                writeValue(writer, "street", email.getStreet().getValue());
+            if (email.hasPobox())
+                writeValue(writer, "poBox", email.getPobox().getValue());
+            if (email.hasNeighborhood())
+                writeValue(writer, "neighborhood", email.getNeighborhood().getValue());
+            if (email.hasCity())
+                writeValue(writer, "city", email.getCity().getValue());
+            if (email.hasRegion())
+                writeValue(writer, "region", email.getRegion().getValue());
+            if (email.hasPostcode())
+                writeValue(writer, "postCode", email.getPostcode().getValue());
+            if (email.hasCountry())
+                writeValue(writer, "country", email.getCountry().getValue());
+            writer.endObject();
+        }
+        writer.endArray();
+
+        //add name
+        if (contact.hasName()) {
+            Name name = contact.getName();
+
+            if (name.hasFullName()) {
+                writeValue(writer, "name", name.getFullName().getValue());
+            }
+        }
+
+        //add id
+        writeValue(writer, "id", contact.getId());
+
+        writer.endObject();
+    }
+
+    //JSONObject.put drops null values, so skip them here as well
+    private static void writeValue(JSONWriter writer, String key, String value) {
+        if (value != null) {
+            writer.key(key).value(value);
+        }
+    }
+
     //GET contact
     public JSONObject getContact(String contactId) throws IOException,
     com.google.gdata.util.ServiceException {
@@ -295,6 +859,16 @@ public class ContactsImpl extends GoogleOauth2Impl {
         return response;
     }
 
+    /**
+     * Asynchronous variant of {@link #getContact(String)}.
+     *
+     * @param contactId the ID of the contact.
+     * @return a future completed with the contact.
+     */
+    public CompletableFuture<JSONObject> getContactAsync(String contactId) {
+        return async(() -> getContact(contactId));
+    }
+
     //PUT contact
     public JSONObject putContact(
                                  String contactId,
@@ -339,20 +913,93 @@ public class ContactsImpl extends GoogleOauth2Impl {
                 email.getCountry().setValue(obj.getString("country"));
         }
 
-        response = entryToJSON(contact.update());
+        response = entryToJSON(execute(UPDATE_OPERATION, contact::update));
         log(response);
 
         return response;
     }
 
-    //POST contact
+    /**
+     * Asynchronous variant of {@link #putContact(String, JSONObject)}.
+     *
+     * @param contactId the ID of the contact.
+     * @param contactP  the updated email addresses, phone numbers and postal addresses.
+     * @return a future completed with the updated contact.
+     */
+    public CompletableFuture<JSONObject> putContactAsync(String contactId, JSONObject contactP) {
+        return async(() -> putContact(contactId, contactP));
+    }
+
+    //POST contact, same shape as putContact plus an optional name
     public JSONObject postContact(String contactP) throws IOException,
     com.google.gdata.util.ServiceException {
-        JSONObject response = new JSONObject();
-        //TODO: not implemented yet
+        JSONObject contactJSON = new JSONObject(contactP);
+        ContactEntry contact = new ContactEntry();
+        JSONArray a = null;
+        log("POST param: " + contactP);
+
+        if (contactJSON.has("name")) {
+            Name name = new Name();
+            name.setFullName(new FullName(contactJSON.getString("name"), null));
+            contact.setName(name);
+        }
+
+        a = contactJSON.optJSONArray("emailAddresses");
+        for (int i = 0; a != null && i < a.length(); i++) {
+            Email email = new Email();
+            email.setAddress(a.getString(i));
+            email.setRel(OTHER_REL);
+            contact.addEmailAddress(email);
+        }
+
+        a = contactJSON.optJSONArray("phoneNumbers");
+        for (int i = 0; a != null && i < a.length(); i++) {
+            PhoneNumber phoneNumber = new PhoneNumber();
+            phoneNumber.setPhoneNumber(a.getString(i));
+            phoneNumber.setRel(OTHER_REL);
+            contact.addPhoneNumber(phoneNumber);
+        }
+
+        a = contactJSON.optJSONArray("postalAddresses");
+        for (int i = 0; a != null && i < a.length(); i++) {
+            JSONObject obj = a.getJSONObject(i);
+            StructuredPostalAddress address = new StructuredPostalAddress();
+            address.setRel(OTHER_REL);
+            if (obj.has("street"))
+                address.setStreet(new Street(obj.getString("street")));
+            if (obj.has("poBox"))
+                address.setPobox(new PoBox(obj.getString("poBox")));
+            if (obj.has("neighborhood"))
+                address.setNeighborhood(new Neighborhood(obj.getString("neighborhood")));
+            if (obj.has("city"))
+                address.setCity(new City(obj.getString("city")));
+            if (obj.has("region"))
+                address.setRegion(new Region(obj.getString("region")));
+            if (obj.has("postCode"))
+                address.setPostcode(new PostCode(obj.getString("postCode")));
+            if (obj.has("country"))
+                address.setCountry(new Country(null, obj.getString("country")));
+            contact.addStructuredPostalAddress(address);
+        }
+
+        URL feedUrl = buildContactsFeed("default", PROJECTION);
+        JSONObject response = entryToJSON(execute(INSERT_OPERATION, () -> service.insert(feedUrl, contact)));
+        log(response);
+
         return response;
     }
 
+    /**
+     * Asynchronous variant of {@link #postContact(String)}.
+     *
+     * @param contactP the contact as a JSON string with the same fields as {@link #putContact(String, JSONObject)}
+     *                 takes, plus an optional {@code name}.
+     * @return a future completed with the created contact.
+     */
+    public CompletableFuture<JSONObject> postContactAsync(String contactP) {
+        return async(() -> postContact(contactP));
+    }
+
     //helper for debugging
     private static void log(Object s) {
         Logger
@@ -0,0 +1,480 @@
+package com.ps.google.drive;
+
+import com.google.api.services.drive.model.File;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a Drive folder hierarchy and streams a manifest of every file in it.
+ * <p>
+ * Folders are listed concurrently on a work-stealing {@link ForkJoinPool} in FIFO mode, so the tree is walked roughly
+ * breadth first with at most {@code parallelism} listings in flight. Listings use the non-trashed query of
+ * {@link DriveImpl#iterateFilesInFolder(String, String)}, so trashed files and folders are skipped. A file with
+ * several parents, or a folder reachable through several paths, is reported once, under the first path it was found
+ * at.
+ * <p>
+ * When a checkpoint file is set, the state of the crawl is saved to it periodically and when the crawl fails, and a
+ * later crawl of the same root resumes from it instead of starting over. Resuming re-lists the folders that were in
+ * progress but never reports a file twice, provided the manifest written before the checkpoint is kept.
+ */
+public class DriveCrawler {
+
+    /** The default number of folders listed at the same time */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /** The default time between two checkpoints, in milliseconds */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /** The file fields retrieved for the manifest */
+    protected static final String MANIFEST_FIELDS = "id,title,mimeType,fileSize,md5Checksum,modifiedDate";
+
+    /** A file found by the crawler. */
+    public static final class ManifestEntry {
+        private final String id;
+        private final String path;
+        private final String mimeType;
+        private final long size;
+        private final String md5;
+        private final long modifiedTime;
+
+        ManifestEntry(String id, String path, String mimeType, long size, String md5, long modifiedTime) {
+            this.id = id;
+            this.path = path;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.md5 = md5;
+            this.modifiedTime = modifiedTime;
+        }
+
+        /**
+         * @return the ID of the file.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the titles of the folders leading to the file from the crawled root, and of the file, joined by
+         * {@code /}.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the MIME type of the file.
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @return whether the file is a folder.
+         */
+        public boolean isFolder() {
+            return DriveImpl.FOLDER_MIME_TYPE.equals(mimeType);
+        }
+
+        /**
+         * @return the size of the file in bytes, or {@code 0} for folders and Google documents.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the MD5 checksum of the file content, or {@code null} for folders and Google documents.
+         */
+        public String getMd5() {
+            return md5;
+        }
+
+        /**
+         * @return the time the file was last modified, in milliseconds since the epoch.
+         */
+        public long getModifiedTime() {
+            return modifiedTime;
+        }
+
+        /**
+         * @return the entry as a JSON object, as written by {@link #jsonLines(Writer)}.
+         */
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("path", path);
+            json.put("mimeType", mimeType);
+            json.put("size", size);
+            if (md5 != null) {
+                json.put("md5", md5);
+            }
+            json.put("modifiedTime", modifiedTime);
+            return json;
+        }
+    }
+
+    /** Receives the manifest of a crawl. Calls are serialized by the crawler, so sinks need not be thread-safe. */
+    public interface ManifestSink {
+
+        /**
+         * Receives a file, exactly once per crawl.
+         *
+         * @param entry the file.
+         * @throws IOException
+         */
+        void accept(ManifestEntry entry) throws IOException;
+
+        /**
+         * Makes the entries received so far durable. Called before every checkpoint.
+         *
+         * @throws IOException
+         */
+        default void flush() throws IOException {
+        }
+    }
+
+    /** The totals of a crawl. */
+    public static final class Stats {
+        private final int folders;
+        private final long files;
+        private final long bytes;
+        private final long duplicates;
+
+        Stats(int folders, long files, long bytes, long duplicates) {
+            this.folders = folders;
+            this.files = files;
+            this.bytes = bytes;
+            this.duplicates = duplicates;
+        }
+
+        /**
+         * @return the number of folders listed.
+         */
+        public int getFolders() {
+            return folders;
+        }
+
+        /**
+         * @return the number of files reported, folders included.
+         */
+        public long getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the total size of the files reported, in bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the number of files found again, through another parent or by re-listing a folder on resume, and
+         * not reported again.
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Stats{folders=%d, files=%d, bytes=%d, duplicates=%d}", folders, files, bytes,
+                duplicates);
+        }
+    }
+
+    private final DriveImpl drive;
+    private final int parallelism;
+    private final Path checkpointFile;
+    private final long checkpointInterval;
+
+    /**
+     * Creates a crawler without checkpoints.
+     *
+     * @param drive the user's Drive wrapper.
+     */
+    public DriveCrawler(DriveImpl drive) {
+        this(drive, DEFAULT_PARALLELISM, null, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param drive              the user's Drive wrapper.
+     * @param parallelism        the maximum number of folders listed at the same time.
+     * @param checkpointFile     the file the state of the crawl is saved to, or {@code null} to disable checkpoints.
+     * @param checkpointInterval the time between two checkpoints, in milliseconds.
+     */
+    public DriveCrawler(DriveImpl drive, int parallelism, Path checkpointFile, long checkpointInterval) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.drive = drive;
+        this.parallelism = parallelism;
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Returns a sink writing each entry as a line of JSON. When a crawl is resumed, the writer should append to the
+     * manifest written by the interrupted crawl.
+     *
+     * @param writer the writer the manifest is written to.
+     * @return the sink.
+     */
+    public static ManifestSink jsonLines(Writer writer) {
+        return new ManifestSink() {
+            @Override
+            public void accept(ManifestEntry entry) throws IOException {
+                writer.write(entry.toJSON().toString());
+                writer.write('\n');
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * Crawls every file under a folder, resuming from the checkpoint file if it holds a crawl of the same folder. The
+     * checkpoint file is deleted once the crawl completes.
+     *
+     * @param rootID the ID of the folder to crawl, for example {@link DriveImpl#ROOT_ID}.
+     * @param sink   receives the manifest.
+     * @return the totals of the crawl, including those of the interrupted crawl it resumed.
+     * @throws IOException if a folder could not be listed or the sink failed. The checkpoint is saved first.
+     */
+    public Stats crawl(String rootID, ManifestSink sink) throws IOException {
+        Crawl crawl = new Crawl(rootID, sink);
+        if (checkpointFile == null || !crawl.restore()) {
+            crawl.seen.add(rootID);
+            crawl.pending.put(rootID, "");
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try {
+            // held while scheduling, so the crawl cannot complete before every pending folder is scheduled
+            crawl.running.incrementAndGet();
+            synchronized (crawl) {
+                for (Map.Entry<String, String> folder : crawl.pending.entrySet()) {
+                    crawl.schedule(pool, folder.getKey(), folder.getValue());
+                }
+            }
+            crawl.finished();
+            await(crawl);
+        } catch (IOException e) {
+            crawl.abort();
+            checkpoint(crawl);
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+        sink.flush();
+        if (checkpointFile != null) {
+            Files.deleteIfExists(checkpointFile);
+        }
+        return crawl.stats();
+    }
+
+    // waits for the crawl to finish, saving a checkpoint at every interval
+    private void await(Crawl crawl) throws IOException {
+        long interval = checkpointFile == null ? Long.MAX_VALUE : checkpointInterval;
+        while (true) {
+            try {
+                crawl.done.get(interval, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                checkpoint(crawl);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while crawling " + crawl.rootID);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Error crawling " + crawl.rootID, e.getCause());
+            }
+        }
+    }
+
+    // saves the pending folders and the files already reported, after flushing the sink so they match its contents
+    private void checkpoint(Crawl crawl) throws IOException {
+        if (checkpointFile == null) {
+            return;
+        }
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        synchronized (crawl) {
+            crawl.sink.flush();
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                JSONObject header = new JSONObject();
+                header.put("root", crawl.rootID);
+                header.put("folders", crawl.folders);
+                header.put("files", crawl.files);
+                header.put("bytes", crawl.bytes);
+                header.put("duplicates", crawl.duplicates);
+                writeLine(out, header);
+                for (Map.Entry<String, String> folder : crawl.pending.entrySet()) {
+                    JSONObject line = new JSONObject();
+                    line.put("pending", folder.getKey());
+                    line.put("path", folder.getValue());
+                    writeLine(out, line);
+                }
+                for (String id : crawl.seen) {
+                    writeLine(out, new JSONObject().put("seen", id));
+                }
+            }
+        }
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeLine(Writer out, JSONObject line) throws IOException {
+        out.write(line.toString());
+        out.write('\n');
+    }
+
+    /**
+     * The state of one crawl. Every folder that has been reported is either pending or fully listed, and the two sets
+     * only change together with the sink, under the lock of this object, so a checkpoint is always consistent.
+     */
+    private final class Crawl {
+        final String rootID;
+        final ManifestSink sink;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final AtomicInteger running = new AtomicInteger();
+        /** Bounds the listings in flight, as the pool may add threads while its workers wait on a page */
+        final Semaphore listings = new Semaphore(parallelism);
+
+        /** Folders not yet fully listed, with their paths */
+        final Map<String, String> pending = new LinkedHashMap<>();
+        /** Files and folders already reported */
+        final Set<String> seen = new HashSet<>();
+        int folders;
+        long files;
+        long bytes;
+        long duplicates;
+
+        Crawl(String rootID, ManifestSink sink) {
+            this.rootID = rootID;
+            this.sink = sink;
+        }
+
+        // loads the checkpoint if it holds a crawl of the same root
+        boolean restore() throws IOException {
+            if (!Files.exists(checkpointFile)) {
+                return false;
+            }
+            try (BufferedReader in = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+                JSONObject header = new JSONObject(in.readLine());
+                if (!rootID.equals(header.getString("root"))) {
+                    return false;
+                }
+                folders = header.getInt("folders");
+                files = header.getLong("files");
+                bytes = header.getLong("bytes");
+                duplicates = header.getLong("duplicates");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    JSONObject json = new JSONObject(line);
+                    if (json.has("pending")) {
+                        pending.put(json.getString("pending"), json.getString("path"));
+                    } else {
+                        seen.add(json.getString("seen"));
+                    }
+                }
+            }
+            return true;
+        }
+
+        void schedule(ForkJoinPool pool, String folderID, String path) {
+            running.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    listings.acquire();
+                    try {
+                        list(pool, folderID, path);
+                    } finally {
+                        listings.release();
+                    }
+                } catch (InterruptedException e) {
+                    done.completeExceptionally(new InterruptedIOException("Interrupted while crawling " + rootID));
+                } catch (IOException | RuntimeException e) {
+                    done.completeExceptionally(e instanceof UncheckedIOException ? e.getCause() : e);
+                } finally {
+                    finished();
+                }
+            });
+        }
+
+        void finished() {
+            if (running.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+        }
+
+        void list(ForkJoinPool pool, String folderID, String path) throws IOException {
+            try (FilePager pager = drive.iterateFilesInFolder(folderID, MANIFEST_FIELDS)) {
+                while (!done.isDone() && pager.hasNext()) {
+                    File file = pager.next();
+                    String filePath = path.isEmpty() ? file.getTitle() : path + "/" + file.getTitle();
+                    ManifestEntry entry = new ManifestEntry(file.getId(), filePath, file.getMimeType(),
+                        file.getFileSize() == null ? 0 : file.getFileSize(), file.getMd5Checksum(),
+                        file.getModifiedDate() == null ? 0 : file.getModifiedDate().getValue());
+                    synchronized (this) {
+                        // once aborted, the checkpoint may already be saved and must stay in step with the sink
+                        if (done.isDone()) {
+                            return;
+                        }
+                        if (seen.contains(entry.getId())) {
+                            duplicates++;
+                            continue;
+                        }
+                        // only marked seen once written, so a failed write is retried when the crawl resumes
+                        sink.accept(entry);
+                        seen.add(entry.getId());
+                        files++;
+                        bytes += entry.getSize();
+                        if (entry.isFolder()) {
+                            pending.put(entry.getId(), filePath);
+                            schedule(pool, entry.getId(), filePath);
+                        }
+                    }
+                }
+            }
+            synchronized (this) {
+                if (!done.isDone()) {
+                    pending.remove(folderID);
+                    folders++;
+                }
+            }
+        }
+
+        // stops the listings still running, which leave their folders pending
+        void abort() {
+            done.completeExceptionally(new IOException("Crawl of " + rootID + " aborted."));
+        }
+
+        synchronized Stats stats() {
+            return new Stats(folders, files, bytes, duplicates);
+        }
+    }
+}
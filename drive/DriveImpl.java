@@ -3,18 +3,30 @@ package com.ps.google.drive;
 import org.json.JSONObject;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.io.FileWriter;
-import java.io.BufferedWriter;
 import org.apache.commons.io.IOUtils;
 
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.FileContent;
 import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.util.DateTime;
+import com.google.api.client.util.ExponentialBackOff;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
 import com.google.api.services.drive.model.ParentReference;
 import com.google.api.services.drive.model.Permission;
+import com.google.api.services.drive.model.PermissionList;
 import com.ps.ddintegration.DownloadFile;
+import com.ps.google.AccessTokenManager;
+import com.ps.google.BatchExecutor;
+import com.ps.google.BatchOperation;
+import com.ps.google.BatchResult;
 import com.ps.google.GoogleOauth2Impl;
 import com.google.common.io.Files;
 import com.google.common.base.Charsets;
@@ -22,18 +34,24 @@ import com.google.common.base.Charsets;
 import javax.activation.MimetypesFileTypeMap;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.NoSuchElementException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.List;
-import java.util.Iterator;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.stream.Stream;
 
 /**
  * Class which contains helper methods used to communicate with the Google Drive API.
@@ -43,20 +61,99 @@ public class DriveImpl extends GoogleOauth2Impl {
     /** Root folder ID */
     public static final String ROOT_ID = "root";
 
+    /** The MIME type of folders */
+    public static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+
     /** The default result size */
     protected static final int DEFAULT_RESULT_SIZE = 100;
 
+    /** The name of the API, used to share rate limits between a user's wrappers */
+    protected static final String API_NAME = "drive";
+
+    /** The page size used when following every page of a listing */
+    protected static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /** The file fields retrieved by default when streaming a listing */
+    public static final String DEFAULT_FILE_FIELDS =
+        "id,title,mimeType,fileSize,md5Checksum,modifiedDate,parents(id)";
+
+    /** The default number of bytes sent per request by resumable uploads */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * MediaHttpUploader.MINIMUM_CHUNK_SIZE;
+
+    /** The maximum number of operations sent in one batch request */
+    protected static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** Files smaller than this are always downloaded with a single request */
+    public static final long PARALLEL_DOWNLOAD_THRESHOLD = 2L * ParallelDownloader.DEFAULT_RANGE_SIZE;
+
     /** The main class used to make API calls to Drive */
     protected Drive service;
 
+    /** Client used for resumable uploads, created on first use */
+    private Drive uploadService;
+
+    /** Cache of file metadata, or {@code null} if metadata is not cached */
+    protected final FileMetadataCache metadataCache;
+
+    /** Index of the user's files kept up to date by this instance, or {@code null} */
+    protected DriveSearchIndex searchIndex;
+
     /**
      * Default constructor.
      *
      * @param token the user's access token used for authentication.
      */
     public DriveImpl(String token) {
+        this(token, (FileMetadataCache) null);
+    }
+
+    /**
+     * Constructor used to cache file metadata between calls.
+     *
+     * @param token         the user's access token used for authentication.
+     * @param metadataCache the cache of the user's file metadata, or {@code null} to disable caching.
+     */
+    public DriveImpl(String token, FileMetadataCache metadataCache) {
         super(token);
-        service = new Drive.Builder(httpTransport, jsonFactory, credential).setApplicationName(GoogleOauth2Impl.APP_NAME).build();
+        this.metadataCache = metadataCache;
+        service = new Drive.Builder(httpTransport, jsonFactory, requestInitializer(API_NAME)).setApplicationName(GoogleOauth2Impl.APP_NAME).build();
+    }
+
+    /**
+     * Constructor used to take the user's credential from a token manager. Callers use {@link #forUser}, which cannot
+     * be confused with the token constructors when passed {@code null}.
+     *
+     * @param userId        the ID of the user.
+     * @param tokenManager  the manager holding the user's credential.
+     * @param metadataCache the cache of the user's file metadata, or {@code null} to disable caching.
+     */
+    protected DriveImpl(String userId, AccessTokenManager tokenManager, FileMetadataCache metadataCache) {
+        super(userId, tokenManager);
+        this.metadataCache = metadataCache;
+        service = new Drive.Builder(httpTransport, jsonFactory, requestInitializer(API_NAME)).setApplicationName(GoogleOauth2Impl.APP_NAME).build();
+    }
+
+    /**
+     * Creates a wrapper taking the user's credential from a token manager.
+     *
+     * @param userId       the ID of the user.
+     * @param tokenManager the manager holding the user's credential.
+     * @return the wrapper.
+     */
+    public static DriveImpl forUser(String userId, AccessTokenManager tokenManager) {
+        return forUser(userId, tokenManager, null);
+    }
+
+    /**
+     * Creates a wrapper taking the user's credential from a token manager and caching file metadata between calls.
+     *
+     * @param userId        the ID of the user.
+     * @param tokenManager  the manager holding the user's credential.
+     * @param metadataCache the cache of the user's file metadata, or {@code null} to disable caching.
+     * @return the wrapper.
+     */
+    public static DriveImpl forUser(String userId, AccessTokenManager tokenManager, FileMetadataCache metadataCache) {
+        return new DriveImpl(userId, tokenManager, metadataCache);
     }
 
     /**
@@ -68,22 +165,25 @@ public class DriveImpl extends GoogleOauth2Impl {
      * @throws IOException
      */
     public FileList getFilesInFolder(String folderID, int numFiles) throws IOException {
-        FileList fileList = service.files().list()
-            .setQ(String.format("'%s' in parents", folderID))
+        FileList files = service.files().list()
+            .setQ(folderQuery(folderID))
             .setMaxResults(numFiles)
             .execute();
-        List<File> list = fileList.getItems();
-        Iterator<File> i = list.iterator();
-        while (i.hasNext()) {
-            File file = i.next();
-            //            log(file);
-
-            File.Labels labels = file.getLabels();
-            if (labels.getTrashed())
-                i.remove();
+        if (searchIndex != null) {
+            searchIndex.putAll(files.getItems());
         }
+        return files;
+    }
 
-        return fileList;
+    /**
+     * Asynchronous variant of {@link #getFilesInFolder(String, int)}.
+     *
+     * @param folderID the folder ID in which to search for files.
+     * @param numFiles the number of files to retrieve.
+     * @return a future completed with a <code>FileList</code> containing all files in a specified folder.
+     */
+    public CompletableFuture<FileList> getFilesInFolderAsync(String folderID, int numFiles) {
+        return async(() -> getFilesInFolder(folderID, numFiles));
     }
 
     /**
@@ -97,6 +197,67 @@ public class DriveImpl extends GoogleOauth2Impl {
         return getFilesInFolder(folderID, DEFAULT_RESULT_SIZE);
     }
 
+    /**
+     * Asynchronous variant of {@link #getFilesInFolder(String)}.
+     *
+     * @param folderID the folder ID in which to search for files.
+     * @return a future completed with the files in the folder.
+     */
+    public CompletableFuture<FileList> getFilesInFolderAsync(String folderID) {
+        return async(() -> getFilesInFolder(folderID));
+    }
+
+    /**
+     * Used to lazily iterate over all files in a specified folder, following every page of results.
+     *
+     * @param folderID the folder ID in which to search for files.
+     * @param fields   the file fields to retrieve, for example {@code "id,title,mimeType"}, or {@code null} to
+     *                 retrieve full file resources.
+     * @return a {@link FilePager} over all files in the specified folder.
+     */
+    public FilePager iterateFilesInFolder(String folderID, String fields) {
+        return iterateFiles(folderQuery(folderID), fields);
+    }
+
+    /**
+     * Used to lazily iterate over all files matching a query, following every page of results.
+     *
+     * @param query  the Drive query the files must match.
+     * @param fields the file fields to retrieve, or {@code null} to retrieve full file resources.
+     * @return a {@link FilePager} over all matching files.
+     */
+    protected FilePager iterateFiles(String query, String fields) {
+        String pageFields = fields == null ? null : String.format("nextPageToken,items(%s)", fields);
+        return new FilePager(pageToken -> service.files().list()
+            .setQ(query)
+            .setMaxResults(DEFAULT_PAGE_SIZE)
+            .setPageToken(pageToken)
+            .setFields(pageFields)
+            .execute());
+    }
+
+    /**
+     * Used to lazily stream all files in a specified folder, following every page of results. The stream should be
+     * closed if it is not fully consumed.
+     *
+     * @param folderID the folder ID in which to search for files.
+     * @param fields   the file fields to retrieve, or {@code null} to retrieve full file resources.
+     * @return a lazily paged stream of the files in the specified folder.
+     */
+    public Stream<File> streamFilesInFolder(String folderID, String fields) {
+        return iterateFilesInFolder(folderID, fields).stream();
+    }
+
+    /**
+     * Used to lazily stream all files in a specified folder, retrieving only {@link #DEFAULT_FILE_FIELDS}.
+     *
+     * @param folderID the folder ID in which to search for files.
+     * @return a lazily paged stream of the files in the specified folder.
+     */
+    public Stream<File> streamFilesInFolder(String folderID) {
+        return streamFilesInFolder(folderID, DEFAULT_FILE_FIELDS);
+    }
+
     /**
      * Shares a specified file by inserting a new permission for the specified file.
      *
@@ -112,7 +273,22 @@ public class DriveImpl extends GoogleOauth2Impl {
         permission.setValue(value);
         permission.setType(type);
         permission.setRole(role);
-        return service.permissions().insert(fileID, permission).execute();
+        Permission inserted = service.permissions().insert(fileID, permission).execute();
+        invalidateMetadata(fileID);
+        return inserted;
+    }
+
+    /**
+     * Asynchronous variant of {@link #shareDoc(String, String, String, String)}.
+     *
+     * @param fileID ID of the file to share.
+     * @param value  email address of the person to share it with.
+     * @param type   the value "user", "group", "domain" or "default".
+     * @param role   the value "owner", "writer" or "reader".
+     * @return a future completed with the inserted permission.
+     */
+    public CompletableFuture<Permission> shareDocAsync(String fileID, String value, String type, String role) {
+        return async(() -> shareDoc(fileID, value, type, role));
     }
 
     /**
@@ -123,6 +299,21 @@ public class DriveImpl extends GoogleOauth2Impl {
      */
     public void unShareDoc(String fileID, String permissionID) throws IOException {
         service.permissions().delete(fileID, permissionID).execute();
+        invalidateMetadata(fileID);
+    }
+
+    /**
+     * Asynchronous variant of {@link #unShareDoc(String, String)}.
+     *
+     * @param fileID       ID of the file to remove permission for.
+     * @param permissionID ID of the permission to remove.
+     * @return a future completed once the permission is removed.
+     */
+    public CompletableFuture<Void> unShareDocAsync(String fileID, String permissionID) {
+        return async(() -> {
+            unShareDoc(fileID, permissionID);
+            return null;
+        });
     }
 
     /**
@@ -134,12 +325,176 @@ public class DriveImpl extends GoogleOauth2Impl {
      * @throws java.io.IOException
      */
     public Permission getExistingPermission(String fileID, String email) throws java.io.IOException {
-        try {
-            return service.permissions().list(fileID).execute().getItems().stream()
-                .filter(p -> p.getEmailAddress().equals(email)).findFirst().get();
-        } catch (NoSuchElementException e) {
-            return null;
+        return getPermissionIndex(fileID).get(email);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getExistingPermission(String, String)}.
+     *
+     * @param fileID ID of the file to look for existing permissions for.
+     * @param email  user's email address to look for existing permissions for.
+     * @return a future completed with the {@link Permission} object if one could be found or {@code null} if no
+     *         existing permission exists.
+     */
+    public CompletableFuture<Permission> getExistingPermissionAsync(String fileID, String email) {
+        return async(() -> getExistingPermission(fileID, email));
+    }
+
+    /**
+     * Lists the permissions of a file and indexes them by email address.
+     *
+     * @param fileID ID of the file to list permissions for.
+     * @return the {@link PermissionIndex} of the file.
+     * @throws IOException
+     */
+    public PermissionIndex getPermissionIndex(String fileID) throws IOException {
+        return new PermissionIndex(service.permissions().list(fileID).execute().getItems());
+    }
+
+    /**
+     * Asynchronous variant of {@link #getPermissionIndex(String)}.
+     *
+     * @param fileID ID of the file to list permissions for.
+     * @return a future completed with the {@link PermissionIndex} of the file.
+     */
+    public CompletableFuture<PermissionIndex> getPermissionIndexAsync(String fileID) {
+        return async(() -> getPermissionIndex(fileID));
+    }
+
+    /**
+     * Lists the permissions of many files using batch requests.
+     *
+     * @param fileIDs IDs of the files to list permissions for.
+     * @return the {@link PermissionIndex} of each file, keyed by file ID. Files whose permissions could not be listed
+     * are left out and logged.
+     */
+    public Map<String, PermissionIndex> getPermissionIndexes(Collection<String> fileIDs) {
+        List<BatchOperation<PermissionList>> operations = new ArrayList<>();
+        for (String fileID : fileIDs) {
+            operations.add(new BatchOperation<>(fileID,
+                (batch, callback) -> service.permissions().list(fileID).queue(batch, callback)));
+        }
+        Map<String, PermissionIndex> indexes = new HashMap<>();
+        for (BatchResult<PermissionList> result : batchExecutor().execute(operations)) {
+            if (result.isSuccess()) {
+                indexes.put(result.getKey(), new PermissionIndex(result.getValue().getItems()));
+            } else {
+                log(result);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Asynchronous variant of {@link #getPermissionIndexes(Collection)}.
+     *
+     * @param fileIDs IDs of the files to list permissions for.
+     * @return a future completed with the {@link PermissionIndex} of each file, keyed by file ID. Files whose
+     *         permissions could not be listed are left out and logged.
+     */
+    public CompletableFuture<Map<String, PermissionIndex>> getPermissionIndexesAsync(Collection<String> fileIDs) {
+        return async(() -> getPermissionIndexes(fileIDs));
+    }
+
+    /**
+     * Shares many files with many users or groups using batch requests. Permissions which already exist are updated
+     * to the specified role, and left untouched if they already have it.
+     *
+     * @param fileIDs IDs of the files to share.
+     * @param values  User or group e-mail addresses, or domain names.
+     * @param type    The value "user", "group", "domain" or "default".
+     * @param role    The value "owner", "writer" or "reader".
+     * @return the result for each file and value, keyed by {@code fileID + "/" + value}.
+     */
+    public List<BatchResult<Permission>> shareDocs(Collection<String> fileIDs, Collection<String> values,
+                                                   String type, String role) {
+        Map<String, PermissionIndex> indexes = getPermissionIndexes(fileIDs);
+        List<BatchResult<Permission>> results = new ArrayList<>();
+        List<BatchOperation<Permission>> operations = new ArrayList<>();
+        for (String fileID : fileIDs) {
+            PermissionIndex index = indexes.get(fileID);
+            for (String value : values) {
+                String key = fileID + "/" + value;
+                if (index == null) {
+                    results.add(BatchResult.failure(key, new IOException("Could not list permissions of " + fileID)));
+                    continue;
+                }
+                Permission existing = index.get(value);
+                if (existing == null) {
+                    Permission permission = new Permission().setValue(value).setType(type).setRole(role);
+                    operations.add(new BatchOperation<>(key,
+                        (batch, callback) -> service.permissions().insert(fileID, permission).queue(batch, callback)));
+                } else if (role.equals(existing.getRole())) {
+                    results.add(BatchResult.success(key, existing));
+                } else {
+                    Permission permission = existing.clone().setRole(role);
+                    operations.add(new BatchOperation<>(key, (batch, callback) ->
+                        service.permissions().update(fileID, permission.getId(), permission).queue(batch, callback)));
+                }
+            }
+        }
+        results.addAll(batchExecutor().execute(operations));
+        fileIDs.forEach(this::invalidateMetadata);
+        return results;
+    }
+
+    /**
+     * Asynchronous variant of {@link #shareDocs(Collection, Collection, String, String)}.
+     *
+     * @param fileIDs IDs of the files to share.
+     * @param values  User or group e-mail addresses, or domain names.
+     * @param type    The value "user", "group", "domain" or "default".
+     * @param role    The value "owner", "writer" or "reader".
+     * @return a future completed with the result for each file and value, keyed by {@code fileID + "/" + value}.
+     */
+    public CompletableFuture<List<BatchResult<Permission>>> shareDocsAsync(Collection<String> fileIDs,
+                                                                           Collection<String> values, String type,
+                                                                           String role) {
+        return async(() -> shareDocs(fileIDs, values, type, role));
+    }
+
+    /**
+     * Removes the permissions of many users or groups from many files using batch requests. Values without a
+     * permission on a file are reported as successful.
+     *
+     * @param fileIDs IDs of the files to remove permissions from.
+     * @param emails  User or group e-mail addresses.
+     * @return the result for each file and email, keyed by {@code fileID + "/" + email}.
+     */
+    public List<BatchResult<Void>> unShareDocs(Collection<String> fileIDs, Collection<String> emails) {
+        Map<String, PermissionIndex> indexes = getPermissionIndexes(fileIDs);
+        List<BatchResult<Void>> results = new ArrayList<>();
+        List<BatchOperation<Void>> operations = new ArrayList<>();
+        for (String fileID : fileIDs) {
+            PermissionIndex index = indexes.get(fileID);
+            for (String email : emails) {
+                String key = fileID + "/" + email;
+                Permission existing = index == null ? null : index.get(email);
+                if (index == null) {
+                    results.add(BatchResult.failure(key, new IOException("Could not list permissions of " + fileID)));
+                } else if (existing == null) {
+                    results.add(BatchResult.success(key, null));
+                } else {
+                    operations.add(new BatchOperation<>(key, (batch, callback) ->
+                        service.permissions().delete(fileID, existing.getId()).queue(batch, callback)));
+                }
+            }
         }
+        results.addAll(batchExecutor().execute(operations));
+        fileIDs.forEach(this::invalidateMetadata);
+        return results;
+    }
+
+    /**
+     * Asynchronous variant of {@link #unShareDocs(Collection, Collection)}.
+     *
+     * @param fileIDs IDs of the files to remove permissions from.
+     * @param emails  User or group e-mail addresses.
+     * @return a future completed with the result for each file and email, keyed by {@code fileID + "/" + email}.
+     */
+    public CompletableFuture<List<BatchResult<Void>>> unShareDocsAsync(Collection<String> fileIDs,
+                                                                       Collection<String> emails) {
+        return async(() -> unShareDocs(fileIDs, emails));
     }
 
     /**
@@ -153,7 +508,21 @@ public class DriveImpl extends GoogleOauth2Impl {
      */
     public Permission updatePermission(String fileID, Permission permission, String role) throws IOException {
         permission.setRole(role);
-        return service.permissions().update(fileID, permission.getId(), permission).execute();
+        Permission updated = service.permissions().update(fileID, permission.getId(), permission).execute();
+        invalidateMetadata(fileID);
+        return updated;
+    }
+
+    /**
+     * Asynchronous variant of {@link #updatePermission(String, Permission, String)}.
+     *
+     * @param fileID     ID of the file to update existing permissions for.
+     * @param permission the object to be updated.
+     * @param role       the new role of the existing permission.
+     * @return a future completed with the updated {@link Permission} object.
+     */
+    public CompletableFuture<Permission> updatePermissionAsync(String fileID, Permission permission, String role) {
+        return async(() -> updatePermission(fileID, permission, role));
     }
 
     /**
@@ -165,17 +534,51 @@ public class DriveImpl extends GoogleOauth2Impl {
      * @throws IOException
      */
     public File moveFile(String fileID, String newParentID) throws IOException {
-        File file = service.files().get(fileID).execute();
+        File file = getFileMetadata(fileID).clone();
 
         // make sure the parent id is valid
         if (newParentID != null && !newParentID.isEmpty()) {
             file.setParents(Collections.singletonList(new ParentReference().setId(newParentID)));
-            return service.files().update(fileID, file).execute();
+            Drive.Files.Update update = service.files().update(fileID, file);
+            if (metadataCache != null) {
+                // the metadata may be cached, so make sure it is not overwriting a newer version
+                update.getRequestHeaders().setIfMatch(file.getEtag());
+            }
+            File updated;
+            try {
+                updated = update.execute();
+            } catch (HttpResponseException e) {
+                if (e.getStatusCode() != HttpStatusCodes.STATUS_CODE_PRECONDITION_FAILED) {
+                    throw e;
+                }
+                invalidateMetadata(fileID);
+                file = service.files().get(fileID).execute();
+                file.setParents(Collections.singletonList(new ParentReference().setId(newParentID)));
+                updated = service.files().update(fileID, file).execute();
+            }
+            if (metadataCache != null) {
+                metadataCache.put(fileID, updated);
+            }
+            if (searchIndex != null) {
+                searchIndex.put(updated);
+            }
+            return updated;
         } else {
             return null;
         }
     }
 
+    /**
+     * Asynchronous variant of {@link #moveFile(String, String)}.
+     *
+     * @param fileID      ID of the file to move.
+     * @param newParentID ID of the folder to move the file to.
+     * @return a future completed with the moved file.
+     */
+    public CompletableFuture<File> moveFileAsync(String fileID, String newParentID) {
+        return async(() -> moveFile(fileID, newParentID));
+    }
+
     /**
      * Uploads a file to Drive.
      *
@@ -196,8 +599,24 @@ public class DriveImpl extends GoogleOauth2Impl {
         }
         FileContent mediaContent = new FileContent(mimeType, upFile);
 
-        service.files().insert(body, mediaContent).execute();
+        File uploaded = service.files().insert(body, mediaContent).execute();
+        if (searchIndex != null) {
+            searchIndex.put(uploaded);
+        }
+    }
 
+    /**
+     * Asynchronous variant of {@link #uploadFile(java.io.File, String)}.
+     *
+     * @param upFile   File to be uploaded to drive.
+     * @param parentId String id referring who the parent of the file should be.
+     * @return a future completed once the file is uploaded.
+     */
+    public CompletableFuture<Void> uploadFileAsync(java.io.File upFile, String parentId) {
+        return async(() -> {
+            uploadFile(upFile, parentId);
+            return null;
+        });
     }
 
     /**
@@ -209,12 +628,6 @@ public class DriveImpl extends GoogleOauth2Impl {
      */
     public void putFile(String upFile, String parentId, String name) throws IOException {
 
-        java.io.File temp = java.io.File.createTempFile("tempfile", ".tmp");
-
-        BufferedWriter bw = new BufferedWriter(new FileWriter(temp));
-        bw.write(upFile);
-        bw.close();
-
         File body = new File();
         body.setTitle(name);
         String mimeType = "";
@@ -224,13 +637,208 @@ public class DriveImpl extends GoogleOauth2Impl {
             body.setParents(Collections.singletonList(new ParentReference().setId(parentId)));
 
         }
-        FileContent mediaContent = new FileContent(mimeType, temp);
+        ByteArrayContent mediaContent = ByteArrayContent.fromString(mimeType, upFile);
+
+        File uploaded = service.files().insert(body, mediaContent).execute();
+        if (searchIndex != null) {
+            searchIndex.put(uploaded);
+        }
+    }
 
-        try {
-            File resp = service.files().insert(body, mediaContent).execute();
-        } catch (IOException e) {
-            Logger.getLogger(DriveImpl.class.getName()).log(Level.WARNING, e.toString());
-        } 
+    /**
+     * Asynchronous variant of {@link #putFile(String, String, String)}.
+     *
+     * @param upFile   File to be uploaded to drive.
+     * @param parentId String id referring who the parent of the file should be.
+     * @param name     the title of the new file.
+     * @return a future completed once the file is uploaded.
+     */
+    public CompletableFuture<Void> putFileAsync(String upFile, String parentId, String name) {
+        return async(() -> {
+            putFile(upFile, parentId, name);
+            return null;
+        });
+    }
+
+    /**
+     * Uploads a file to Drive using a resumable upload.
+     *
+     * @param upFile    File to be uploaded to drive.
+     * @param parentId  String id referring who the parent of the file should be.
+     * @param chunkSize the number of bytes sent per request, a multiple of
+     *                  {@link MediaHttpUploader#MINIMUM_CHUNK_SIZE}.
+     * @param listener  notified as the upload progresses, or {@code null}.
+     * @return the uploaded file.
+     * @throws IOException
+     */
+    public File uploadFile(java.io.File upFile, String parentId, int chunkSize,
+                           MediaHttpUploaderProgressListener listener) throws IOException {
+        String mimeType = new MimetypesFileTypeMap().getContentType(upFile);
+        return uploadResumable(new FileContent(mimeType, upFile), upFile.getName(), parentId, chunkSize, listener);
+    }
+
+    /**
+     * Asynchronous variant of {@link #uploadFile(java.io.File, String, int, MediaHttpUploaderProgressListener)}.
+     *
+     * @param upFile    File to be uploaded to drive.
+     * @param parentId  String id referring who the parent of the file should be.
+     * @param chunkSize the number of bytes sent per request, a multiple of
+     *                  {@link MediaHttpUploader#MINIMUM_CHUNK_SIZE}.
+     * @param listener  notified as the upload progresses, or {@code null}.
+     * @return a future completed with the uploaded file.
+     */
+    public CompletableFuture<File> uploadFileAsync(java.io.File upFile, String parentId, int chunkSize,
+                                                   MediaHttpUploaderProgressListener listener) {
+        return async(() -> uploadFile(upFile, parentId, chunkSize, listener));
+    }
+
+    /**
+     * Uploads the content of a stream to Drive using a resumable upload. The stream is read chunk by chunk and is
+     * closed once the upload completes.
+     *
+     * @param in        the stream to upload.
+     * @param length    the number of bytes in the stream, or {@code -1} if unknown.
+     * @param name      the title of the new file.
+     * @param mimeType  the MIME type of the content.
+     * @param parentId  String id referring who the parent of the file should be.
+     * @param chunkSize the number of bytes sent per request.
+     * @param listener  notified as the upload progresses, or {@code null}.
+     * @return the uploaded file.
+     * @throws IOException
+     */
+    public File uploadStream(InputStream in, long length, String name, String mimeType, String parentId,
+                             int chunkSize, MediaHttpUploaderProgressListener listener) throws IOException {
+        InputStreamContent mediaContent = new InputStreamContent(mimeType, in);
+        mediaContent.setLength(length);
+        return uploadResumable(mediaContent, name, parentId, chunkSize, listener);
+    }
+
+    /**
+     * Asynchronous variant of {@link #uploadStream(InputStream, long, String, String, String, int, MediaHttpUploaderProgressListener)}.
+     *
+     * @param in        the stream to upload.
+     * @param length    the number of bytes in the stream, or {@code -1} if unknown.
+     * @param name      the title of the new file.
+     * @param mimeType  the MIME type of the content.
+     * @param parentId  String id referring who the parent of the file should be.
+     * @param chunkSize the number of bytes sent per request.
+     * @param listener  notified as the upload progresses, or {@code null}.
+     * @return a future completed with the uploaded file.
+     */
+    public CompletableFuture<File> uploadStreamAsync(InputStream in, long length, String name, String mimeType,
+                                                     String parentId, int chunkSize,
+                                                     MediaHttpUploaderProgressListener listener) {
+        return async(() -> uploadStream(in, length, name, mimeType, parentId, chunkSize, listener));
+    }
+
+    /**
+     * Uploads the remaining bytes of a buffer to Drive using a resumable upload. The buffer's position is not changed.
+     *
+     * @param buffer    the buffer to upload.
+     * @param name      the title of the new file.
+     * @param mimeType  the MIME type of the content.
+     * @param parentId  String id referring who the parent of the file should be.
+     * @param chunkSize the number of bytes sent per request.
+     * @param listener  notified as the upload progresses, or {@code null}.
+     * @return the uploaded file.
+     * @throws IOException
+     */
+    public File uploadBuffer(ByteBuffer buffer, String name, String mimeType, String parentId,
+                             int chunkSize, MediaHttpUploaderProgressListener listener) throws IOException {
+        AbstractInputStreamContent mediaContent;
+        if (buffer.hasArray()) {
+            mediaContent = new ByteArrayContent(mimeType, buffer.array(),
+                buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            mediaContent = new InputStreamContent(mimeType, new ByteBufferInputStream(buffer.duplicate()))
+                .setLength(buffer.remaining());
+        }
+        return uploadResumable(mediaContent, name, parentId, chunkSize, listener);
+    }
+
+    /**
+     * Asynchronous variant of {@link #uploadBuffer(ByteBuffer, String, String, String, int, MediaHttpUploaderProgressListener)}.
+     *
+     * @param buffer    the buffer to upload.
+     * @param name      the title of the new file.
+     * @param mimeType  the MIME type of the content.
+     * @param parentId  String id referring who the parent of the file should be.
+     * @param chunkSize the number of bytes sent per request.
+     * @param listener  notified as the upload progresses, or {@code null}.
+     * @return a future completed with the uploaded file.
+     */
+    public CompletableFuture<File> uploadBufferAsync(ByteBuffer buffer, String name, String mimeType, String parentId,
+                                                     int chunkSize, MediaHttpUploaderProgressListener listener) {
+        return async(() -> uploadBuffer(buffer, name, mimeType, parentId, chunkSize, listener));
+    }
+
+    /**
+     * Uploads content to Drive using the resumable protocol. The content is sent in chunks, and if the connection
+     * drops the upload resumes from the last byte acknowledged by the server instead of starting over.
+     *
+     * @param mediaContent the content to upload.
+     * @param name         the title of the new file.
+     * @param parentId     String id referring who the parent of the file should be.
+     * @param chunkSize    the number of bytes sent per request.
+     * @param listener     notified as the upload progresses, or {@code null}.
+     * @return the uploaded file.
+     * @throws IOException
+     */
+    public File uploadResumable(AbstractInputStreamContent mediaContent, String name, String parentId,
+                                int chunkSize, MediaHttpUploaderProgressListener listener) throws IOException {
+        File body = new File();
+        body.setTitle(name);
+        body.setMimeType(mediaContent.getType());
+        // Set the parent folder.
+        if (parentId != null && parentId.length() > 0) {
+            body.setParents(Collections.singletonList(new ParentReference().setId(parentId)));
+        }
+
+        Drive.Files.Insert insert = getUploadService().files().insert(body, mediaContent);
+        MediaHttpUploader uploader = insert.getMediaHttpUploader();
+        uploader.setDirectUploadEnabled(false);
+        uploader.setChunkSize(chunkSize);
+        if (listener != null) {
+            uploader.setProgressListener(listener);
+        }
+        File uploaded = insert.execute();
+        if (searchIndex != null) {
+            searchIndex.put(uploaded);
+        }
+        return uploaded;
+    }
+
+    /**
+     * Asynchronous variant of {@link #uploadResumable(AbstractInputStreamContent, String, String, int, MediaHttpUploaderProgressListener)}.
+     *
+     * @param mediaContent the content to upload.
+     * @param name         the title of the new file.
+     * @param parentId     String id referring who the parent of the file should be.
+     * @param chunkSize    the number of bytes sent per request.
+     * @param listener     notified as the upload progresses, or {@code null}.
+     * @return a future completed with the uploaded file.
+     */
+    public CompletableFuture<File> uploadResumableAsync(AbstractInputStreamContent mediaContent, String name,
+                                                        String parentId, int chunkSize,
+                                                        MediaHttpUploaderProgressListener listener) {
+        return async(() -> uploadResumable(mediaContent, name, parentId, chunkSize, listener));
+    }
+
+    /**
+     * Returns the client used for resumable uploads. Its requests retry dropped connections with exponential backoff,
+     * which lets the uploader query the server for the committed offset and resume from there.
+     *
+     * @return the upload client.
+     */
+    protected synchronized Drive getUploadService() {
+        if (uploadService == null) {
+            // the backoff handler is set first so the metrics initializer wraps it rather than being replaced by it
+            uploadService = new Drive.Builder(httpTransport, jsonFactory, request -> {
+                request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(new ExponentialBackOff()));
+                requestInitializer(API_NAME).initialize(request);
+            }).setApplicationName(GoogleOauth2Impl.APP_NAME).build();
+        }
+        return uploadService;
     }
 
     /**
@@ -241,7 +849,7 @@ public class DriveImpl extends GoogleOauth2Impl {
      * @throws IOException
      */
     public DownloadFile downloadFile(String fileID) throws IOException {
-        File file = service.files().get(fileID).execute();
+        File file = getFileMetadata(fileID);
         if (file == null) {
             throw new FileNotFoundException(String.format("File with ID: %s could not be found.", fileID));
         }
@@ -252,6 +860,49 @@ public class DriveImpl extends GoogleOauth2Impl {
         return new DownloadFile(fileName, fileSize, inputStream);
     }
    
+    /**
+     * Downloads a file, fetching byte ranges of large files concurrently. Files smaller than
+     * {@link #PARALLEL_DOWNLOAD_THRESHOLD}, or without a known size, are downloaded sequentially.
+     *
+     * @param fileID      The ID of the file to be downloaded.
+     * @param parallelism the maximum number of ranges fetched at the same time.
+     * @return the file downloaded
+     * @throws IOException
+     */
+    public DownloadFile downloadFile(String fileID, int parallelism) throws IOException {
+        File file = getFileMetadata(fileID);
+        if (file == null) {
+            throw new FileNotFoundException(String.format("File with ID: %s could not be found.", fileID));
+        }
+        Long fileSize = file.getFileSize();
+        if (fileSize == null || fileSize < PARALLEL_DOWNLOAD_THRESHOLD || parallelism < 2) {
+            InputStream inputStream = service.files().get(file.getId()).executeMediaAsInputStream();
+            return new DownloadFile(file.getTitle(), fileSize == null ? 0 : fileSize, inputStream);
+        }
+        return new ParallelDownloader(service, parallelism).download(file);
+    }
+
+    /**
+     * Asynchronous variant of {@link #downloadFile(String, int)}.
+     *
+     * @param fileID      The ID of the file to be downloaded.
+     * @param parallelism the maximum number of ranges fetched at the same time.
+     * @return a future completed with the file downloaded.
+     */
+    public CompletableFuture<DownloadFile> downloadFileAsync(String fileID, int parallelism) {
+        return async(() -> downloadFile(fileID, parallelism));
+    }
+
+    /**
+     * Asynchronous variant of {@link #downloadFile(String)}.
+     *
+     * @param fileID The ID of the file to be downloaded.
+     * @return a future completed with the file downloaded.
+     */
+    public CompletableFuture<DownloadFile> downloadFileAsync(String fileID) {
+        return async(() -> downloadFile(fileID));
+    }
+
     /**
      * Return a file
      *
@@ -260,7 +911,7 @@ public class DriveImpl extends GoogleOauth2Impl {
      * @throws IOException
      */
     public String returnFile(String fileID) throws IOException {
-        File file = service.files().get(fileID).execute();
+        File file = getFileMetadata(fileID);
         if (file == null) {
             throw new FileNotFoundException(String.format("File with ID: %s could not be found.", fileID));
         }
@@ -283,14 +934,234 @@ public class DriveImpl extends GoogleOauth2Impl {
     }
 
     /**
-     * Search for files and folders.
+     * Asynchronous variant of {@link #returnFile(String)}.
+     *
+     * @param fileID The ID of the file to be downloaded.
+     * @return a future completed with the file downloaded.
+     */
+    public CompletableFuture<String> returnFileAsync(String fileID) {
+        return async(() -> returnFile(fileID));
+    }
+
+    /**
+     * Search for files and folders, in the search index once it is warm and on Drive otherwise.
      *
      * @param query The words contained in the title.
-     * @return a <code>FileList</code> containing all files that match the query.
+     * @return a <code>FileList</code> containing up to {@link #DEFAULT_RESULT_SIZE} files that match the query.
      * @throws IOException
      */
     public FileList search(String query) throws IOException {
-        return service.files().list().setQ(String.format("title contains '%s'", query)).execute();
+        return search(query, null, DEFAULT_RESULT_SIZE);
+    }
+
+    /**
+     * Search for files and folders matching a filter. Once the search index is warm, the search is answered from it
+     * without a request; until then every page of results is fetched from Drive, and the files found are indexed.
+     *
+     * @param query  The words contained in the title, or {@code null} to match every title.
+     * @param filter the criteria the files must also match, or {@code null}.
+     * @param limit  the maximum number of files returned.
+     * @return a <code>FileList</code> containing the files that match the query.
+     * @throws IOException
+     * @throws IllegalArgumentException if the query is not {@code null} but has no words, such as a blank or
+     *                                  punctuation-only query.
+     */
+    public FileList search(String query, DriveSearchIndex.Filter filter, int limit) throws IOException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit must be positive: " + limit);
+        }
+        // checked before choosing where to search, so both answer such a query the same way
+        if (query != null && DriveSearchIndex.tokenize(query).isEmpty()) {
+            throw new IllegalArgumentException("The query has no words: \"" + query + "\"");
+        }
+        if (searchIndex != null && searchIndex.isWarm()) {
+            return new FileList().setItems(searchIndex.search(query, filter, limit));
+        }
+        String q = searchQuery(query, filter);
+        List<File> items = new ArrayList<>();
+        String pageToken = null;
+        do {
+            FileList page = service.files().list()
+                .setQ(q)
+                .setMaxResults(Math.min(DEFAULT_PAGE_SIZE, limit - items.size()))
+                .setPageToken(pageToken)
+                .execute();
+            if (page.getItems() != null) {
+                items.addAll(page.getItems());
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null && !pageToken.isEmpty() && items.size() < limit);
+        if (searchIndex != null) {
+            searchIndex.putAll(items);
+        }
+        return new FileList().setItems(items);
+    }
+
+    /**
+     * Asynchronous variant of {@link #search(String, DriveSearchIndex.Filter, int)}.
+     *
+     * @param query  The words contained in the title, or {@code null} to match every title.
+     * @param filter the criteria the files must also match, or {@code null}.
+     * @param limit  the maximum number of files returned.
+     * @return a future completed with a <code>FileList</code> containing the files that match the query.
+     */
+    public CompletableFuture<FileList> searchAsync(String query, DriveSearchIndex.Filter filter, int limit) {
+        return async(() -> search(query, filter, limit));
+    }
+
+    /**
+     * Asynchronous variant of {@link #search(String)}.
+     *
+     * @param query The words contained in the title.
+     * @return a future completed with the files that match the query.
+     */
+    public CompletableFuture<FileList> searchAsync(String query) {
+        return async(() -> search(query));
+    }
+
+    /**
+     * Sets the index kept up to date with the files listed, searched, moved and uploaded through this instance, and
+     * used to answer searches once warm. The index should be shared by all instances of the same user.
+     *
+     * @param searchIndex the index of the user's files, or {@code null} to search on Drive only.
+     */
+    public void setSearchIndex(DriveSearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * Lists every file of the user that is not trashed into the search index and marks it warm. Files changed outside
+     * of this application are only picked up by indexing again.
+     *
+     * @throws IOException
+     */
+    public void indexFiles() throws IOException {
+        if (searchIndex == null) {
+            throw new IllegalStateException("No search index set.");
+        }
+        try (FilePager pager = iterateFiles("trashed = false", DriveSearchIndex.INDEX_FIELDS)) {
+            while (pager.hasNext()) {
+                searchIndex.put(pager.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        searchIndex.setWarm(true);
+    }
+
+    /**
+     * Asynchronous variant of {@link #indexFiles()}.
+     *
+     * @return a future completed once every file is indexed.
+     */
+    public CompletableFuture<Void> indexFilesAsync() {
+        return async(() -> {
+            indexFiles();
+            return null;
+        });
+    }
+
+    /**
+     * Returns the executor used to send batch requests.
+     *
+     * @return a {@link BatchExecutor} packing up to {@link #DEFAULT_BATCH_SIZE} operations per request.
+     */
+    protected BatchExecutor batchExecutor() {
+        return new BatchExecutor(service::batch, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Returns the metadata of a file, from the metadata cache if one is set.
+     *
+     * @param fileID ID of the file.
+     * @return the file metadata.
+     * @throws IOException
+     */
+    protected File getFileMetadata(String fileID) throws IOException {
+        if (metadataCache == null) {
+            return service.files().get(fileID).execute();
+        }
+        return metadataCache.get(fileID, (id, etag) -> {
+            Drive.Files.Get get = service.files().get(id);
+            if (etag != null) {
+                get.getRequestHeaders().setIfNoneMatch(etag);
+            }
+            try {
+                return get.execute();
+            } catch (HttpResponseException e) {
+                if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+                    return null;
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Removes a file from the metadata cache, if one is set.
+     *
+     * @param fileID ID of the file.
+     */
+    protected void invalidateMetadata(String fileID) {
+        if (metadataCache != null) {
+            metadataCache.invalidate(fileID);
+        }
+    }
+
+    /**
+     * Builds the query matching the non-trashed children of a folder.
+     *
+     * @param folderID the folder ID in which to search for files.
+     * @return the query string.
+     */
+    protected static String folderQuery(String folderID) {
+        return String.format("'%s' in parents and trashed = false", escapeQueryValue(folderID));
+    }
+
+    /**
+     * Builds the query matching the non-trashed files whose title contains every word of a search, and a filter.
+     *
+     * @param query  the words contained in the title, or {@code null}.
+     * @param filter the criteria the files must also match, or {@code null}.
+     * @return the query string.
+     */
+    protected static String searchQuery(String query, DriveSearchIndex.Filter filter) {
+        List<String> clauses = new ArrayList<>();
+        clauses.add("trashed = false");
+        if (query != null) {
+            for (String word : query.trim().split("\\s+")) {
+                if (!word.isEmpty()) {
+                    clauses.add(String.format("title contains '%s'", escapeQueryValue(word)));
+                }
+            }
+        }
+        if (filter != null) {
+            if (filter.getMimeType() != null) {
+                clauses.add(String.format("mimeType = '%s'", escapeQueryValue(filter.getMimeType())));
+            }
+            if (filter.getParentID() != null) {
+                clauses.add(String.format("'%s' in parents", escapeQueryValue(filter.getParentID())));
+            }
+            if (filter.getModifiedAfter() != Long.MIN_VALUE) {
+                clauses.add(String.format("modifiedDate > '%s'",
+                    new DateTime(filter.getModifiedAfter()).toStringRfc3339()));
+            }
+            if (filter.getModifiedBefore() != Long.MAX_VALUE) {
+                clauses.add(String.format("modifiedDate < '%s'",
+                    new DateTime(filter.getModifiedBefore()).toStringRfc3339()));
+            }
+        }
+        return String.join(" and ", clauses);
+    }
+
+    /**
+     * Escapes a value so it can be embedded in a single-quoted Drive query string.
+     *
+     * @param value the value to escape.
+     * @return the escaped value.
+     */
+    protected static String escapeQueryValue(String value) {
+        return value.replace("\\", "\\\\").replace("'", "\\'");
     }
 
     //helper for debugging
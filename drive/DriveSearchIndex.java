@@ -0,0 +1,350 @@
+package com.ps.google.drive;
+
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.ParentReference;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of the titles and metadata of a user's Drive files, answering title searches locally.
+ * <p>
+ * Titles are split into lowercase tokens with accents removed, and kept in a sorted map from token to files. A query
+ * matches the files where every query token is the prefix of a title token, as {@code title contains} does on Drive,
+ * so "rep q3" matches "Q3 Report.pdf". The longest query token is looked up in the map, and the candidates it returns
+ * are checked against the other tokens and the {@link Filter}. Results are sorted with the most recently modified
+ * first; the files of each token are kept in that order, so a search stops reading a token's files as soon as they
+ * are too old to be returned, and a broad prefix costs about as much as a narrow one.
+ * <p>
+ * The index is filled from listings and kept up to date with the files changed through {@link DriveImpl}. It only
+ * answers for the whole drive once it has been marked warm, typically by {@link DriveImpl#indexFiles()}. Trashed files
+ * are removed rather than indexed. The index should be shared by all instances of the same user.
+ */
+public class DriveSearchIndex {
+
+    /** The file fields retrieved to index files */
+    public static final String INDEX_FIELDS = "id,title,mimeType,modifiedDate,parents(id,isRoot)";
+
+    /** Splits titles into tokens */
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /** The combining marks removed from decomposed titles */
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    /** Orders results with the most recently modified first */
+    private static final Comparator<Doc> MOST_RECENT = Comparator.<Doc>comparingLong(doc -> doc.modified).reversed()
+        .thenComparing(doc -> doc.file.getId());
+
+    /** Restricts the files returned by a search. Unset criteria match every file. */
+    public static final class Filter {
+        private String mimeType;
+        private String parentID;
+        private long modifiedAfter = Long.MIN_VALUE;
+        private long modifiedBefore = Long.MAX_VALUE;
+
+        /**
+         * @param mimeType the MIME type of the files, or {@code null} for any type.
+         * @return this filter.
+         */
+        public Filter setMimeType(String mimeType) {
+            this.mimeType = mimeType;
+            return this;
+        }
+
+        /**
+         * @param parentID the ID of a folder directly containing the files, {@link DriveImpl#ROOT_ID} included, or
+         *                 {@code null} for any folder.
+         * @return this filter.
+         */
+        public Filter setParentID(String parentID) {
+            this.parentID = parentID;
+            return this;
+        }
+
+        /**
+         * @param modifiedAfter the time after which the files were last modified (exclusive), in milliseconds.
+         * @return this filter.
+         */
+        public Filter setModifiedAfter(long modifiedAfter) {
+            this.modifiedAfter = modifiedAfter;
+            return this;
+        }
+
+        /**
+         * @param modifiedBefore the time before which the files were last modified (exclusive), in milliseconds.
+         * @return this filter.
+         */
+        public Filter setModifiedBefore(long modifiedBefore) {
+            this.modifiedBefore = modifiedBefore;
+            return this;
+        }
+
+        /**
+         * @return the MIME type of the files, or {@code null} for any type.
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @return the ID of a folder directly containing the files, or {@code null} for any folder.
+         */
+        public String getParentID() {
+            return parentID;
+        }
+
+        /**
+         * @return the time after which the files were last modified (exclusive), in milliseconds.
+         */
+        public long getModifiedAfter() {
+            return modifiedAfter;
+        }
+
+        /**
+         * @return the time before which the files were last modified (exclusive), in milliseconds.
+         */
+        public long getModifiedBefore() {
+            return modifiedBefore;
+        }
+
+        boolean matches(Doc doc) {
+            return (mimeType == null || mimeType.equals(doc.file.getMimeType()))
+                && (parentID == null || doc.parents.contains(parentID))
+                && doc.modified > modifiedAfter && doc.modified < modifiedBefore;
+        }
+    }
+
+    private static final class Doc {
+        final File file;
+        final List<String> tokens;
+        final List<String> parents;
+        final long modified;
+
+        Doc(File file) {
+            this.file = file;
+            this.tokens = tokenize(file.getTitle());
+            List<String> parents = new ArrayList<>();
+            if (file.getParents() != null) {
+                for (ParentReference parent : file.getParents()) {
+                    parents.add(parent.getId());
+                    if (Boolean.TRUE.equals(parent.getIsRoot())) {
+                        parents.add(DriveImpl.ROOT_ID);
+                    }
+                }
+            }
+            this.parents = parents;
+            this.modified = file.getModifiedDate() == null ? 0 : file.getModifiedDate().getValue();
+        }
+
+        boolean matchesAll(List<String> prefixes) {
+            for (String prefix : prefixes) {
+                if (!matches(prefix)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matches(String prefix) {
+            return firstMatch(prefix) != null;
+        }
+
+        String firstMatch(String prefix) {
+            for (String token : tokens) {
+                if (token.startsWith(prefix)) {
+                    return token;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Map<String, Doc> docs = new HashMap<>();
+    /** Every file, and the files of each token and parent, most recently modified first */
+    private final NavigableSet<Doc> byRecency = new TreeSet<>(MOST_RECENT);
+    private final TreeMap<String, NavigableSet<Doc>> byToken = new TreeMap<>();
+    private final Map<String, NavigableSet<Doc>> byParent = new HashMap<>();
+    private volatile boolean warm;
+
+    /**
+     * Adds a file, replacing any previous version of it. Trashed files are removed instead.
+     *
+     * @param file the file, with at least its ID and title, and its parents and modified date to be filtered on.
+     */
+    public synchronized void put(File file) {
+        remove(file.getId());
+        if (file.getLabels() != null && Boolean.TRUE.equals(file.getLabels().getTrashed())) {
+            return;
+        }
+        Doc doc = new Doc(file);
+        docs.put(file.getId(), doc);
+        byRecency.add(doc);
+        for (String token : doc.tokens) {
+            byToken.computeIfAbsent(token, t -> new TreeSet<>(MOST_RECENT)).add(doc);
+        }
+        for (String parent : doc.parents) {
+            byParent.computeIfAbsent(parent, p -> new TreeSet<>(MOST_RECENT)).add(doc);
+        }
+    }
+
+    /**
+     * Adds files, for example the items of a listing.
+     *
+     * @param files the files, or {@code null}.
+     */
+    public synchronized void putAll(Collection<File> files) {
+        if (files != null) {
+            for (File file : files) {
+                put(file);
+            }
+        }
+    }
+
+    /**
+     * Removes a file.
+     *
+     * @param fileID the ID of the file.
+     */
+    public synchronized void remove(String fileID) {
+        Doc doc = docs.remove(fileID);
+        if (doc == null) {
+            return;
+        }
+        byRecency.remove(doc);
+        for (String token : doc.tokens) {
+            removeFrom(byToken, token, doc);
+        }
+        for (String parent : doc.parents) {
+            removeFrom(byParent, parent, doc);
+        }
+    }
+
+    /**
+     * Removes every file and marks the index cold.
+     */
+    public synchronized void clear() {
+        docs.clear();
+        byRecency.clear();
+        byToken.clear();
+        byParent.clear();
+        warm = false;
+    }
+
+    /**
+     * @return the number of indexed files.
+     */
+    public synchronized int size() {
+        return docs.size();
+    }
+
+    /**
+     * @return whether the index holds every file of the user, so searches can be answered without Drive.
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * @param warm whether the index holds every file of the user.
+     */
+    public void setWarm(boolean warm) {
+        this.warm = warm;
+    }
+
+    /**
+     * Searches the indexed files.
+     *
+     * @param query  the words to look for at the start of the title's words, or {@code null} to match every title.
+     * @param filter the criteria the files must also match, or {@code null}.
+     * @param limit  the maximum number of files returned.
+     * @return the matching files, most recently modified first.
+     * @throws IllegalArgumentException if the query is not {@code null} but has no words, such as a blank or
+     *                                  punctuation-only query.
+     */
+    public synchronized List<File> search(String query, Filter filter, int limit) {
+        List<String> prefixes = tokenize(query);
+        if (query != null && prefixes.isEmpty()) {
+            throw new IllegalArgumentException("The query has no words: \"" + query + "\"");
+        }
+        // keeps the most recent matches in a heap headed by the oldest, so only the returned ones are ever sorted
+        PriorityQueue<Doc> matches = new PriorityQueue<>(MOST_RECENT.reversed());
+        if (!prefixes.isEmpty()) {
+            String longest = Collections.max(prefixes, Comparator.comparingInt(String::length));
+            for (Map.Entry<String, NavigableSet<Doc>> token
+                : byToken.subMap(longest, true, longest + Character.MAX_VALUE, false).entrySet()) {
+                collect(token.getValue(), token.getKey(), longest, prefixes, filter, limit, matches);
+            }
+        } else if (filter != null && filter.getParentID() != null) {
+            collect(byParent.getOrDefault(filter.getParentID(), Collections.<Doc>emptyNavigableSet()), null, null,
+                prefixes, filter, limit, matches);
+        } else {
+            collect(byRecency, null, null, prefixes, filter, limit, matches);
+        }
+        File[] files = new File[matches.size()];
+        for (int i = files.length - 1; i >= 0; i--) {
+            files[i] = matches.poll().file;
+        }
+        return Arrays.asList(files);
+    }
+
+    // adds the matching candidates, most recent first, until they are older than every match kept
+    private static void collect(NavigableSet<Doc> candidates, String token, String prefix, List<String> prefixes,
+                                Filter filter, int limit, PriorityQueue<Doc> matches) {
+        for (Doc doc : candidates) {
+            if (matches.size() >= limit && MOST_RECENT.compare(doc, matches.peek()) > 0) {
+                return;
+            }
+            // a title with several tokens starting with the prefix is under each of them, but only counted once
+            if (token != null && !token.equals(doc.firstMatch(prefix))) {
+                continue;
+            }
+            if (doc.matchesAll(prefixes) && (filter == null || filter.matches(doc))) {
+                matches.add(doc);
+                if (matches.size() > limit) {
+                    matches.poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a title or query into lowercase tokens without accents.
+     *
+     * @param text the text to split, or {@code null}.
+     * @return the tokens, in order.
+     */
+    static List<String> tokenize(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFKD))
+            .replaceAll("");
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(normalized)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static void removeFrom(Map<String, NavigableSet<Doc>> index, String key, Doc doc) {
+        NavigableSet<Doc> docs = index.get(key);
+        if (docs != null && docs.remove(doc) && docs.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
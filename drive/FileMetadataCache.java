@@ -0,0 +1,151 @@
+package com.ps.google.drive;
+
+import com.google.api.services.drive.model.File;
+import com.ps.google.EtagCache;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of Drive file metadata keyed by file ID.
+ * <p>
+ * Entries younger than the TTL are served without a request and older ones are revalidated with their ETag, as
+ * described in {@link EtagCache}. The cache is bounded both by the number of files and by the approximate size of their
+ * metadata.
+ * <p>
+ * Metadata is only valid for the user it was fetched for, so a cache instance must not be shared between users.
+ */
+public class FileMetadataCache {
+
+    /** The default maximum number of cached files */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** The default maximum approximate size of the cached files, in bytes */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /** The default time an entry is served without revalidation, in milliseconds */
+    public static final long DEFAULT_TTL = TimeUnit.SECONDS.toMillis(60);
+
+    /** Loads the metadata of a file. */
+    public interface Loader {
+
+        /**
+         * Loads the metadata of a file.
+         *
+         * @param fileID the ID of the file to load.
+         * @param etag   the ETag of the cached metadata, or {@code null} if nothing is cached.
+         * @return the file, or {@code null} if the file has not changed since {@code etag}.
+         * @throws IOException
+         */
+        File load(String fileID, String etag) throws IOException;
+    }
+
+    private final EtagCache<File> cache;
+
+    /**
+     * Creates a cache with the default bounds and TTL.
+     */
+    public FileMetadataCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries the maximum number of cached files.
+     * @param maxBytes   the maximum approximate size of the cached files, in bytes.
+     * @param ttl        the time an entry is served without revalidation, in milliseconds.
+     */
+    public FileMetadataCache(int maxEntries, long maxBytes, long ttl) {
+        this.cache = new EtagCache<>(maxEntries, maxBytes, ttl, File::getEtag, FileMetadataCache::weigh);
+    }
+
+    /**
+     * Returns the metadata of a file, loading or revalidating it if needed.
+     *
+     * @param fileID the ID of the file.
+     * @param loader used to load the file when it is missing or stale.
+     * @return the file metadata.
+     * @throws IOException
+     */
+    public File get(String fileID, Loader loader) throws IOException {
+        return cache.get(fileID, etag -> loader.load(fileID, etag));
+    }
+
+    /**
+     * Caches the metadata of a file, for example the result of a write.
+     *
+     * @param fileID the ID of the file.
+     * @param file   the file metadata.
+     */
+    public void put(String fileID, File file) {
+        cache.put(fileID, file);
+    }
+
+    /**
+     * Removes the metadata of a file from the cache.
+     *
+     * @param fileID the ID of the file.
+     */
+    public void invalidate(String fileID) {
+        cache.invalidate(fileID);
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of cached files.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the approximate size of the cached files, in bytes.
+     */
+    public long getBytes() {
+        return cache.getBytes();
+    }
+
+    /**
+     * @return the number of lookups served from the cache without a request.
+     */
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * @return the number of lookups that had to load the full resource.
+     */
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * @return the number of stale entries confirmed unchanged by their ETag.
+     */
+    public long getRevalidations() {
+        return cache.getRevalidations();
+    }
+
+    /**
+     * @return the number of entries evicted to stay within the bounds.
+     */
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FileMetadataCache{size=%d, bytes=%d, hits=%d, misses=%d, revalidations=%d, evictions=%d}",
+            size(), getBytes(), getHits(), getMisses(), getRevalidations(), getEvictions());
+    }
+
+    // approximate size of the resource: its serialized JSON length, two bytes per char
+    private static long weigh(File file) {
+        return 2L * file.toString().length();
+    }
+}
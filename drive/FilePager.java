@@ -0,0 +1,122 @@
+package com.ps.google.drive;
+
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+import com.ps.google.GoogleOauth2Impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily pages through a Drive file listing. The next page is requested in the background as soon as the current one
+ * arrives, so the caller rarely waits on the network while consuming the results.
+ * <p>
+ * Errors raised while fetching a page are rethrown as {@link UncheckedIOException} from {@link #hasNext()}.
+ */
+public class FilePager implements Iterator<File>, AutoCloseable {
+
+    /** Fetches a single page of results. */
+    public interface PageFetcher {
+
+        /**
+         * Fetches the page identified by the specified token.
+         *
+         * @param pageToken the token of the page to fetch, or {@code null} for the first page.
+         * @return the page of results.
+         * @throws IOException
+         */
+        FileList fetch(String pageToken) throws IOException;
+    }
+
+    private final PageFetcher fetcher;
+    private Iterator<File> current = Collections.emptyIterator();
+    private CompletableFuture<FileList> next;
+
+    /**
+     * Creates a pager and immediately starts fetching the first page.
+     *
+     * @param fetcher the object used to fetch each page.
+     */
+    public FilePager(PageFetcher fetcher) {
+        this.fetcher = fetcher;
+        this.next = prefetch(null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (next == null) {
+                return false;
+            }
+            FileList page = await(next);
+            String pageToken = page.getNextPageToken();
+            next = pageToken == null || pageToken.isEmpty() ? null : prefetch(pageToken);
+            List<File> items = page.getItems();
+            current = items == null ? Collections.<File>emptyIterator() : items.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public File next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Stops paging. A page currently being prefetched is discarded: {@link CompletableFuture#cancel(boolean)} does not
+     * interrupt the thread fetching it, so the request still runs to completion in the background, but its result is
+     * dropped and no further page is requested.
+     */
+    @Override
+    public void close() {
+        if (next != null) {
+            next.cancel(true);
+            next = null;
+        }
+        current = Collections.emptyIterator();
+    }
+
+    /**
+     * Returns a sequential stream over the remaining files. Closing the stream closes this pager.
+     *
+     * @return a lazily paged stream of files.
+     */
+    public Stream<File> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(this::close);
+    }
+
+    private CompletableFuture<FileList> prefetch(String pageToken) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetcher.fetch(pageToken);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, GoogleOauth2Impl.getSharedExecutor());
+    }
+
+    private static FileList await(CompletableFuture<FileList> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.ps.google.drive;
+
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.ps.ddintegration.DownloadFile;
+import com.ps.google.GoogleOauth2Impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a Drive file by fetching byte ranges concurrently with HTTP {@code Range} requests. Each range is written
+ * straight to its position in a temporary file, and the assembled file is verified against Drive's
+ * {@code md5Checksum} before being handed back. A range answered with anything but a {@code 206} response covering
+ * exactly that range fails the download, so a server ignoring {@code Range} cannot corrupt the file. The first range
+ * to fail cancels the others.
+ * <p>
+ * Positional writes are used rather than memory-mapping the file: a mapping stays open until it is garbage collected,
+ * which keeps the file locked on Windows after the download returns.
+ */
+public class ParallelDownloader {
+
+    /** The default number of bytes fetched per range request */
+    public static final int DEFAULT_RANGE_SIZE = 8 * 1024 * 1024;
+
+    /** The status of a response holding the requested range only */
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+
+    /** Size of the buffer used to copy a range into the file */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Drive service;
+    private final int parallelism;
+    private final int rangeSize;
+
+    /**
+     * @param service     the client used to fetch the ranges.
+     * @param parallelism the maximum number of ranges fetched at the same time.
+     */
+    public ParallelDownloader(Drive service, int parallelism) {
+        this(service, parallelism, DEFAULT_RANGE_SIZE);
+    }
+
+    /**
+     * @param service     the client used to fetch the ranges.
+     * @param parallelism the maximum number of ranges fetched at the same time.
+     * @param rangeSize   the number of bytes fetched per range request.
+     */
+    public ParallelDownloader(Drive service, int parallelism, int rangeSize) {
+        if (parallelism < 1 || rangeSize < 1) {
+            throw new IllegalArgumentException("Parallelism and range size must be positive.");
+        }
+        this.service = service;
+        this.parallelism = parallelism;
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Downloads the content of a file. The returned stream reads from a temporary file which is deleted when the
+     * stream is closed.
+     *
+     * @param file the file to download, with at least its ID, title and size populated.
+     * @return the downloaded file.
+     * @throws IOException if a range could not be fetched or the checksum does not match.
+     */
+    public DownloadFile download(File file) throws IOException {
+        long fileSize = file.getFileSize();
+        Path temp = Files.createTempFile("drive-download", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                fetchRanges(file.getId(), fileSize, channel);
+                verifyChecksum(file, channel);
+            }
+            InputStream inputStream = Files.newInputStream(temp, StandardOpenOption.DELETE_ON_CLOSE);
+            return new DownloadFile(file.getTitle(), fileSize, inputStream);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private void fetchRanges(String fileID, long fileSize, FileChannel channel) throws IOException {
+        int rangeCount = (int) ((fileSize + rangeSize - 1) / rangeSize);
+        AtomicInteger nextRange = new AtomicInteger();
+        CompletionService<Void> completion = new ExecutorCompletionService<>(GoogleOauth2Impl.getSharedExecutor());
+        List<Future<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, rangeCount); i++) {
+            workers.add(completion.submit(() -> {
+                int range;
+                while ((range = nextRange.getAndIncrement()) < rangeCount) {
+                    long start = (long) range * rangeSize;
+                    fetchRange(fileID, start, Math.min(rangeSize, fileSize - start), fileSize, channel);
+                }
+                return null;
+            }));
+        }
+
+        // workers are waited for in the order they finish, so the first failure stops the download right away
+        try {
+            for (int i = 0; i < workers.size(); i++) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + fileID, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error downloading a range of " + fileID, e.getCause());
+        } finally {
+            // stop the remaining workers from picking up more ranges, and interrupt the ranges in progress
+            nextRange.set(rangeCount);
+            for (Future<Void> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+    }
+
+    private void fetchRange(String fileID, long start, long length, long fileSize, FileChannel channel)
+        throws IOException {
+        long end = start + length - 1;
+        long position = start;
+        Drive.Files.Get get = service.files().get(fileID);
+        get.getRequestHeaders().setRange(String.format("bytes=%d-%d", start, end));
+        HttpResponse response = get.executeMedia();
+        try {
+            // a server ignoring the range sends the whole file, which is only right if the range is the whole file
+            boolean whole = response.getStatusCode() == HttpStatusCodes.STATUS_CODE_OK && start == 0 && length == fileSize;
+            if (!whole) {
+                String contentRange = response.getHeaders().getContentRange();
+                if (response.getStatusCode() != HTTP_PARTIAL_CONTENT || contentRange == null
+                    || !contentRange.startsWith(String.format("bytes %d-%d/", start, end))) {
+                    throw new IOException(String.format("Range %d-%d of %s was answered with status %d and "
+                        + "Content-Range %s.", start, end, fileID, response.getStatusCode(), contentRange));
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            try (InputStream in = response.getContent()) {
+                int read;
+                while (position <= end
+                    && (read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end + 1 - position))) != -1) {
+                    // an interrupted write closes the channel, which is what a cancelled download wants
+                    buffer.position(0);
+                    buffer.limit(read);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                }
+            }
+        } finally {
+            response.disconnect();
+        }
+        if (position <= end) {
+            throw new IOException(String.format("Range %d-%d of %s ended %d bytes early.",
+                start, end, fileID, end + 1 - position));
+        }
+    }
+
+    private static void verifyChecksum(File file, FileChannel channel) throws IOException {
+        String expected = file.getMd5Checksum();
+        if (expected == null) {
+            Logger.getLogger(ParallelDownloader.class.getName())
+                .log(Level.WARNING, "No checksum available for " + file.getId() + ", skipping verification.");
+            return;
+        }
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long position = 0;
+        int read;
+        while ((read = channel.read(buffer, position)) != -1) {
+            md5.update(buffer.array(), 0, read);
+            position += read;
+            buffer.clear();
+        }
+        String actual = String.format("%032x", new BigInteger(1, md5.digest()));
+        if (!actual.equalsIgnoreCase(expected)) {
+            throw new IOException(String.format("Checksum mismatch for %s: expected %s but was %s.",
+                file.getId(), expected, actual));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.ps.google.drive;
+
+import com.google.api.services.drive.model.Permission;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Permissions of a single file indexed by email address, so that existence checks for many users only need one
+ * listing of the file's permissions. Permissions without an email address, such as domain or "anyone" permissions,
+ * are kept in the list but not indexed.
+ */
+public class PermissionIndex {
+
+    private final List<Permission> permissions;
+    private final Map<String, Permission> byEmail = new HashMap<>();
+
+    /**
+     * @param permissions the permissions of the file.
+     */
+    public PermissionIndex(List<Permission> permissions) {
+        this.permissions = permissions == null ? Collections.<Permission>emptyList() : permissions;
+        for (Permission permission : this.permissions) {
+            String email = permission.getEmailAddress();
+            if (email != null) {
+                byEmail.put(normalize(email), permission);
+            }
+        }
+    }
+
+    /**
+     * Looks for the permission granted to an email address.
+     *
+     * @param email the email address of the user or group.
+     * @return the {@link Permission} or {@code null} if no permission exists for the email address.
+     */
+    public Permission get(String email) {
+        return email == null ? null : byEmail.get(normalize(email));
+    }
+
+    /**
+     * @return all permissions of the file.
+     */
+    public List<Permission> getPermissions() {
+        return Collections.unmodifiableList(permissions);
+    }
+
+    // email addresses are case-insensitive
+    private static String normalize(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,146 @@
+package com.ps.google.plus;
+
+import com.ps.google.EtagCache;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of Google Plus activity responses, keyed by collection, page and field projection.
+ * <p>
+ * Entries younger than the TTL are served without a request, older ones are revalidated with their ETag, and
+ * concurrent lookups of the same key that miss the cache share a single request, as described in {@link EtagCache}.
+ * <p>
+ * Responses are only valid for the user they were fetched for, so a cache instance must not be shared between users.
+ * Cached responses are returned as is and must not be modified by callers.
+ */
+public class ActivityCache {
+
+    /** The default maximum number of cached responses */
+    public static final int DEFAULT_MAX_ENTRIES = 200;
+
+    /** The default time an entry is served without revalidation, in milliseconds */
+    public static final long DEFAULT_TTL = TimeUnit.SECONDS.toMillis(30);
+
+    /** Loads a response. */
+    public interface Loader {
+
+        /**
+         * Loads a response.
+         *
+         * @param etag the ETag of the cached response, or {@code null} if nothing is cached.
+         * @return the response, or {@code null} if it has not changed since {@code etag}.
+         * @throws IOException
+         */
+        Response load(String etag) throws IOException;
+    }
+
+    /** A response and the ETag it was served with. */
+    public static final class Response {
+        private final JSONObject content;
+        private final String etag;
+
+        /**
+         * @param content the parsed response.
+         * @param etag    the ETag of the response, or {@code null} if it has none.
+         */
+        public Response(JSONObject content, String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+
+        /**
+         * @return the parsed response.
+         */
+        public JSONObject getContent() {
+            return content;
+        }
+
+        /**
+         * @return the ETag of the response, or {@code null} if it has none.
+         */
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    private final EtagCache<Response> cache;
+
+    /**
+     * Creates a cache with the default bound and TTL.
+     */
+    public ActivityCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries the maximum number of cached responses.
+     * @param ttl        the time an entry is served without revalidation, in milliseconds.
+     */
+    public ActivityCache(int maxEntries, long ttl) {
+        this.cache = new EtagCache<>(maxEntries, Long.MAX_VALUE, ttl, Response::getEtag, response -> 0);
+    }
+
+    /**
+     * Returns a response, loading or revalidating it if needed. If another thread is already loading the same key,
+     * waits for its result instead of making another request.
+     *
+     * @param key    the key of the response.
+     * @param loader used to load the response when it is missing or stale.
+     * @return the parsed response.
+     * @throws IOException
+     */
+    public JSONObject get(String key, Loader loader) throws IOException {
+        Response response = cache.get(key, loader::load);
+        return response == null ? null : response.getContent();
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of cached responses.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups served from the cache without a request.
+     */
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * @return the number of lookups that had to load the full response.
+     */
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * @return the number of stale entries confirmed unchanged by their ETag.
+     */
+    public long getRevalidations() {
+        return cache.getRevalidations();
+    }
+
+    /**
+     * @return the number of lookups that waited on a request already in flight.
+     */
+    public long getCoalesced() {
+        return cache.getCoalesced();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ActivityCache{size=%d, hits=%d, misses=%d, revalidations=%d, coalesced=%d}",
+            size(), getHits(), getMisses(), getRevalidations(), getCoalesced());
+    }
+}
@@ -0,0 +1,85 @@
+package com.ps.google.plus;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily pages through a Google Plus activity feed. A page is only requested once the caller has consumed the previous
+ * one, so a caller that stops early does not pay for the activities it never reads.
+ * <p>
+ * Errors raised while fetching a page are rethrown as {@link UncheckedIOException} from {@link #hasNext()}.
+ */
+public class ActivityPager implements Iterator<JSONObject> {
+
+    /** Fetches a single page of activities. */
+    public interface PageFetcher {
+
+        /**
+         * Fetches the page identified by the specified token.
+         *
+         * @param pageToken the token of the page to fetch, or {@code null} for the first page.
+         * @return the page, with its activities in {@code items}.
+         * @throws IOException
+         */
+        JSONObject fetch(String pageToken) throws IOException;
+    }
+
+    private final PageFetcher fetcher;
+    private JSONArray items;
+    private int position;
+    private String pageToken;
+    private boolean lastPage;
+
+    /**
+     * @param fetcher the object used to fetch each page.
+     */
+    public ActivityPager(PageFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (items == null || position >= items.length()) {
+            if (lastPage) {
+                return false;
+            }
+            JSONObject page;
+            try {
+                page = fetcher.fetch(pageToken);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            items = page == null ? null : page.optJSONArray("items");
+            position = 0;
+            pageToken = page == null ? null : page.optString("nextPageToken", null);
+            lastPage = pageToken == null || pageToken.isEmpty();
+        }
+        return true;
+    }
+
+    @Override
+    public JSONObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return items.getJSONObject(position++);
+    }
+
+    /**
+     * Returns a sequential stream over the remaining activities.
+     *
+     * @return a lazily paged stream of activities.
+     */
+    public Stream<JSONObject> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
@@ -1,11 +1,17 @@
 package com.ps.google.plus;
 
 import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.ps.google.AccessTokenManager;
 import com.ps.google.GoogleOauth2Impl;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Class which contains helper methods used to communicate with the Google Plus API.
@@ -15,17 +21,73 @@ public class PlusImpl extends GoogleOauth2Impl {
     /** URLs */
     protected static final String ACTIVITIES_LIST_URL = "https://www.googleapis.com/plus/v1/people/me/activities/";
 
+    /** The name of the API, used to share rate limits between a user's wrappers */
+    protected static final String API_NAME = "plus";
+
+    /** The maximum number of activities requested per page when paging through a feed */
+    protected static final int DEFAULT_PAGE_SIZE = 100;
+
     /** The main class used to make HTTP requests */
     protected HttpRequestFactory requestFactory;
 
+    /** Cache of activity responses, or {@code null} if responses are not cached */
+    protected final ActivityCache activityCache;
+
     /**
      * Default constructor.
      *
      * @param token the user's access token used for authentication.
      */
     public PlusImpl(String token) {
+        this(token, (ActivityCache) null);
+    }
+
+    /**
+     * Constructor used to cache activity responses between calls.
+     *
+     * @param token         the user's access token used for authentication.
+     * @param activityCache the cache of the user's activity responses, or {@code null} to disable caching.
+     */
+    public PlusImpl(String token, ActivityCache activityCache) {
         super(token);
-        requestFactory = httpTransport.createRequestFactory(credential);
+        this.activityCache = activityCache;
+        requestFactory = httpTransport.createRequestFactory(requestInitializer(API_NAME));
+    }
+
+    /**
+     * Constructor used to take the user's credential from a token manager. Callers use {@link #forUser}.
+     *
+     * @param userId        the ID of the user.
+     * @param tokenManager  the manager holding the user's credential.
+     * @param activityCache the cache of the user's activity responses, or {@code null} to disable caching.
+     */
+    protected PlusImpl(String userId, AccessTokenManager tokenManager, ActivityCache activityCache) {
+        super(userId, tokenManager);
+        this.activityCache = activityCache;
+        requestFactory = httpTransport.createRequestFactory(requestInitializer(API_NAME));
+    }
+
+    /**
+     * Creates a wrapper taking the user's credential from a token manager.
+     *
+     * @param userId       the ID of the user.
+     * @param tokenManager the manager holding the user's credential.
+     * @return the wrapper.
+     */
+    public static PlusImpl forUser(String userId, AccessTokenManager tokenManager) {
+        return forUser(userId, tokenManager, null);
+    }
+
+    /**
+     * Creates a wrapper taking the user's credential from a token manager and caching activity responses between calls.
+     *
+     * @param userId        the ID of the user.
+     * @param tokenManager  the manager holding the user's credential.
+     * @param activityCache the cache of the user's activity responses, or {@code null} to disable caching.
+     * @return the wrapper.
+     */
+    public static PlusImpl forUser(String userId, AccessTokenManager tokenManager, ActivityCache activityCache) {
+        return new PlusImpl(userId, tokenManager, activityCache);
     }
 
     /**
@@ -36,6 +98,101 @@ public class PlusImpl extends GoogleOauth2Impl {
      * @throws IOException
      */
     public JSONObject getActivities(String collection) throws IOException {
-        return parseJson(requestFactory.buildGetRequest(new GenericUrl(ACTIVITIES_LIST_URL + collection)).execute());
+        return getActivities(collection, null, null);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getActivities(String)}.
+     *
+     * @param collection the collection to retrieve the activities from.
+     * @return a future completed with the authorized user's activities.
+     */
+    public CompletableFuture<JSONObject> getActivitiesAsync(String collection) {
+        return async(() -> getActivities(collection));
+    }
+
+    /**
+     * Retrieves a page of the authorized user's activities, served from the activity cache when one is set.
+     *
+     * @param collection the collection to retrieve the activities from.
+     * @param fields     the fields to include in the response, or {@code null} for all fields.
+     * @param pageToken  the token of the page to retrieve, or {@code null} for the first page.
+     * @return the page of activities.
+     * @throws IOException
+     */
+    public JSONObject getActivities(String collection, String fields, String pageToken) throws IOException {
+        return getActivities(activitiesUrl(collection, fields, pageToken, null));
+    }
+
+    /**
+     * Asynchronous variant of {@link #getActivities(String, String, String)}.
+     *
+     * @param collection the collection to retrieve the activities from.
+     * @param fields     the fields to include in the response, or {@code null} for all fields.
+     * @param pageToken  the token of the page to retrieve, or {@code null} for the first page.
+     * @return a future completed with the page of activities.
+     */
+    public CompletableFuture<JSONObject> getActivitiesAsync(String collection, String fields, String pageToken) {
+        return async(() -> getActivities(collection, fields, pageToken));
+    }
+
+    /**
+     * Returns an iterator lazily paging through the authorized user's activities.
+     *
+     * @param collection the collection to retrieve the activities from.
+     * @param fields     the fields of each activity to include, as a projection of {@code items} such as
+     *                   {@code "items(id,title,published)"}, or {@code null} for all fields.
+     * @return an iterator over the activities, fetching each page as it is needed.
+     */
+    public ActivityPager iterateActivities(String collection, String fields) {
+        String pageFields = fields == null || fields.contains("nextPageToken") ? fields : "nextPageToken," + fields;
+        return new ActivityPager(pageToken ->
+            getActivities(activitiesUrl(collection, pageFields, pageToken, DEFAULT_PAGE_SIZE)));
+    }
+
+    private JSONObject getActivities(GenericUrl url) throws IOException {
+        if (activityCache == null) {
+            return fetchActivities(url, null).getContent();
+        }
+        return activityCache.get(url.build(), etag -> fetchActivities(url, etag));
+    }
+
+    /**
+     * Fetches a page of activities, revalidating a cached copy when an ETag is given.
+     *
+     * @param url  the URL of the page.
+     * @param etag the ETag of the cached page, or {@code null} if nothing is cached.
+     * @return the page, or {@code null} if it has not changed since {@code etag}.
+     * @throws IOException
+     */
+    protected ActivityCache.Response fetchActivities(GenericUrl url, String etag) throws IOException {
+        HttpRequest request = requestFactory.buildGetRequest(url);
+        if (etag != null) {
+            request.getHeaders().setIfNoneMatch(etag);
+        }
+        HttpResponse response;
+        try {
+            response = request.execute();
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+                return null;
+            }
+            throw e;
+        }
+        return new ActivityCache.Response(parseJson(response), response.getHeaders().getETag());
+    }
+
+    private static GenericUrl activitiesUrl(String collection, String fields, String pageToken, Integer maxResults) {
+        GenericUrl url = new GenericUrl(ACTIVITIES_LIST_URL + collection);
+        if (maxResults != null) {
+            url.set("maxResults", maxResults);
+        }
+        if (pageToken != null) {
+            url.set("pageToken", pageToken);
+        }
+        if (fields != null) {
+            url.set("fields", fields);
+        }
+        return url;
     }
 }